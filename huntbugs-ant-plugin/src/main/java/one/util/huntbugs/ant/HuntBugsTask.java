@@ -16,6 +16,7 @@
 package one.util.huntbugs.ant;
 
 import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -28,12 +29,18 @@ import javax.xml.parsers.ParserConfigurationException;
 import one.util.huntbugs.analysis.AnalysisOptions;
 import one.util.huntbugs.analysis.Context;
 import one.util.huntbugs.analysis.HuntBugsResult;
+import one.util.huntbugs.daemon.DaemonClient;
+import one.util.huntbugs.daemon.HuntBugsDaemon;
 import one.util.huntbugs.input.XmlReportReader;
 import one.util.huntbugs.output.Reports;
+import one.util.huntbugs.repo.ArchiveRepository;
 import one.util.huntbugs.repo.AuxRepository;
 import one.util.huntbugs.repo.CompositeRepository;
 import one.util.huntbugs.repo.DirRepository;
 import one.util.huntbugs.repo.JarRepository;
+import one.util.huntbugs.repo.MappedJarRepository;
+import one.util.huntbugs.repo.MappedJarTypeLoader;
+import one.util.huntbugs.repo.MappedZip;
 import one.util.huntbugs.repo.Repository;
 
 import org.apache.tools.ant.BuildException;
@@ -64,17 +71,46 @@ public class HuntBugsTask extends Task {
 	
 	private LogLevel log = LogLevel.VERBOSE; 
 	
+	private int threads = 1;
+	
+	private String executor = "fixed";
+	
+	private File dbCacheDir;
+	
+	private File baseline;
+	
+	private File targetJdk;
+	
+	private boolean useDaemon = true;
+	
 	@Override
 	public void execute() throws BuildException {
 		// Disable unwanted Procyon logging 
 		Logger.getLogger(Reifier.class.getSimpleName()).setLevel(Level.OFF);
 		
-		List<Repository> repos = createRepository();
 		if(xml == null && html == null) {
 			throw new BuildException("Either xml or html must be specified");
 		}
+		DaemonClient daemon = useDaemon ? DaemonClient.find(HuntBugsDaemon.DEFAULT_STATE_FILE) : null;
+		if(daemon != null && executeInDaemon(daemon)) {
+			return;
+		}
+		List<Repository> repos = createRepository();
 		Repository repo = new CompositeRepository(repos);
 		AnalysisOptions opt = new AnalysisOptions();
+		opt.threads = threads;
+		opt.executor = executor;
+		if(dbCacheDir != null)
+			opt.dbCacheDir = dbCacheDir.toString();
+		if(baseline != null)
+			opt.baseline = baseline.toString();
+		if(targetJdk != null)
+			opt.targetJdk = targetJdk.toString();
+		try {
+			opt.getExecutor();
+		} catch (IllegalArgumentException e) {
+			throw new BuildException(e.getMessage());
+		}
 		Context ctx = new Context(repo, opt);
 		if(log == LogLevel.VERBOSE)
 			addListener(ctx);
@@ -92,6 +128,45 @@ public class HuntBugsTask extends Task {
 				: html.toPath(), result);
 	}
 
+	/**
+	 * @return false if daemon is not available
+	 */
+	private boolean executeInDaemon(DaemonClient daemon) {
+		if(classPath == null || classPath.size() == 0) {
+			throw new BuildException("Please specify classPath!");
+		}
+		List<String> args = new ArrayList<>();
+		for(String path : classPath.list()) {
+			args.add(new File(path).getAbsolutePath());
+		}
+		if(auxClassPath != null) {
+			for(String path : auxClassPath.list()) {
+				args.add("-A" + new File(path).getAbsolutePath());
+			}
+		}
+		args.add("-Dthreads=" + threads);
+		args.add("-Dexecutor=" + executor);
+		if(dbCacheDir != null)
+			args.add("-DdbCacheDir=" + dbCacheDir.getAbsolutePath());
+		if(baseline != null)
+			args.add("-Dbaseline=" + baseline.getAbsolutePath());
+		if(targetJdk != null)
+			args.add("-DtargetJdk=" + targetJdk.getAbsolutePath());
+		if(diff != null)
+			args.add("-C" + diff.getAbsolutePath());
+		int exitCode;
+		try {
+			exitCode = daemon.analyze(args, xml == null ? null : xml.toPath(), html == null ? null : html.toPath(),
+				log == LogLevel.VERBOSE ? System.err : new ByteArrayOutputStream(), System.err);
+		} catch (IOException e) {
+			return false;
+		}
+		if(exitCode != 0) {
+			throw new BuildException("HuntBugs daemon failed with exit code " + exitCode);
+		}
+		return true;
+	}
+
 	private void addListener(Context ctx) {
 		long[] lastPrint = {0};
         ctx.addListener((stepName, className, count, total) -> {
@@ -103,6 +178,17 @@ public class HuntBugsTask extends Task {
         });
 	}
 
+	/**
+	 * @return memory-mapped jar or null if it cannot be mapped
+	 */
+	private static MappedZip mapJar(File file) {
+		try {
+			return MappedZip.open(file.toPath());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	private List<Repository> createRepository() {
 		if(classPath == null || classPath.size() == 0) {
 			throw new BuildException("Please specify classPath!");
@@ -114,7 +200,11 @@ public class HuntBugsTask extends Task {
 				repos.add(new DirRepository(file.toPath()));
 			} else if(file.isFile()) {
 				try {
-					repos.add(new JarRepository(new JarFile(file)));
+					MappedZip zip = mapJar(file);
+					if(zip == null)
+						repos.add(new JarRepository(new JarFile(file)));
+					else
+						repos.add(ArchiveRepository.isArchive(zip) ? new ArchiveRepository(zip) : new MappedJarRepository(zip));
 				} catch (IOException e) {
 					throw new BuildException(e);
 				}
@@ -124,13 +214,16 @@ public class HuntBugsTask extends Task {
 		}
 		if(auxClassPath != null) {
 			List<ITypeLoader> auxLoaders = new ArrayList<>();
+			List<java.nio.file.Path> auxJars = new ArrayList<>();
 			for(String path : auxClassPath.list()) {
 				File file = new File(path);
 				if(file.isDirectory()) {
 					auxLoaders.add(new ClasspathTypeLoader(file.toString()));
 				} else if(file.isFile()) {
 					try {
-						auxLoaders.add(new JarTypeLoader(new JarFile(file)));
+						MappedZip zip = mapJar(file);
+						auxLoaders.add(zip != null ? new MappedJarTypeLoader(zip) : new JarTypeLoader(new JarFile(file)));
+						auxJars.add(file.toPath());
 					} catch (IOException e) {
 						throw new BuildException(e);
 					}
@@ -139,7 +232,7 @@ public class HuntBugsTask extends Task {
 				}
 			}
 			if(!auxLoaders.isEmpty()) {
-				repos.add(new AuxRepository(new CompositeTypeLoader(auxLoaders.toArray(new ITypeLoader[0]))));
+				repos.add(new AuxRepository(new CompositeTypeLoader(auxLoaders.toArray(new ITypeLoader[0])), auxJars));
 			}
 		}
 		return repos;
@@ -172,4 +265,28 @@ public class HuntBugsTask extends Task {
 	public void setLog(LogLevel log) {
 		this.log = log;
 	}
+	
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	public void setExecutor(String executor) {
+		this.executor = executor;
+	}
+
+	public void setDbCacheDir(File dbCacheDir) {
+		this.dbCacheDir = dbCacheDir;
+	}
+
+	public void setBaseline(File baseline) {
+		this.baseline = baseline;
+	}
+
+	public void setTargetJdk(File targetJdk) {
+		this.targetJdk = targetJdk;
+	}
+
+	public void setUseDaemon(boolean useDaemon) {
+		this.useDaemon = useDaemon;
+	}
 }
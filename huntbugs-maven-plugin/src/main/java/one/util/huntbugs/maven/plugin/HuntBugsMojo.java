@@ -15,19 +15,21 @@
  */
 package one.util.huntbugs.maven.plugin;
 
-import com.strobel.assembler.metadata.ClasspathTypeLoader;
 import com.strobel.assembler.metadata.CompositeTypeLoader;
 import com.strobel.assembler.metadata.ITypeLoader;
-import com.strobel.assembler.metadata.JarTypeLoader;
 import one.util.huntbugs.analysis.AnalysisOptions;
+import one.util.huntbugs.analysis.AnalysisSession;
 import one.util.huntbugs.analysis.Context;
 import one.util.huntbugs.analysis.HuntBugsResult;
+import one.util.huntbugs.daemon.DaemonClient;
+import one.util.huntbugs.daemon.HuntBugsDaemon;
 import one.util.huntbugs.input.XmlReportReader;
 import one.util.huntbugs.output.Reports;
 import one.util.huntbugs.repo.AuxRepository;
 import one.util.huntbugs.repo.CompositeRepository;
 import one.util.huntbugs.repo.DirRepository;
 import one.util.huntbugs.repo.Repository;
+import one.util.huntbugs.util.Xml;
 import one.util.huntbugs.warning.Warning;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.repository.ArtifactRepository;
@@ -46,21 +48,32 @@ import org.apache.maven.shared.dependency.tree.DependencyNode;
 import org.apache.maven.shared.dependency.tree.DependencyTreeBuilder;
 import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 import org.apache.maven.shared.dependency.tree.traversal.CollectingDependencyNodeVisitor;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.jar.JarFile;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
 
 /**
  * Goal which launches the HuntBugs static analyzer tool.
  */
 @Mojo(name = "huntbugs", defaultPhase = LifecyclePhase.PREPARE_PACKAGE, requiresProject = true, threadSafe = true)
 public class HuntBugsMojo extends AbstractMojo {
+    // Analysis state shared by the modules of the same build; modules may be built concurrently
+    private static final Map<MavenSession, AnalysisSession> SESSIONS = new WeakHashMap<>();
+
     /**
      * Location of the file.
      */
@@ -97,6 +110,44 @@ public class HuntBugsMojo extends AbstractMojo {
     @Parameter(defaultValue = "true", property = "diff", required = true)
     private boolean diff;
     
+    /**
+     * Number of classes to analyze in parallel
+     */
+    @Parameter(defaultValue = "1", property = "threads", required = true)
+    private int threads;
+    
+    /**
+     * Executor for the parallel analysis: sequential, fixed or forkjoin
+     */
+    @Parameter(defaultValue = "fixed", property = "executor", required = true)
+    private String executor;
+    
+    /**
+     * Directory to cache the database contributions of dependency jars
+     * between builds (e.g. ~/.huntbugs/dbcache); not cached if not set
+     */
+    @Parameter(property = "dbCacheDir", required = false)
+    private File dbCacheDir;
+    
+    /**
+     * Report of accepted warnings: matching warnings are not reported
+     */
+    @Parameter(property = "baseline", required = false)
+    private File baseline;
+    
+    /**
+     * Home or jmods directory of the JDK the project is compiled against;
+     * the JDK running Maven is used if not set
+     */
+    @Parameter(property = "targetJdk", required = false)
+    private File targetJdk;
+    
+    /**
+     * Pass the analysis to the HuntBugs daemon if it's running
+     */
+    @Parameter(defaultValue = "true", property = "useDaemon", required = true)
+    private boolean useDaemon;
+    
     @Parameter( defaultValue = "${project.compileClasspathElements}", readonly = true, required = true )
     private List<String> classpathElements;
     
@@ -111,8 +162,23 @@ public class HuntBugsMojo extends AbstractMojo {
 
     @Override
     public void execute() throws MojoExecutionException {
+        AnalysisOptions options = constructOptions();
         try {
-            Context ctx = new Context(constructRepository(), constructOptions());
+            List<Path> dependencies = collectDependencies();
+            DaemonClient daemon = useDaemon ? DaemonClient.find(HuntBugsDaemon.DEFAULT_STATE_FILE) : null;
+            if (daemon != null) {
+                try {
+                    executeInDaemon(daemon, dependencies);
+                    return;
+                } catch (IOException e) {
+                    if (!quiet) {
+                        getLog().info("HuntBugs: daemon is not available, analyzing in-process");
+                    }
+                }
+            }
+            AnalysisSession analysisSession = getAnalysisSession();
+            Context ctx = new Context(constructRepository(dependencies, analysisSession), options,
+                    analysisSession);
 
             if (!quiet) {
                 addAnalysisProgressListener(ctx);
@@ -124,14 +190,111 @@ public class HuntBugsMojo extends AbstractMojo {
             throw new MojoExecutionException("Failed to run HuntBugs", e);
         }
     }
+
+    private void executeInDaemon(DaemonClient daemon, List<Path> dependencies) throws Exception {
+        List<String> args = new ArrayList<>();
+        args.add(classesDirectory.getAbsolutePath());
+        for (Path dependency : dependencies) {
+            args.add("-A" + dependency.toAbsolutePath());
+        }
+        args.add("-DminScore=" + minScore);
+        args.add("-Dthreads=" + threads);
+        args.add("-Dexecutor=" + executor);
+        if (dbCacheDir != null) {
+            args.add("-DdbCacheDir=" + dbCacheDir.getAbsolutePath());
+        }
+        if (baseline != null) {
+            args.add("-Dbaseline=" + baseline.getAbsolutePath());
+        }
+        if (targetJdk != null) {
+            args.add("-DtargetJdk=" + targetJdk.getAbsolutePath());
+        }
+        Path path = outputDirectory.toPath();
+        Path xmlFile = path.resolve("report.xml");
+        Path htmlFile = path.resolve("report.html");
+        if (diff && Files.isRegularFile(xmlFile)) {
+            args.add("-C" + xmlFile.toAbsolutePath());
+        }
+        if (!quiet) {
+            getLog().info("HuntBugs: using daemon");
+        }
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        OutputStream out = quiet ? new ByteArrayOutputStream() : new LogOutputStream();
+        int exitCode = daemon.analyze(args, xmlFile, htmlFile, out, err);
+        if (err.size() > 0) {
+            getLog().warn(new String(err.toByteArray(), StandardCharsets.UTF_8));
+        }
+        if (exitCode != 0) {
+            throw new MojoExecutionException("HuntBugs daemon failed with exit code " + exitCode);
+        }
+        if (failScore > 0) {
+            Document dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xmlFile.toFile());
+            Element warningList = Xml.getChild(dom.getDocumentElement(), "WarningList");
+            if (warningList != null
+                && Xml.elements(warningList).anyMatch(e -> Xml.getIntAttribute(e, "Score", 0) >= failScore)) {
+                throw new MojoFailureException("There are warnings with score higher than " + failScore);
+            }
+        }
+    }
+
+    /**
+     * Logs the lines of the daemon output skipping the progress updates
+     */
+    private class LogOutputStream extends OutputStream {
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) {
+            if (b == '\r') {
+                line.reset();
+            } else if (b == '\n') {
+                String str = new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+                if (!str.isEmpty()) {
+                    getLog().info("HuntBugs: " + str);
+                }
+                line.reset();
+            } else {
+                line.write(b);
+            }
+        }
+    }
     
-    private Repository constructRepository() throws IOException {
+    private AnalysisSession getAnalysisSession() {
+        synchronized (SESSIONS) {
+            return SESSIONS.computeIfAbsent(session, s -> new AnalysisSession());
+        }
+    }
+
+    private Repository constructRepository(List<Path> dependencies, AnalysisSession analysisSession)
+            throws IOException {
         Repository repo = new DirRepository(classesDirectory.toPath());
         
         if (!quiet) {
             getLog().info("HuntBugs: +dir " + classesDirectory);
         }
 
+        // converting dependencies to type loaders
+        List<ITypeLoader> deps = new ArrayList<>();
+        List<Path> jars = new ArrayList<>();
+        for (Path path : dependencies) {
+            if (!quiet) {
+                getLog().info("HuntBugs: +dep " + path);
+            }
+            deps.add(analysisSession.getTypeLoader(path));
+            if (Files.isRegularFile(path)) {
+                jars.add(path);
+            }
+        }
+        
+        if (deps.isEmpty()) {
+            return repo;
+        }
+        
+        return new CompositeRepository(
+            Arrays.asList(repo, new AuxRepository(new CompositeTypeLoader(deps.toArray(new ITypeLoader[0])), jars)));
+    }
+
+    private List<Path> collectDependencies() {
         // collecting project dependencies including pom and transitive dependencies
         ArtifactFilter artifactFilter = new ScopeArtifactFilter("compile");
         DependencyNode rootNode;
@@ -143,49 +306,52 @@ public class HuntBugsMojo extends AbstractMojo {
         CollectingDependencyNodeVisitor visitor = new CollectingDependencyNodeVisitor();
         rootNode.accept(visitor);
 
-        // converting dependencies to type loaders
         List<DependencyNode> nodes = visitor.getNodes();
-        List<ITypeLoader> deps = new ArrayList<>();
+        List<Path> dependencies = new ArrayList<>();
         for (DependencyNode dependencyNode : nodes) {
             int state = dependencyNode.getState();
 
             // checking that transitive dependency is NOT excluded
             if (state == DependencyNode.INCLUDED) {
                 Artifact artifact = dependencyNode.getArtifact();
-                addDependency(artifact, deps);
+                addDependency(artifact, dependencies);
             }
         }
-        
-        if (deps.isEmpty()) {
-            return repo;
-        }
-        
-        return new CompositeRepository(
-            Arrays.asList(repo, new AuxRepository(new CompositeTypeLoader(deps.toArray(new ITypeLoader[0])))));
+        return dependencies;
     }
 
-    private void addDependency(Artifact art, List<ITypeLoader> deps) throws IOException {
+    private void addDependency(Artifact art, List<Path> dependencies) {
         if ("compile".equals(art.getScope())) {
             ArtifactRepository localRepository = session.getLocalRepository();
             File f = localRepository.find(art).getFile();
             if (f != null) {
                 Path path = f.toPath();
-                if (!quiet) {
-                    getLog().info("HuntBugs: +dep " + path);
-                }
-                if (Files.isRegularFile(path) && art.getType().equals("jar")) {
-                    deps.add(new JarTypeLoader(new JarFile(path.toFile())));
-                } else if (Files.isDirectory(path)) {
-                    deps.add(new ClasspathTypeLoader(path.toString()));
+                if ((Files.isRegularFile(path) && art.getType().equals("jar")) || Files.isDirectory(path)) {
+                    dependencies.add(path);
                 }
             }
         }
     }
 
-    private AnalysisOptions constructOptions() {
+    private AnalysisOptions constructOptions() throws MojoExecutionException {
         AnalysisOptions options = new AnalysisOptions();
         options.minScore = minScore;
-        
+        options.threads = threads;
+        options.executor = executor;
+        if (dbCacheDir != null) {
+            options.dbCacheDir = dbCacheDir.toString();
+        }
+        if (baseline != null) {
+            options.baseline = baseline.toString();
+        }
+        if (targetJdk != null) {
+            options.targetJdk = targetJdk.toString();
+        }
+        try {
+            options.getExecutor();
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage());
+        }
         return options;
     }
     
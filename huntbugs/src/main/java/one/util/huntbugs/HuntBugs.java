@@ -25,7 +25,9 @@ import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.jar.JarFile;
 import java.util.logging.LogManager;
 import java.util.regex.Matcher;
@@ -37,15 +39,23 @@ import com.strobel.assembler.metadata.CompositeTypeLoader;
 import com.strobel.assembler.metadata.ITypeLoader;
 import com.strobel.assembler.metadata.JarTypeLoader;
 
+import one.util.huntbugs.analysis.AnalysisExecutor;
 import one.util.huntbugs.analysis.AnalysisOptions;
+import one.util.huntbugs.analysis.AnalysisSession;
 import one.util.huntbugs.analysis.Context;
 import one.util.huntbugs.analysis.HuntBugsResult;
+import one.util.huntbugs.daemon.DaemonClient;
+import one.util.huntbugs.daemon.HuntBugsDaemon;
 import one.util.huntbugs.input.XmlReportReader;
 import one.util.huntbugs.output.Reports;
+import one.util.huntbugs.repo.ArchiveRepository;
 import one.util.huntbugs.repo.AuxRepository;
 import one.util.huntbugs.repo.CompositeRepository;
 import one.util.huntbugs.repo.DirRepository;
 import one.util.huntbugs.repo.JarRepository;
+import one.util.huntbugs.repo.MappedJarRepository;
+import one.util.huntbugs.repo.MappedJarTypeLoader;
+import one.util.huntbugs.repo.MappedZip;
 import one.util.huntbugs.repo.Repository;
 import one.util.huntbugs.warning.rule.CategoryRule;
 import one.util.huntbugs.warning.rule.CompositeRule;
@@ -53,10 +63,15 @@ import one.util.huntbugs.warning.rule.RegexRule;
 import one.util.huntbugs.warning.rule.Rule;
 
 /**
+ * Command line interface. If {@link HuntBugsDaemon} is running, the job is
+ * passed to it unless -nodaemon option is specified.
+ * 
  * @author Tagir Valeev
  *
  */
 public class HuntBugs {
+    private static final long WATCH_DEBOUNCE_MILLIS = 300;
+
     private boolean listDetectors = false;
     private boolean listVariables = false;
     private boolean listDatabases = false;
@@ -64,10 +79,63 @@ public class HuntBugs {
     private final AnalysisOptions options = new AnalysisOptions();
     private Repository repo;
     private Path compareTo;
+    private Path changedList;
+    // previous result to take the warnings of unchanged classes from; huntbugs.warnings.xml by default
+    private Path previousResult;
+    private boolean watch = false;
+    // directory repositories to watch in watch mode
+    private final List<Path> watchDirs = new ArrayList<>();
+    // directory to resolve relative paths and write the results to
+    private final Path baseDir;
+    private final PrintStream out;
+    private final PrintStream err;
+    // true if the job is run by the daemon: results are written when analysis finishes rather than on JVM exit
+    private final boolean embedded;
+    private final List<JarFile> openJars = new ArrayList<>();
+    private final List<MappedZip> mappedJars = new ArrayList<>();
+    // state shared with the previous jobs of the same process; may be null
+    private final AnalysisSession session;
+
+    public HuntBugs() {
+        this.baseDir = Paths.get("");
+        this.out = System.out;
+        this.err = System.err;
+        this.embedded = false;
+        this.session = null;
+    }
+
+    /**
+     * Creates the instance to run the job inside the long-lived process
+     * 
+     * @param baseDir working directory of the job
+     * @param out stream for the standard output
+     * @param err stream for the error output
+     */
+    public HuntBugs(Path baseDir, PrintStream out, PrintStream err) {
+        this(baseDir, out, err, null);
+    }
+
+    /**
+     * Creates the instance to run the job inside the long-lived process
+     * 
+     * @param baseDir working directory of the job
+     * @param out stream for the standard output
+     * @param err stream for the error output
+     * @param session session to share the dependency loaders, boot classpath
+     *        types and dependency databases with other jobs; may be null
+     */
+    public HuntBugs(Path baseDir, PrintStream out, PrintStream err, AnalysisSession session) {
+        this.baseDir = baseDir;
+        this.out = out;
+        this.err = err;
+        this.embedded = true;
+        this.session = session;
+    }
 
     private void parseCommandLine(String[] args) {
         List<Repository> repos = new ArrayList<>();
         List<ITypeLoader> deps = new ArrayList<>();
+        List<Path> depJars = new ArrayList<>();
         List<Rule> rules = new ArrayList<>();
         for (String arg : args) {
             if (arg.equals("-lw")) {
@@ -79,7 +147,13 @@ public class HuntBugs {
             } else if (arg.equals("-lm")) {
                 listMessages = true;
             } else if (arg.startsWith("-C")) {
-                compareTo = Paths.get(arg.substring(2));
+                compareTo = baseDir.resolve(arg.substring(2));
+            } else if (arg.equals("-watch")) {
+                watch = true;
+            } else if (arg.startsWith("-I")) {
+                changedList = baseDir.resolve(arg.substring(2));
+            } else if (arg.startsWith("-P")) {
+                previousResult = baseDir.resolve(arg.substring(2));
             } else if (arg.startsWith("-D")) {
                 int pos = arg.indexOf('=');
                 if (pos < 0) {
@@ -88,6 +162,10 @@ public class HuntBugs {
                 String name = arg.substring(2, pos).trim();
                 String value = arg.substring(pos + 1).trim();
                 options.set(name, value);
+                if (name.equals("executor")) {
+                    // validate early
+                    AnalysisExecutor.forName(value);
+                }
             } else if (arg.startsWith("-R")) {
                 int colonPos = arg.indexOf(':');
                 int equalPos = arg.lastIndexOf('=');
@@ -122,33 +200,76 @@ public class HuntBugs {
                 }
             } else if(arg.startsWith("-A")){
                 try {
-                    glob(arg.substring(2)).map(this::createTypeLoader).forEach(deps::add);
+                    glob(baseDir, arg.substring(2)).forEach(path -> {
+                        deps.add(createTypeLoader(path));
+                        if (!Files.isDirectory(path))
+                            depJars.add(path);
+                    });
                 } catch (IOException e) {
                     throw new IllegalArgumentException("Cannot open JAR file " + arg);
                 }
             } else {
                 try {
-                    glob(arg).map(this::createRepository).forEach(repos::add);
+                    glob(baseDir, arg).map(this::createRepository).forEach(repos::add);
                 } catch (IOException e) {
                     throw new IllegalArgumentException("Cannot open JAR file " + arg);
                 }
             }
         }
         if (!deps.isEmpty()) {
-            repos.add(new AuxRepository(new CompositeTypeLoader(deps.toArray(new ITypeLoader[0]))));
+            repos.add(new AuxRepository(new CompositeTypeLoader(deps.toArray(new ITypeLoader[0])), depJars));
         }
         if (!repos.isEmpty()) {
             repo = new CompositeRepository(repos);
         }
+        // path options are relative to the working directory of the job
+        options.cacheDir = resolveOption(options.cacheDir);
+        options.dbSnapshot = resolveOption(options.dbSnapshot);
+        options.dbCacheDir = resolveOption(options.dbCacheDir);
+        options.jdkIndex = resolveOption(options.jdkIndex);
+        options.baseline = resolveOption(options.baseline);
+        options.targetJdk = resolveOption(options.targetJdk);
         if (rules.size() == 1)
             options.setRule(rules.get(0));
         else if (rules.size() > 1)
             options.setRule(new CompositeRule(rules));
     }
 
+    private String resolveOption(String path) {
+        return path.isEmpty() ? path : baseDir.resolve(path).toString();
+    }
+
+    private JarFile openJar(Path path) throws IOException {
+        JarFile jar = new JarFile(path.toFile());
+        openJars.add(jar);
+        return jar;
+    }
+
+    /**
+     * @return memory-mapped jar or null if the jar cannot be mapped, so it
+     *         should be opened as JarFile
+     */
+    private MappedZip mapJar(Path path) {
+        try {
+            MappedZip zip = MappedZip.open(path);
+            mappedJars.add(zip);
+            return zip;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     private Repository createRepository(Path path) {
         try {
-            return Files.isDirectory(path) ? new DirRepository(path) : new JarRepository(new JarFile(path.toFile()));
+            if (Files.isDirectory(path)) {
+                watchDirs.add(path);
+                return new DirRepository(path);
+            }
+            MappedZip zip = mapJar(path);
+            if (zip == null)
+                return new JarRepository(openJar(path));
+            // Spring Boot, web and enterprise applications are read without extraction
+            return ArchiveRepository.isArchive(zip) ? new ArchiveRepository(zip) : new MappedJarRepository(zip);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -156,114 +277,236 @@ public class HuntBugs {
 
     private ITypeLoader createTypeLoader(Path path) {
         try {
-            return Files.isDirectory(path) ? new ClasspathTypeLoader(path.toString()) : new JarTypeLoader(new JarFile(path.toFile()));
+            if (session != null)
+                return session.getTypeLoader(path);
+            if (Files.isDirectory(path))
+                return new ClasspathTypeLoader(path.toString());
+            MappedZip zip = mapJar(path);
+            return zip != null ? new MappedJarTypeLoader(zip) : new JarTypeLoader(openJar(path));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
     
-    private int run(String[] args) {
-        LogManager.getLogManager().reset();
+    /**
+     * Runs the command line job
+     * 
+     * @param args command line arguments
+     * @return exit code
+     */
+    public int run(String[] args) {
+        try {
+            return doRun(args);
+        } finally {
+            if (embedded) {
+                for (JarFile jar : openJars) {
+                    try {
+                        jar.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+                mappedJars.forEach(MappedZip::close);
+            }
+        }
+    }
+
+    private int doRun(String[] args) {
+        if (!embedded)
+            LogManager.getLogManager().reset();
         if (args.length == 0) {
-            System.out.println("Welcome to HuntBugs");
-            System.out.println("Please specify at least one option or at least one directory/jar to analyze");
-            System.out.println("Options are:");
-            System.out.println("    -lw                        -- list all warning types");
-            System.out.println("    -lv                        -- list all variables");
-            System.out.println("    -ldb                       -- list all databases");
-            System.out.println("    -lm                        -- list warning titles");
-            System.out.println("    -ColdResult.xml            -- output difference with old result");
-            System.out.println("    -Apath                     -- dependency path");
-            System.out.println("    -Dname=value               -- set given variable");
-            System.out.println("    -Rruletype:rule=adjustment -- adjust score for warnings");
+            out.println("Welcome to HuntBugs");
+            out.println("Please specify at least one option or at least one directory/jar to analyze");
+            out.println("Options are:");
+            out.println("    -lw                        -- list all warning types");
+            out.println("    -lv                        -- list all variables");
+            out.println("    -ldb                       -- list all databases");
+            out.println("    -lm                        -- list warning titles");
+            out.println("    -ColdResult.xml            -- output difference with old result");
+            out.println("    -Apath                     -- dependency path");
+            out.println("    -Ichanged.txt              -- reanalyze only changed classes listed in file");
+            out.println("    -Pprevious.xml             -- previous result for -I (default: huntbugs.warnings.xml)");
+            out.println("    -watch                     -- reanalyze changed classes in directories until stopped");
+            out.println("    -Dname=value               -- set given variable");
+            out.println("    -Rruletype:rule=adjustment -- adjust score for warnings");
+            out.println("    -daemon                    -- start the daemon to speed up subsequent runs");
+            out.println("    -daemon:stop               -- stop the running daemon");
+            out.println("    -nodaemon                  -- do not use the running daemon");
             return -1;
         }
         try {
             parseCommandLine(args);
         } catch (IllegalArgumentException ex) {
-            System.err.println(ex.getMessage());
+            err.println(ex.getMessage());
             return -3;
         }
         boolean list = false;
-        Context ctx = new Context(repo, options);
+        Context ctx = new Context(repo, options, session);
         if (listDetectors) {
-            System.out.println("List of warning types:");
-            ctx.reportWarningTypes(System.out);
+            out.println("List of warning types:");
+            ctx.reportWarningTypes(out);
             list = true;
         }
         if (listVariables) {
-            System.out.println("List of variables:");
-            options.report(System.out);
+            out.println("List of variables:");
+            options.report(out);
             list = true;
         }
         if (listDatabases) {
-            System.out.println("List of databases:");
-            ctx.reportDatabases(System.out);
+            out.println("List of databases:");
+            ctx.reportDatabases(out);
             list = true;
         }
         if (listMessages) {
-            System.out.println("List of warning titles:");
-            ctx.reportTitles(System.out);
+            out.println("List of warning titles:");
+            ctx.reportTitles(out);
             list = true;
         }
         if (repo == null) {
             if (list) {
-                ctx.reportStats(System.out);
+                ctx.reportStats(out);
                 return 0;
             }
-            System.err.println("No repositories specified");
+            err.println("No repositories specified");
             return -2;
         }
+        List<String> changed = null;
+        HuntBugsResult previous = null;
+        if (changedList != null) {
+            Path previousResult = this.previousResult == null ? baseDir.resolve("huntbugs.warnings.xml")
+                    : this.previousResult;
+            try {
+                changed = Files.readAllLines(changedList);
+            } catch (IOException e) {
+                err.println("Unable to read changed classes list " + changedList + ": " + e);
+                return -3;
+            }
+            if (Files.isRegularFile(previousResult)) {
+                try {
+                    previous = XmlReportReader.read(ctx, previousResult);
+                } catch (Exception e) {
+                    out.println("Warning: unable to read previous result file " + previousResult + ": " + e);
+                }
+            }
+            if (previous == null) {
+                out.println("No previous result: analyzing all the classes");
+                changed = null;
+            }
+        }
+        if (watch) {
+            return watch(ctx);
+        }
         long start = System.nanoTime();
+        addProgressListener(ctx);
+        if (embedded) {
+            ctx.analyzePackage("", changed, previous);
+            writeResults(ctx, start);
+            return 0;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> writeResults(ctx, start)));
+        ctx.analyzePackage("", changed, previous);
+        return 0;
+    }
+
+    /**
+     * Analyzes everything, then reanalyzes the changed classes and rewrites
+     * the results on every change in the directory repositories. Database
+     * contributions of unchanged classes are restored from the snapshot
+     * (temporary unless {@link AnalysisOptions#dbSnapshot} is set), so only
+     * the changed classes are read during the preparation.
+     */
+    private int watch(Context first) {
+        if (watchDirs.isEmpty()) {
+            err.println("Watch mode requires at least one directory to analyze");
+            return -2;
+        }
+        try {
+            if (options.dbSnapshot.isEmpty()) {
+                Path snapshot = Files.createTempFile("huntbugs", ".dbsnapshot");
+                snapshot.toFile().deleteOnExit();
+                options.dbSnapshot = snapshot.toString();
+            }
+            // start watching before the analysis, so changes made in the meantime are not lost
+            try (Watcher watcher = new Watcher(watchDirs)) {
+                Context ctx = first;
+                HuntBugsResult previous = null;
+                Set<String> changed = null;
+                while (true) {
+                    long start = System.nanoTime();
+                    addProgressListener(ctx);
+                    ctx.analyzePackage("", changed, previous);
+                    writeResults(ctx, start);
+                    previous = ctx;
+                    out.println("Watching for changes...");
+                    changed = watcher.awaitChanges(WATCH_DEBOUNCE_MILLIS);
+                    ctx = new Context(repo, options, session);
+                }
+            }
+        } catch (IOException e) {
+            err.println("Unable to watch the directories: " + e);
+            return -4;
+        } catch (InterruptedException e) {
+            return 0;
+        }
+    }
+
+    private void addProgressListener(Context ctx) {
         ctx.addListener((stage, className, count, total) -> {
             if (count == 0)
-                System.out.printf("\r%70s\r%s...%n", "", stage);
+                out.printf("\r%70s\r%s...%n", "", stage);
             else {
                 if (className == null)
                     className = "";
                 String name = className.length() > 50 ? "..." + className.substring(className.length() - 47) : className;
-                System.out.printf("\r%70s\r[%d/%d] %s", "", count, total, name);
+                out.printf("\r%70s\r[%d/%d] %s", "", count, total, name);
             }
-            return true;
+            // stop if the client of the daemon has gone
+            return !out.checkError();
         });
-        Runtime.getRuntime().addShutdownHook(
-            new Thread(() -> {
+    }
+
+    private void writeResults(Context ctx, long start) {
+        try {
+            try (PrintStream errors = new PrintStream(baseDir.resolve("huntbugs.errors.txt").toFile(), "UTF-8")) {
+                ctx.reportErrors(errors);
+            }
+            try (PrintStream stats = new PrintStream(baseDir.resolve("huntbugs.stats.txt").toFile(), "UTF-8")) {
+                ctx.reportStats(stats);
+            }
+            HuntBugsResult result = ctx;
+            if(compareTo != null) {
                 try {
-                    ctx.reportErrors(new PrintStream("huntbugs.errors.txt", "UTF-8"));
-                    ctx.reportStats(new PrintStream("huntbugs.stats.txt", "UTF-8"));
-                    HuntBugsResult result = ctx;
-                    if(compareTo != null) {
-                        try {
-                            result = Reports.diff(XmlReportReader.read(ctx, compareTo), ctx);
-                        } catch (Exception e) {
-                            System.out.println("Warning: unable to read old result file "+compareTo+": "+e);
-                            System.out.println("Saving non-diff result");
-                        }
-                    }
-                    Reports.write(Paths.get("huntbugs.warnings.xml"), Paths.get("huntbugs.warnings.html"), result);
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
+                    result = Reports.diff(XmlReportReader.read(ctx, compareTo), ctx);
+                } catch (Exception e) {
+                    out.println("Warning: unable to read old result file "+compareTo+": "+e);
+                    out.println("Saving non-diff result");
                 }
-                long end = System.nanoTime();
-                Duration dur = Duration.ofNanos(end - start);
-                System.out.printf("\r%70s\r", "");
-                System.out.println("Analyzed " + ctx.getClassesCount() + " of " + ctx.getTotalClasses() + " classes");
-                ctx.reportStats(System.out);
-                System.out.println("Analyzis time " + dur.toMinutes() + "m" + dur.getSeconds() % 60 + "s");
-            }));
-        ctx.analyzePackage("");
-        return 0;
+            }
+            Reports.write(baseDir.resolve("huntbugs.warnings.xml"), baseDir.resolve("huntbugs.warnings.html"), result);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long end = System.nanoTime();
+        Duration dur = Duration.ofNanos(end - start);
+        out.printf("\r%70s\r", "");
+        out.println("Analyzed " + ctx.getClassesCount() + " of " + ctx.getTotalClasses() + " classes");
+        ctx.reportStats(out);
+        out.println("Analyzis time " + dur.toMinutes() + "m" + dur.getSeconds() % 60 + "s");
     }
     
     static Stream<Path> glob(String mask) throws IOException {
+        return glob(Paths.get(""), mask);
+    }
+
+    static Stream<Path> glob(Path baseDir, String mask) throws IOException {
         Matcher matcher = Pattern.compile("(.*)[\\\\/](.*)").matcher(mask);
         Path parentPath;
         String fName;
         if(matcher.matches()) {
-            parentPath = Paths.get(matcher.group(1));
+            parentPath = baseDir.resolve(matcher.group(1));
             fName = matcher.group(2);
         } else {
-            parentPath = Paths.get(".");
+            parentPath = baseDir.resolve(".");
             fName = mask;
         }
         PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher("glob:" + fName);
@@ -271,6 +514,36 @@ public class HuntBugs {
     }
 
     public static void main(String[] args) {
-        System.exit(new HuntBugs().run(args));
+        List<String> list = new ArrayList<>(Arrays.asList(args));
+        try {
+            if (list.equals(Arrays.asList("-daemon"))) {
+                new HuntBugsDaemon(HuntBugsDaemon.DEFAULT_STATE_FILE).run();
+                System.exit(0);
+            }
+            if (list.equals(Arrays.asList("-daemon:stop"))) {
+                DaemonClient client = DaemonClient.find(HuntBugsDaemon.DEFAULT_STATE_FILE);
+                if (client == null) {
+                    System.err.println("HuntBugs daemon is not running");
+                    System.exit(-2);
+                }
+                client.stop();
+                System.exit(0);
+            }
+        } catch (IOException e) {
+            System.err.println("HuntBugs daemon failure: " + e);
+            System.exit(-4);
+        }
+        // watching job would occupy the daemon forever
+        if (!list.remove("-nodaemon") && !list.isEmpty() && !list.contains("-watch")) {
+            DaemonClient client = DaemonClient.find(HuntBugsDaemon.DEFAULT_STATE_FILE);
+            if (client != null) {
+                try {
+                    System.exit(client.run(Paths.get("").toAbsolutePath(), list, System.out, System.err));
+                } catch (IOException e) {
+                    // daemon is not available: run in this process
+                }
+            }
+        }
+        System.exit(new HuntBugs().run(list.toArray(new String[0])));
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches the classfiles in the directory trees. Changes are debounced, as
+ * compiler usually writes many classfiles at once.
+ */
+final class Watcher implements Closeable {
+    private final WatchService service;
+    // watch key -> repository root and watched directory
+    private final Map<WatchKey, Path[]> keys = new HashMap<>();
+
+    /**
+     * @param roots roots of the directory repositories
+     * @throws IOException if watching is not possible
+     */
+    Watcher(List<Path> roots) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        for (Path root : roots) {
+            registerTree(root, root);
+        }
+    }
+
+    private void registerTree(Path root, Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = subDir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                keys.put(key, new Path[] { root, subDir });
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Waits for the changes and returns when no more changes happen during
+     * the debounce period
+     *
+     * @param debounceMillis debounce period in milliseconds
+     * @return changed classfile paths relative to their repository roots or
+     *         null if some changes were lost, so everything should be
+     *         considered changed
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException if newly created directory cannot be watched
+     */
+    Set<String> awaitChanges(long debounceMillis) throws InterruptedException, IOException {
+        Set<String> changed = new TreeSet<>();
+        boolean overflow = false;
+        WatchKey key = service.take();
+        while (key != null) {
+            Path[] dirs = keys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (dirs == null)
+                    continue;
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                Path path = dirs[1].resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    registerTree(dirs[0], path);
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.forEach(file -> addChange(changed, dirs[0], file));
+                    }
+                } else {
+                    addChange(changed, dirs[0], path);
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+            }
+            key = service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+        }
+        return overflow ? null : changed;
+    }
+
+    private static void addChange(Set<String> changed, Path root, Path path) {
+        if (path.getFileName().toString().endsWith(".class")) {
+            changed.add(root.relativize(path).toString().replace('\\', '/'));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.strobel.assembler.ir.ConstantPool;
+import com.strobel.assembler.ir.ConstantPool.TypeInfoEntry;
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+import com.strobel.assembler.metadata.TypeDefinition;
+import com.strobel.assembler.metadata.TypeReference;
+
+import one.util.huntbugs.input.XmlReportReader;
+import one.util.huntbugs.output.Reports;
+import one.util.huntbugs.warning.Messages;
+import one.util.huntbugs.warning.Warning;
+
+/**
+ * Persistent cache of the class analysis results (see
+ * {@link AnalysisOptions#cacheDir}).
+ * 
+ * The result of every top-level class is stored under the key which is the
+ * hash of:
+ * <ul>
+ * <li>HuntBugs version, active warning types with their scores and the
+ * options which affect the result;</li>
+ * <li>classfile bytes of the class and its nested classes;</li>
+ * <li>classfile bytes of the classes which may contribute to the database
+ * facts the class analysis may query.</li>
+ * </ul>
+ * The facts about the analyzed type T are collected from T itself and from
+ * every class which refers to T in its constant pool, and detectors may query
+ * the facts about the analyzed class, the types it refers to, their supertypes
+ * and their subtypes. All the analyzed classes which refer to any of these
+ * types are considered as dependencies. Facts about the dependency (library)
+ * types are assumed to depend on the library classfiles only, which are
+ * hashed as well.
+ * 
+ * Results which contain errors are never stored. The least recently used
+ * entries are removed when the cache exceeds
+ * {@link AnalysisOptions#cacheMaxMb}.
+ */
+final class AnalysisCache {
+    // AnalysisOptions fields which do not affect the analysis result
+    private static final Set<String> EXECUTION_OPTIONS = new HashSet<>(Arrays.asList("classesPerFlush",
+        "typesPerFlush", "flushHeapPercent", "threads", "loadThreads", "loadQueueSize", "classCacheMb",
+        "executor",
+        "sharedTypes", "preloadJdkTypes", "cacheDir", "cacheMaxMb", "dbSnapshot", "dbCacheDir", "jdkIndex",
+        "baseline"));
+
+    private final Context ctx;
+    private final Path dir;
+    private final ITypeLoader loader;
+    private final byte[] fingerprint;
+
+    // top-level classes which are analyzed (not the dependencies)
+    private final Set<String> analyzed = ConcurrentHashMap.newKeySet();
+    // top-level class -> hash of its classfile and nested classfiles
+    private final Map<String, String> contentHashes = new ConcurrentHashMap<>();
+    // top-level class -> top-level types referenced from its constant pool
+    private final Map<String, Set<String>> references = new ConcurrentHashMap<>();
+    // top-level class -> direct supertypes
+    private final Map<String, Set<String>> supers = new ConcurrentHashMap<>();
+    // reverse indexes built on the first key computation
+    private Map<String, Set<String>> referencedBy;
+    private Map<String, Set<String>> subTypes;
+    // type -> hash of the analyzed classes which refer to it (i.e. may contribute facts about it)
+    private final Map<String, String> referrersHashes = new ConcurrentHashMap<>();
+
+    /**
+     * @param ctx analysis context
+     * @param dir cache directory (created if necessary)
+     * @param loader thread-safe loader to read the classfiles
+     */
+    AnalysisCache(Context ctx, Path dir, ITypeLoader loader) {
+        this.ctx = ctx;
+        this.dir = dir;
+        this.loader = loader;
+        this.fingerprint = computeFingerprint(ctx);
+    }
+
+    private static byte[] computeFingerprint(Context ctx) {
+        MessageDigest md = createDigest();
+        update(md, String.valueOf(Context.class.getPackage().getImplementationVersion()));
+        update(md, System.getProperty("java.version"));
+        AnalysisOptions options = ctx.getOptions();
+        for (Field field : AnalysisOptions.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || EXECUTION_OPTIONS.contains(field.getName()))
+                continue;
+            try {
+                update(md, field.getName() + "=" + field.get(options));
+            } catch (IllegalAccessException e) {
+                throw new InternalError(e);
+            }
+        }
+        // rules are already applied to the warning types
+        ctx.warningTypes().map(wt -> wt.getCategory() + "/" + wt.getName() + "/" + wt.getMaxScore()).sorted()
+                .forEach(str -> update(md, str));
+        return md.digest();
+    }
+
+    /**
+     * Registers the type read during the preparation, so it can be considered
+     * as dependency of other classes.
+     * 
+     * @param type top-level type
+     * @param isAnalyzed true if the type is analyzed, false if it's a
+     *        dependency
+     */
+    void register(TypeDefinition type, boolean isAnalyzed) {
+        String name = type.getInternalName();
+        if (isAnalyzed)
+            analyzed.add(name);
+        if (contentHashes.containsKey(name))
+            return;
+        register(name, isAnalyzed, ctx.hashContent(loader, typeNames(type)), references(type), supers(type));
+    }
+
+    /**
+     * Registers the type which was not read during the preparation as its
+     * data is already known (see {@link DatabaseSnapshot})
+     * 
+     * @param name internal name of the top-level type
+     * @param isAnalyzed true if the type is analyzed, false if it's a
+     *        dependency
+     * @param contentHash hash of the type classfile and its nested classfiles
+     *        as computed by {@link #hashContent(ClassfileCache, ITypeLoader, List)}
+     * @param refs top-level types referenced from the type constant pool
+     * @param superTypes direct supertypes
+     */
+    void register(String name, boolean isAnalyzed, String contentHash, Set<String> refs, Set<String> superTypes) {
+        if (isAnalyzed)
+            analyzed.add(name);
+        references.putIfAbsent(name, refs);
+        supers.putIfAbsent(name, superTypes);
+        contentHashes.putIfAbsent(name, contentHash);
+    }
+
+    /**
+     * @param type top-level type
+     * @return top-level types referenced from the type constant pool except
+     *         the type itself
+     */
+    static Set<String> references(TypeDefinition type) {
+        String name = type.getInternalName();
+        Set<String> refs = new HashSet<>();
+        for (ConstantPool.Entry entry : type.getConstantPool()) {
+            if (entry instanceof TypeInfoEntry) {
+                String depName = Context.getMainType(((TypeInfoEntry) entry).getName());
+                if (depName != null && !depName.equals(name))
+                    refs.add(depName);
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * @param type type
+     * @return internal names of the top-level types declaring the direct
+     *         supertypes
+     */
+    static Set<String> supers(TypeDefinition type) {
+        Set<String> superTypes = new HashSet<>();
+        TypeReference base = type.getBaseType();
+        if (base != null)
+            addMainType(superTypes, base);
+        for (TypeReference iface : type.getExplicitInterfaces())
+            addMainType(superTypes, iface);
+        return superTypes;
+    }
+
+    private static void addMainType(Set<String> types, TypeReference type) {
+        // the graph is keyed by the top-level types
+        String mainType = Context.getMainType(type.getInternalName());
+        if (mainType != null)
+            types.add(mainType);
+    }
+
+    /**
+     * @param type top-level type to analyze
+     * @return key to store the analysis result under
+     */
+    String key(TypeDefinition type) {
+        register(type, true);
+        buildIndexes();
+        String name = type.getInternalName();
+        Set<String> types = new HashSet<>();
+        types.add(name);
+        types.addAll(references.getOrDefault(name, Collections.emptySet()));
+        Set<String> result = new TreeSet<>(types);
+        for (String t : types) {
+            closure(t, supers, result);
+        }
+        Set<String> related = result.stream().filter(analyzed::contains).collect(Collectors.toCollection(
+            TreeSet::new));
+        for (String t : new ArrayList<>(related)) {
+            closure(t, subTypes, related);
+        }
+        result.addAll(related);
+        MessageDigest md = createDigest();
+        md.update(fingerprint);
+        for (String dep : result) {
+            String hash = contentHashes.get(dep);
+            // types which were not read during the preparation (like JDK types) are covered by the fingerprint
+            if (hash != null)
+                update(md, dep + "=" + hash);
+        }
+        // referrers of the widely used type are hashed once rather than for every class which depends on it
+        for (String t : related) {
+            update(md, t + "<" + referrersHash(t));
+        }
+        return toHex(md.digest());
+    }
+
+    private String referrersHash(String type) {
+        return referrersHashes.computeIfAbsent(type, t -> {
+            MessageDigest md = createDigest();
+            for (String ref : new TreeSet<>(referencedBy.getOrDefault(t, Collections.emptySet()))) {
+                String hash = contentHashes.get(ref);
+                if (hash != null)
+                    update(md, ref + "=" + hash);
+            }
+            return toHex(md.digest());
+        });
+    }
+
+    private static void closure(String start, Map<String, Set<String>> graph, Set<String> result) {
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            for (String next : graph.getOrDefault(queue.poll(), Collections.emptySet())) {
+                if (result.add(next))
+                    queue.add(next);
+            }
+        }
+    }
+
+    private synchronized void buildIndexes() {
+        if (referencedBy != null)
+            return;
+        // preparation is finished at this point, so the direct maps do not change anymore
+        referencedBy = invert(references);
+        subTypes = invert(supers);
+    }
+
+    private static Map<String, Set<String>> invert(Map<String, Set<String>> map) {
+        Map<String, Set<String>> result = new ConcurrentHashMap<>();
+        map.forEach((from, targets) -> targets.forEach(to -> result.computeIfAbsent(to, k -> new HashSet<>()).add(
+            from)));
+        return result;
+    }
+
+    /**
+     * Reports the cached result via {@link Context#addWarning(Warning)}
+     * 
+     * @param key key returned by {@link #key(TypeDefinition)}
+     * @return true if the result was found in the cache
+     */
+    boolean restore(String key) {
+        Path path = getPath(key);
+        if (!Files.isRegularFile(path))
+            return false;
+        List<Warning> warnings;
+        try {
+            warnings = XmlReportReader.read(ctx, path).warnings().collect(Collectors.toList());
+        } catch (Exception e) {
+            // corrupted entry: analyze the class again
+            return false;
+        }
+        warnings.forEach(ctx::addWarning);
+        try {
+            // entry is recently used
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // may be evicted earlier then
+        }
+        return true;
+    }
+
+    /**
+     * @param key key returned by {@link #key(TypeDefinition)}
+     * @param warnings warnings reported for the class
+     */
+    void store(String key, List<Warning> warnings) {
+        Path path = getPath(key);
+        try {
+            Files.createDirectories(path.getParent());
+            Path tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+            try {
+                Reports.write(tmp, null, new HuntBugsResult() {
+                    @Override
+                    public Stream<Warning> warnings() {
+                        return warnings.stream();
+                    }
+
+                    @Override
+                    public Messages getMessages() {
+                        return ctx.getMessages();
+                    }
+
+                    @Override
+                    public Stream<ErrorMessage> errors() {
+                        return Stream.empty();
+                    }
+                });
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // the cache is optional: the result is just not stored
+            ctx.incStat("CacheWriteErrors");
+        }
+    }
+
+    /**
+     * Removes the least recently used entries (stored or restored the
+     * longest time ago) while the total size of the cache exceeds
+     * {@link AnalysisOptions#cacheMaxMb}.
+     */
+    void evict() {
+        long limit = ctx.getOptions().cacheMaxMb * 1024L * 1024;
+        if (limit <= 0 || !Files.isDirectory(dir))
+            return;
+        Map<Path, BasicFileAttributes> entries = new HashMap<>();
+        try (Stream<Path> paths = Files.find(dir, 2, (path, attrs) -> attrs.isRegularFile() && path.getFileName()
+                .toString().endsWith(".xml"))) {
+            paths.forEach(path -> {
+                try {
+                    entries.put(path, Files.readAttributes(path, BasicFileAttributes.class));
+                } catch (IOException e) {
+                    // removed concurrently
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            ctx.incStat("CacheWriteErrors");
+            return;
+        }
+        long size = entries.values().stream().mapToLong(BasicFileAttributes::size).sum();
+        List<Path> lru = new ArrayList<>(entries.keySet());
+        lru.sort(Comparator.comparing(path -> entries.get(path).lastModifiedTime()));
+        for (Path path : lru) {
+            if (size <= limit)
+                break;
+            try {
+                Files.deleteIfExists(path);
+                size -= entries.get(path).size();
+                ctx.incStat("CacheEvictions");
+            } catch (IOException e) {
+                ctx.incStat("CacheWriteErrors");
+            }
+        }
+    }
+
+    private Path getPath(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + ".xml");
+    }
+
+    /**
+     * @param type top-level type
+     * @return internal names of the type and all its nested types in
+     *         depth-first order
+     */
+    static List<String> typeNames(TypeDefinition type) {
+        List<String> names = new ArrayList<>();
+        collectTypeNames(type, names);
+        return names;
+    }
+
+    private static void collectTypeNames(TypeDefinition type, List<String> names) {
+        names.add(type.getInternalName());
+        for (TypeDefinition subType : type.getDeclaredTypes()) {
+            collectTypeNames(subType, names);
+        }
+    }
+
+    /**
+     * @param classCache cache which recorded the digests of the classfiles
+     *        read during the preparation; may be null
+     * @param loader loader to read the classfiles which digests were not
+     *        recorded
+     * @param names names of the types to hash
+     * @return hash of the concatenated classfile digests (types which cannot
+     *         be loaded are skipped)
+     */
+    static String hashContent(ClassfileCache classCache, ITypeLoader loader, List<String> names) {
+        MessageDigest md = createDigest();
+        for (String name : names) {
+            byte[] digest = classCache == null ? null : classCache.getDigest(name);
+            if (digest == null) {
+                Buffer buffer = new Buffer();
+                if (!loader.tryLoadType(name, buffer))
+                    continue;
+                digest = digest(buffer.array(), buffer.size());
+            }
+            md.update(digest);
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * @param data classfile bytes
+     * @param length classfile length
+     * @return digest of the classfile
+     */
+    static byte[] digest(byte[] data, int length) {
+        MessageDigest md = createDigest();
+        md.update(data, 0, length);
+        return md.digest();
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalError(e);
+        }
+    }
+
+    static void update(MessageDigest md, String str) {
+        md.update(str.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+}
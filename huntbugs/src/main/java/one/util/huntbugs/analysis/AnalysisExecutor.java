@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides threads for the parallel analysis stages: classes analysis and
+ * preparation (see {@link AnalysisOptions#threads}) and classfiles loading
+ * (see {@link AnalysisOptions#loadThreads}).
+ */
+@FunctionalInterface
+public interface AnalysisExecutor {
+    /**
+     * Creates the executor for the analysis stage.
+     * 
+     * @param stage stage name like "worker" or "loader"; may
+     *        be used to name the threads
+     * @param parallelism number of threads requested by analysis options
+     *        (always greater than 1 except the "loader" stage)
+     * @return executor to submit the stage tasks to or null if the stage must
+     *         run sequentially in the analysis thread
+     */
+    ExecutorService createExecutor(String stage, int parallelism);
+
+    /**
+     * Called when the stage is finished or cancelled. Default implementation
+     * shuts the executor down.
+     * 
+     * @param executor executor previously returned by
+     *        {@link #createExecutor(String, int)}
+     */
+    default void releaseExecutor(ExecutorService executor) {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return executor which runs everything in the analysis thread ignoring
+     *         the requested parallelism
+     */
+    static AnalysisExecutor sequential() {
+        return (stage, parallelism) -> null;
+    }
+
+    /**
+     * @return executor which creates fixed pool of daemon threads for every
+     *         stage
+     */
+    static AnalysisExecutor fixedPool() {
+        return (stage, parallelism) -> {
+            AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newFixedThreadPool(parallelism, r -> {
+                Thread t = new Thread(r, "HuntBugs-" + stage + "-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        };
+    }
+
+    /**
+     * @return executor which creates new {@link ForkJoinPool} for every stage
+     */
+    static AnalysisExecutor forkJoin() {
+        return (stage, parallelism) -> {
+            AtomicInteger threadCount = new AtomicInteger();
+            return new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("HuntBugs-" + stage + "-" + threadCount.incrementAndGet());
+                return t;
+            }, null, false);
+        };
+    }
+
+    /**
+     * @param pool pool to use for all the stages; it's not shut down by the
+     *        analysis
+     * @return executor which runs all the stages in the supplied pool
+     */
+    static AnalysisExecutor forkJoin(ForkJoinPool pool) {
+        return new AnalysisExecutor() {
+            @Override
+            public ExecutorService createExecutor(String stage, int parallelism) {
+                return pool;
+            }
+
+            @Override
+            public void releaseExecutor(ExecutorService executor) {
+                // shared pool
+            }
+        };
+    }
+
+    /**
+     * @param name executor name: "sequential", "fixed" or "forkjoin"
+     * @return built-in executor with given name
+     * @throws IllegalArgumentException if name is unknown
+     */
+    static AnalysisExecutor forName(String name) {
+        switch (name.toLowerCase(Locale.ENGLISH)) {
+        case "sequential":
+            return sequential();
+        case "fixed":
+            return fixedPool();
+        case "forkjoin":
+            return forkJoin();
+        default:
+            throw new IllegalArgumentException("Unknown executor: " + name
+                + " (expected sequential, fixed or forkjoin)");
+        }
+    }
+}
@@ -29,9 +29,28 @@ import one.util.huntbugs.warning.rule.Rule;
 public class AnalysisOptions {
     public boolean addBootClassPath = true;
     public int maxMethodSize = 8000;
+    public int maxMethodTime = 0;
+    public int maxClassTime = 0;
     public int classesPerFlush = 1000;
+    public int typesPerFlush = 0;
+    public int flushHeapPercent = 80;
     public int minScore = 1;
+    public int threads = 1;
+    public int loadThreads = 0;
+    public int loadQueueSize = 256;
+    public int classCacheMb = 64;
+    public String executor = "fixed";
+    public boolean sharedTypes = true;
+    public boolean preloadJdkTypes = false;
+    public String cacheDir = "";
+    public int cacheMaxMb = 256;
+    public String dbSnapshot = "";
+    public String dbCacheDir = "";
+    public String jdkIndex = "";
+    public String targetJdk = "";
+    public String baseline = "";
     private Rule rule = Rule.NULL;
+    private AnalysisExecutor customExecutor;
 
     public void set(String name, String valueString) {
         Objects.requireNonNull(valueString);
@@ -68,6 +87,22 @@ public class AnalysisOptions {
         this.rule = rule;
     }
 
+    /**
+     * @return executor set via {@link #setExecutor(AnalysisExecutor)} or
+     *         built-in executor named by {@link #executor} field
+     * @throws IllegalArgumentException if executor name is unknown
+     */
+    public AnalysisExecutor getExecutor() {
+        return customExecutor == null ? AnalysisExecutor.forName(executor) : customExecutor;
+    }
+
+    /**
+     * @param executor executor to use instead of the built-in one
+     */
+    public void setExecutor(AnalysisExecutor executor) {
+        this.customExecutor = executor;
+    }
+
     public void report(PrintStream out) {
         for(Field field : getClass().getFields()) {
             if(!Modifier.isPublic(field.getModifiers()))
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.jar.JarFile;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ClasspathTypeLoader;
+import com.strobel.assembler.metadata.ITypeLoader;
+import com.strobel.assembler.metadata.JarTypeLoader;
+
+import one.util.huntbugs.repo.JdkTypeLoader;
+import one.util.huntbugs.repo.MappedJarTypeLoader;
+import one.util.huntbugs.repo.MappedZip;
+
+/**
+ * State shared by the analyses of several projects in the same build (e.g.
+ * the modules of multi-module Maven build): dependency type loaders, boot
+ * classpath types and the database contributions of the dependency jars (see
+ * {@link JarDatabaseCache}). Pass it to
+ * {@link Context#Context(one.util.huntbugs.repo.Repository, AnalysisOptions, AnalysisSession)}.
+ *
+ * The session is thread-safe, so the analyses may run concurrently.
+ */
+public final class AnalysisSession {
+    // normalized path -> thread-safe loader and the stamp of the jar it was created for
+    private final Map<Path, CachedLoader> loaders = new ConcurrentHashMap<>();
+    // normalized path -> size, modification time and SHA-256 of the jar
+    private final Map<Path, String[]> jarHashes = new ConcurrentHashMap<>();
+    // jar hash and database fingerprint -> database contributions of its classes
+    private final Map<String, Map<String, JarDatabaseCache.Entry>> jarEntries = new ConcurrentHashMap<>();
+    // null if the JDK cannot be read
+    private final JdkTypeLoader jdkLoader = createJdkLoader();
+    private final ITypeLoader bootLoader = jdkLoader == null ? (internalName, buffer) -> false : jdkLoader;
+    // boot classpath tiers which are not used by any analysis now
+    private final Queue<SharedMetadataSystem> idleBootTypes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param path dependency jar or classes directory
+     * @return type loader for the dependency which can be used from several
+     *         threads; the same loader is returned for the same path unless
+     *         the jar is changed
+     * @throws IOException if jar cannot be opened
+     */
+    public ITypeLoader getTypeLoader(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        boolean isJar = Files.isRegularFile(key);
+        // classes directory is read on demand, so it's never stale
+        String stamp = isJar ? getStamp(key) : "";
+        CachedLoader cached = loaders.get(key);
+        if (cached != null && cached.stamp.equals(stamp))
+            return cached.loader;
+        ITypeLoader loader = isJar ? createJarLoader(key) : new SynchronizedTypeLoader(new ClasspathTypeLoader(key
+                .toString()));
+        // the mapping of the replaced jar is released once the analyses which use it are finished
+        loaders.put(key, new CachedLoader(stamp, loader));
+        return loader;
+    }
+
+    private static String getStamp(Path file) throws IOException {
+        return Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    private static ITypeLoader createJarLoader(Path jar) throws IOException {
+        try {
+            // thread-safe itself
+            return new MappedJarTypeLoader(MappedZip.open(jar));
+        } catch (IOException e) {
+            // cannot be mapped
+            return new SynchronizedTypeLoader(new JarTypeLoader(new JarFile(jar.toFile())));
+        }
+    }
+
+    private static JdkTypeLoader createJdkLoader() {
+        try {
+            return JdkTypeLoader.createBootLoader(null);
+        } catch (IOException e) {
+            // JDK classes are reported as missing
+            return null;
+        }
+    }
+
+    /**
+     * @return thread-safe loader of the boot classpath types
+     */
+    ITypeLoader getBootLoader() {
+        return bootLoader;
+    }
+
+    /**
+     * @return loader of the current runtime JDK classes which
+     *         {@link #getBootLoader()} reads; null if the JDK cannot be read
+     */
+    JdkTypeLoader getJdkLoader() {
+        return jdkLoader;
+    }
+
+    /**
+     * Procyon types load their members and method bodies lazily without any
+     * synchronization, so the boot classpath types are not shared by the
+     * analyses running concurrently. Every tier is reused by the subsequent
+     * analyses instead.
+     * 
+     * @param owner context to count the boot types read for; may be null
+     * @return types of the boot classpath to be used exclusively by the
+     *         caller until they are passed to
+     *         {@link #releaseBootTypes(SharedMetadataSystem)}
+     */
+    SharedMetadataSystem acquireBootTypes(Context owner) {
+        SharedMetadataSystem types = idleBootTypes.poll();
+        if (types == null)
+            types = new SharedMetadataSystem(null, bootLoader, null);
+        types.setOwner(owner);
+        return types;
+    }
+
+    /**
+     * @param types tier returned by {@link #acquireBootTypes()} which is not
+     *        used anymore
+     */
+    void releaseBootTypes(SharedMetadataSystem types) {
+        types.setOwner(null);
+        idleBootTypes.add(types);
+    }
+
+    /**
+     * @param jar jar file
+     * @return SHA-256 of the jar or null if it cannot be read; computed once
+     *         unless the jar is changed
+     */
+    String getJarHash(Path jar) {
+        Path key = jar.toAbsolutePath().normalize();
+        String stamp;
+        try {
+            stamp = getStamp(key);
+        } catch (IOException e) {
+            return null;
+        }
+        String[] cached = jarHashes.get(key);
+        if (cached != null && cached[0].equals(stamp))
+            return cached[1];
+        String hash = JarDatabaseCache.hashFile(key);
+        if (hash != null)
+            jarHashes.put(key, new String[] { stamp, hash });
+        return hash;
+    }
+
+    /**
+     * @param key jar hash and database fingerprint
+     * @return unmodifiable contributions of the jar classes or null if the
+     *         jar was not processed in this session yet
+     */
+    Map<String, JarDatabaseCache.Entry> getJarEntries(String key) {
+        return jarEntries.get(key);
+    }
+
+    /**
+     * @param key jar hash and database fingerprint
+     * @param entries unmodifiable contributions of the jar classes
+     */
+    void putJarEntries(String key, Map<String, JarDatabaseCache.Entry> entries) {
+        jarEntries.put(key, entries);
+    }
+
+    private static class CachedLoader {
+        final String stamp;
+        final ITypeLoader loader;
+
+        CachedLoader(String stamp, ITypeLoader loader) {
+            this.stamp = stamp;
+            this.loader = loader;
+        }
+    }
+
+    /**
+     * Procyon type loaders are not guaranteed to be thread-safe
+     */
+    private static class SynchronizedTypeLoader implements ITypeLoader {
+        private final ITypeLoader loader;
+
+        SynchronizedTypeLoader(ITypeLoader loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public boolean tryLoadType(String internalName, Buffer buffer) {
+            synchronized (loader) {
+                return loader.tryLoadType(internalName, buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import one.util.huntbugs.output.Reports;
+import one.util.huntbugs.warning.Warning;
+import one.util.huntbugs.warning.WarningStatus;
+
+/**
+ * Keys of the accepted warnings (see {@link AnalysisOptions#baseline}). New
+ * warnings matching the key (see {@link Reports#warningKey(Warning)}) are
+ * counted and dropped right away, so they are not kept in memory and not
+ * formatted for the report. Every baseline warning suppresses at most one
+ * new warning.
+ */
+final class Baseline {
+    // warning key -> number of baseline warnings with this key not matched yet
+    private final Map<List<Object>, Integer> keys = new HashMap<>();
+
+    Baseline(HuntBugsResult result) {
+        result.warnings().filter(w -> w.getStatus() != WarningStatus.FIXED).forEach(
+            w -> keys.merge(Reports.warningKey(w), 1, Integer::sum));
+    }
+
+    /**
+     * @param warning new warning
+     * @return true if warning is in the baseline, so it must be suppressed
+     */
+    synchronized boolean match(Warning warning) {
+        List<Object> key = Reports.warningKey(warning);
+        Integer count = keys.get(key);
+        if (count == null)
+            return false;
+        if (count == 1)
+            keys.remove(key);
+        else
+            keys.put(key, count - 1);
+        return true;
+    }
+
+    /**
+     * @return number of baseline warnings which were not matched
+     */
+    synchronized int remaining() {
+        return keys.values().stream().mapToInt(Integer::intValue).sum();
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Cache of the classfiles of the analyzed classes: filled when the classes
+ * are read during the preparation and consumed during the analysis (see
+ * {@link #startAnalysis()}), so the repository is read only once. Every
+ * classfile is removed from the cache once the analysis takes it and nothing
+ * is added during the analysis, so the cache only shrinks after the
+ * preparation. Classfiles are grouped by the top-level class; the least
+ * recently used groups are evicted when the total size exceeds the budget
+ * (see {@link AnalysisOptions#classCacheMb}). The analyzed classes which are
+ * not cached may be prefetched during the analysis (see
+ * {@link AnalysisOptions#loadThreads}).
+ *
+ * Optionally the digests of all the classfiles read through this cache are
+ * recorded, so the persistent caches can hash the classes without reading
+ * them again (see {@link AnalysisCache#hashContent}).
+ *
+ * Thread-safe.
+ */
+final class ClassfileCache {
+    private final Context ctx;
+    private final Set<String> analyzed;
+    private final long budget;
+    private long size;
+    private volatile boolean analysis;
+    // non-null while the classfiles are prefetched during the analysis
+    private volatile Prefetcher prefetcher;
+    // internal name -> classfile digest; null if digests are not recorded
+    private final Map<String, byte[]> digests;
+    // top-level class -> classfiles of it and its nested classes; in access order
+    private final LinkedHashMap<String, Map<String, byte[]>> groups = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param ctx context to report the statistics to
+     * @param analyzed top-level analyzed classes: only their classfiles are
+     *        cached
+     * @param budget maximal total size of the cached classfiles in bytes; 0
+     *        to record the digests only
+     * @param recordDigests true to record the digests of the classfiles
+     */
+    ClassfileCache(Context ctx, Collection<String> analyzed, long budget, boolean recordDigests) {
+        this.ctx = ctx;
+        this.analyzed = new HashSet<>(analyzed);
+        this.budget = budget;
+        this.digests = recordDigests ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * Switches from the preparation to the analysis: the loaders returned by
+     * {@link #wrap(ITypeLoader)} stop filling the cache and remove the
+     * classfiles they take from it
+     */
+    void startAnalysis() {
+        analysis = true;
+    }
+
+    /**
+     * Starts reading the classfiles of the analyzed classes which are not
+     * cached yet in background threads, so repository I/O overlaps with the
+     * decompilation and detectors work. At most queueSize prefetched
+     * classfiles are kept in memory: the loading blocks until the analysis
+     * takes them or the classes are released (see {@link #release(String)}).
+     * The analysis never waits for the prefetching: if the classfile is not
+     * loaded yet, it's loaded directly.
+     * 
+     * @param loader thread-safe loader to read the classfiles from
+     * @param names internal names of the top-level classes in the order they
+     *        will be analyzed
+     * @param executor executor to create the "loader" stage threads with
+     * @param threads number of loading threads
+     * @param queueSize maximal number of prefetched, but not yet taken
+     *        classfiles
+     * @return true if prefetching was started; false if the executor runs
+     *         the stage sequentially
+     */
+    boolean startPrefetch(ITypeLoader loader, List<String> names, AnalysisExecutor executor, int threads,
+            int queueSize) {
+        ExecutorService pool = executor.createExecutor("loader", threads);
+        if (pool == null)
+            return false;
+        Prefetcher p = new Prefetcher(loader, executor, pool, threads, queueSize);
+        for (String name : names) {
+            if (get(name, name, false) == null)
+                p.names.add(name);
+        }
+        for (String name : p.names) {
+            p.entries.put(name, p.new Entry());
+        }
+        prefetcher = p;
+        for (int i = 0; i < threads; i++) {
+            pool.execute(p::run);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the prefetching started by
+     * {@link #startPrefetch(ITypeLoader, List, AnalysisExecutor, int, int)}
+     * and frees the prefetched classfiles
+     */
+    void stopPrefetch() {
+        Prefetcher p = prefetcher;
+        if (p == null)
+            return;
+        prefetcher = null;
+        p.close();
+    }
+
+    /**
+     * Frees the memory occupied by the prefetched classfile of the analyzed
+     * class if the analysis did not take it
+     *
+     * @param internalName internal name of the analyzed top-level class
+     */
+    void release(String internalName) {
+        Prefetcher p = prefetcher;
+        if (p != null)
+            p.remove(internalName);
+    }
+
+    /**
+     * @param loader loader to read the classfiles missing in the cache from
+     * @return loader which uses this cache; thread-safe if the supplied loader
+     *         is thread-safe
+     */
+    ITypeLoader wrap(ITypeLoader loader) {
+        return (internalName, buffer) -> {
+            String mainType = Context.getMainType(internalName);
+            if (mainType == null || !analyzed.contains(mainType))
+                return load(loader, internalName, buffer);
+            byte[] data = analysis ? take(mainType, internalName) : budget > 0 ? get(mainType, internalName,
+                false) : null;
+            if (data != null) {
+                buffer.reset(data.length);
+                System.arraycopy(data, 0, buffer.array(), 0, data.length);
+                buffer.position(0);
+                return true;
+            }
+            if (!load(loader, internalName, buffer))
+                return false;
+            if (!analysis && budget > 0)
+                put(mainType, internalName, Arrays.copyOf(buffer.array(), buffer.size()));
+            return true;
+        };
+    }
+
+    private byte[] take(String mainType, String internalName) {
+        if (budget > 0) {
+            ctx.incStat("ClassCacheHits.Total");
+            byte[] data = get(mainType, internalName, true);
+            if (data != null) {
+                ctx.incStat("ClassCacheHits");
+                return data;
+            }
+        }
+        Prefetcher p = prefetcher;
+        return p == null ? null : p.take(internalName);
+    }
+
+    private boolean load(ITypeLoader loader, String internalName, Buffer buffer) {
+        if (!loader.tryLoadType(internalName, buffer))
+            return false;
+        if (digests != null && !digests.containsKey(internalName))
+            digests.put(internalName, AnalysisCache.digest(buffer.array(), buffer.size()));
+        return true;
+    }
+
+    /**
+     * @param internalName internal name of the class
+     * @return digest of the classfile as computed by
+     *         {@link AnalysisCache#digest(byte[], int)}, or null if it was not
+     *         read through this cache or the digests are not recorded
+     */
+    byte[] getDigest(String internalName) {
+        return digests == null ? null : digests.get(internalName);
+    }
+
+    private synchronized byte[] get(String mainType, String internalName, boolean remove) {
+        Map<String, byte[]> group = groups.get(mainType);
+        if (group == null)
+            return null;
+        if (!remove)
+            return group.get(internalName);
+        byte[] data = group.remove(internalName);
+        if (data != null)
+            size -= data.length;
+        if (group.isEmpty())
+            groups.remove(mainType);
+        return data;
+    }
+
+    /**
+     * @return total size of the cached classfiles in bytes
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    private synchronized void put(String mainType, String internalName, byte[] data) {
+        if (data.length > budget)
+            return;
+        byte[] old = groups.computeIfAbsent(mainType, k -> new HashMap<>()).put(internalName, data);
+        size += data.length - (old == null ? 0 : old.length);
+        Iterator<Map<String, byte[]>> it = groups.values().iterator();
+        while (size > budget && it.hasNext()) {
+            for (byte[] classfile : it.next().values()) {
+                size -= classfile.length;
+            }
+            it.remove();
+            ctx.incStat("ClassCacheEvictions");
+        }
+    }
+
+    private class Prefetcher {
+        final ITypeLoader loader;
+        final AnalysisExecutor executor;
+        final ExecutorService pool;
+        final int threads;
+        final Semaphore permits;
+        final List<String> names = new ArrayList<>();
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        final AtomicInteger next = new AtomicInteger();
+        volatile boolean closed;
+
+        class Entry {
+            final CompletableFuture<byte[]> data = new CompletableFuture<>();
+            // set by either loader or consumer, whoever comes second returns the permit
+            final AtomicBoolean half = new AtomicBoolean();
+
+            void done() {
+                if (!half.compareAndSet(false, true))
+                    permits.release();
+            }
+        }
+
+        Prefetcher(ITypeLoader loader, AnalysisExecutor executor, ExecutorService pool, int threads, int queueSize) {
+            this.loader = loader;
+            this.executor = executor;
+            this.pool = pool;
+            this.threads = threads;
+            this.permits = new Semaphore(Math.max(1, queueSize));
+        }
+
+        void run() {
+            int pos;
+            while (!closed && (pos = next.getAndIncrement()) < names.size()) {
+                String name = names.get(pos);
+                // already taken
+                if (!entries.containsKey(name))
+                    continue;
+                try {
+                    acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed)
+                    return;
+                Entry entry = entries.get(name);
+                if (entry == null) {
+                    permits.release();
+                    continue;
+                }
+                try {
+                    Buffer buffer = new Buffer();
+                    entry.data.complete(load(loader, name, buffer) ? Arrays.copyOf(buffer.array(), buffer.size())
+                            : null);
+                } catch (Throwable t) {
+                    entry.data.completeExceptionally(t);
+                }
+                entry.done();
+            }
+        }
+
+        /**
+         * Waits for the free place in the queue. The pool might be shared
+         * with the analysis workers which release the places, so the
+         * fork-join pool is allowed to compensate the blocked thread.
+         */
+        void acquire() throws InterruptedException {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    permits.acquire();
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return permits.tryAcquire();
+                }
+            });
+        }
+
+        /**
+         * @return prefetched classfile or null if it's not loaded yet, not
+         *         found or cannot be read
+         */
+        byte[] take(String internalName) {
+            Entry entry = remove(internalName);
+            if (entry == null)
+                return null;
+            if (!entry.data.isDone() || entry.data.isCompletedExceptionally())
+                return null;
+            ctx.incStat("ClassPrefetchHits");
+            return entry.data.join();
+        }
+
+        Entry remove(String internalName) {
+            Entry entry = entries.remove(internalName);
+            if (entry != null)
+                entry.done();
+            return entry;
+        }
+
+        void close() {
+            closed = true;
+            entries.clear();
+            // wake up the blocked loaders, as the shared pool is not shut down
+            permits.release(threads);
+            executor.releaseExecutor(pool);
+        }
+    }
+}
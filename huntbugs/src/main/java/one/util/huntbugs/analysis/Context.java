@@ -15,35 +15,62 @@
  */
 package one.util.huntbugs.analysis;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import com.strobel.assembler.ir.ConstantPool;
 import com.strobel.assembler.ir.ConstantPool.TypeInfoEntry;
-import com.strobel.assembler.metadata.ClasspathTypeLoader;
 import com.strobel.assembler.metadata.CompositeTypeLoader;
 import com.strobel.assembler.metadata.ITypeLoader;
 import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.MethodBody;
+import com.strobel.assembler.metadata.MethodDefinition;
 import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.assembler.metadata.TypeReference;
 
+import one.util.huntbugs.input.XmlReportReader;
+import one.util.huntbugs.registry.DatabaseRegistry;
 import one.util.huntbugs.registry.DetectorRegistry;
+import one.util.huntbugs.repo.JdkTypeLoader;
 import one.util.huntbugs.repo.Repository;
 import one.util.huntbugs.repo.RepositoryVisitor;
+import one.util.huntbugs.util.JdkIndex;
+import one.util.huntbugs.util.Types;
 import one.util.huntbugs.warning.Messages;
+import one.util.huntbugs.warning.Roles;
 import one.util.huntbugs.warning.Warning;
+import one.util.huntbugs.warning.WarningAnnotation.TypeInfo;
 import one.util.huntbugs.warning.WarningType;
 
 /**
@@ -62,20 +89,113 @@ public class Context implements HuntBugsResult {
     private final AnalysisOptions options;
     private final List<AnalysisListener> listeners = new CopyOnWriteArrayList<>();
     private final Map<String, Long> stat = new ConcurrentHashMap<>();
+    // Estimated analysis cost of classes read during the preparation
+    private final Map<String, Long> classCosts = new ConcurrentHashMap<>();
+    // Dependency graph between the analyzed classes collected during the preparation
+    private final Map<String, Set<String>> classRefs = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> classDependents = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> classSubtypes = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> classSupertypes = new ConcurrentHashMap<>();
     private Messages msgs;
     private final ITypeLoader loader;
+    // Creates the tiers of boot classpath and auxiliary types cached for the whole run; null if disabled
+    private final Supplier<SharedMetadataSystem> typesFactory;
+    // Tiers which are not used by any worker now
+    private final Queue<SharedMetadataSystem> idleTypes = new ConcurrentLinkedQueue<>();
+    // Non-null inside the worker thread while the class is analyzed in parallel mode
+    private final ThreadLocal<ClassResult> currentResult = new ThreadLocal<>();
+    private final AnalysisExecutor executor;
+    // Persistent results cache, non-null during the analysis if cacheDir is set
+    private AnalysisCache cache;
+    // Persistent database snapshot, non-null during the preparation if dbSnapshot is set
+    private DatabaseSnapshot snapshot;
+    // Cache of dependency jar contributions, non-null during the preparation if dbCacheDir is set
+    private JarDatabaseCache jarCache;
+    // Keys of the accepted warnings, non-null if baseline is set
+    private volatile Baseline baseline;
+    // Classfiles read during the preparation or prefetched and not analyzed yet and digests of the classfiles read,
+    // non-null during the run if classCacheMb or loadThreads is set or the persistent caches are used
+    private ClassfileCache classCache;
+    // State shared with other analyses of the same build; may be null
+    private final AnalysisSession session;
+    // JDK classes used by the analysis; null if addBootClassPath is off or JDK cannot be read
+    private final JdkTypeLoader jdkLoader;
+    // Index of jdkLoader classes, non-null during the run if jdkIndex is set
+    private JdkIndex jdkIndex;
 
     public Context(Repository repository, AnalysisOptions options) {
+        this(repository, options, null);
+    }
+
+    /**
+     * @param repository repository to analyze
+     * @param options analysis options
+     * @param session session to share the boot classpath types and dependency
+     *        databases with other analyses; may be null
+     */
+    public Context(Repository repository, AnalysisOptions options, AnalysisSession session) {
         this.options = options;
+        this.session = session;
+        this.executor = options.getExecutor();
         registry = new DetectorRegistry(this);
         this.repository = repository == null ? Repository.createNullRepository() : repository;
         ITypeLoader loader = this.repository.createTypeLoader();
+        ITypeLoader auxLoader = this.repository.createAuxTypeLoader();
+        boolean sessionBootTypes = false;
+        JdkTypeLoader jdkLoader = null;
         if (options.addBootClassPath) {
-            loader = new CompositeTypeLoader(new ClasspathTypeLoader(System.getProperty("sun.boot.class.path")), loader);
+            if (session != null && options.sharedTypes && options.targetJdk.isEmpty()) {
+                // boot classpath types are reused by the subsequent analyses of the session
+                sessionBootTypes = true;
+                jdkLoader = session.getJdkLoader();
+                loader = new CompositeTypeLoader(session.getBootLoader(), loader);
+            } else {
+                jdkLoader = createBootLoader();
+                ITypeLoader bootLoader = jdkLoader == null ? (internalName, buffer) -> false : jdkLoader;
+                // both loaders are used under the same lock
+                loader = new CompositeTypeLoader(bootLoader, loader);
+                auxLoader = auxLoader == null ? bootLoader : new CompositeTypeLoader(bootLoader, auxLoader);
+            }
         }
+        this.jdkLoader = jdkLoader;
         this.loader = loader;
+        if (options.sharedTypes && (auxLoader != null || sessionBootTypes)) {
+            ITypeLoader sharedLoader = auxLoader;
+            boolean withBootTypes = sessionBootTypes;
+            // auxiliary loaders are also the part of the main loader, so use the same lock
+            this.typesFactory = () -> new SharedMetadataSystem(this, (internalName, buffer) -> {
+                if (sharedLoader == null)
+                    return false;
+                synchronized (this.loader) {
+                    return sharedLoader.tryLoadType(internalName, buffer);
+                }
+            }, withBootTypes ? session.acquireBootTypes(this) : null);
+        } else {
+            this.typesFactory = null;
+        }
     }
     
+    /**
+     * @return loader of the JDK classes: {@link AnalysisOptions#targetJdk} if
+     *         specified, the current runtime otherwise; null if JDK cannot be
+     *         read
+     */
+    private JdkTypeLoader createBootLoader() {
+        if (!options.targetJdk.isEmpty()) {
+            try {
+                return JdkTypeLoader.createBootLoader(Paths.get(options.targetJdk));
+            } catch (IOException e) {
+                addError(new ErrorMessage(null, null, null, null, -1, e));
+            }
+        }
+        try {
+            return JdkTypeLoader.createBootLoader(null);
+        } catch (IOException e) {
+            addError(new ErrorMessage(null, null, null, null, -1, e));
+            return null;
+        }
+    }
+
     @Override
     public Messages getMessages() {
         if(msgs == null) {
@@ -101,8 +221,30 @@ public class Context implements HuntBugsResult {
     }
 
     public void analyzePackage(String name) {
+        analyzePackage(name, null, null);
+    }
+
+    /**
+     * Incremental analysis: analyzes only the changed classes and the
+     * classes which may be affected by the change (see
+     * {@link #getAffectedClasses(Collection)}). Warnings for other classes
+     * are taken from the previous result. Errors are reported for the
+     * analyzed classes only.
+     * 
+     * @param name package to analyze
+     * @param changed changed classes as internal or binary class names,
+     *        classfile or source file paths (like the output of
+     *        {@code git diff --name-only}); null to analyze all the classes
+     * @param previous result of the previous analysis of the same package;
+     *        ignored if changed is null
+     */
+    public void analyzePackage(String name, Collection<String> changed, HuntBugsResult previous) {
         if (!fireEvent("Preparing", null, 0, 0))
             return;
+        if (jdkLoader != null && !options.jdkIndex.isEmpty())
+            loadJdkIndex(Paths.get(options.jdkIndex));
+        if (!options.baseline.isEmpty())
+            loadBaseline(Paths.get(options.baseline));
         Set<String> classes = new TreeSet<>();
         repository.visit(name, new RepositoryVisitor() {
             @Override
@@ -116,88 +258,705 @@ public class Context implements HuntBugsResult {
             }
         });
         totalClasses = classes.size();
-        if(registry.hasDatabases()) {
-            if(!preparingClasses(classes))
-                return;
+        if (!options.cacheDir.isEmpty()) {
+            cache = new AnalysisCache(this, Paths.get(options.cacheDir), createSharedLoader());
+        }
+        if (registry.hasDatabases() && registry.isDatabaseSnapshotSupported()) {
+            if (!options.dbSnapshot.isEmpty()) {
+                snapshot = new DatabaseSnapshot(this, registry, Paths.get(options.dbSnapshot), createSharedLoader());
+            }
+            List<Path> jars = repository.getAuxJars();
+            if ((!options.dbCacheDir.isEmpty() || session != null) && !jars.isEmpty()) {
+                jarCache = new JarDatabaseCache(this, registry, options.dbCacheDir.isEmpty() ? null : Paths.get(
+                    options.dbCacheDir), jars, createSharedLoader(), session);
+            }
+        }
+        JdkIndex savedIndex = JdkIndex.bind(jdkIndex);
+        JdkTypeLoader savedJdk = Types.bindJdk(jdkLoader);
+        try {
+            if (options.preloadJdkTypes)
+                Types.preloadJdkTypes(Types.COMMON_JDK_TYPES);
+            // dependency graph is collected during the preparation
+            boolean preparing = registry.hasDatabases() || changed != null;
+            long classBudget = preparing ? options.classCacheMb * 1024L * 1024 : 0;
+            boolean digests = cache != null || snapshot != null || jarCache != null;
+            if(classBudget > 0 || digests || options.loadThreads > 0)
+                classCache = new ClassfileCache(this, classes, classBudget, digests);
+            if(preparing) {
+                if(!preparingClasses(classes))
+                    return;
+                if(snapshot != null) {
+                    snapshot.save();
+                    snapshot = null;
+                }
+                if(jarCache != null) {
+                    jarCache.save();
+                    jarCache = null;
+                }
+            }
+            if(classCache != null)
+                classCache.startAnalysis();
+            if (changed != null) {
+                Set<String> known = new HashSet<>(classes);
+                previous.warnings().map(Context::getMainType).filter(Objects::nonNull).forEach(known::add);
+                Set<String> affected = getAffectedClasses(resolveClasses(changed, known));
+                affected.retainAll(classes);
+                previous.warnings().filter(w -> {
+                    String type = getMainType(w);
+                    return type != null && classes.contains(type) && !affected.contains(type);
+                }).forEach(this::addWarning);
+                analyzingClasses(new TreeSet<>(affected));
+            } else {
+                analyzingClasses(classes);
+            }
+        } finally {
+            if (cache != null) {
+                cache.evict();
+                cache = null;
+            }
+            snapshot = null;
+            jarCache = null;
+            classCache = null;
+            releaseAllTypes();
+            JdkIndex.bind(savedIndex);
+            Types.bindJdk(savedJdk);
+            jdkIndex = null;
+            if (baseline != null) {
+                stat.put("Warnings.Baseline.Fixed", (long) baseline.remaining());
+                baseline = null;
+            }
+        }
+    }
+
+    private void loadBaseline(Path path) {
+        if (!Files.isRegularFile(path)) {
+            // all the warnings are reported then, so the user must notice it
+            addError(new ErrorMessage(null, null, null, null, -1, "Baseline file not found: " + path));
+            return;
+        }
+        try {
+            baseline = new Baseline(XmlReportReader.read(this, path));
+        } catch (Exception e) {
+            addError(new ErrorMessage(null, null, null, null, -1, e));
         }
-        analyzingClasses(classes);
     }
 
     private boolean preparingClasses(Set<String> classes) {
-        MetadataSystem ms = createMetadataSystem();
+        ExecutorService pool = options.threads > 1 ? executor.createExecutor("worker", options.threads) : null;
+        if(pool != null) {
+            return preparingClassesParallel(pool, classes);
+        }
+        SharedMetadataSystem types = acquireTypes();
+        FlushPolicy flush = new FlushPolicy(this);
+        MetadataSystem ms = createMetadataSystem(flush, types);
         Set<String> auxClasses = new TreeSet<>();
         int count = 0;
         for (String className : classes) {
             if (!fireEvent("Reading classes", className, count, classes.size()))
                 return false;
-            if(++count % options.classesPerFlush == 0) {
-                ms = createMetadataSystem();
+            count++;
+            if (restoreDatabases(className, classes, auxClasses))
+                continue;
+            if(flush.needsFlush()) {
+                ms = createMetadataSystem(flush, types);
             }
+            int errorCount = errors.size();
             TypeDefinition type;
             try {
                 type = lookUp(ms, className);
             } catch (Throwable t) {
                 addError(new ErrorMessage(null, className, null, null, -1, t));
                 continue;
+            } finally {
+                flush.classProcessed();
             }
             if (type != null) {
-                for(ConstantPool.Entry entry : type.getConstantPool()) {
-                    if(entry instanceof TypeInfoEntry) {
-                        String depName = getMainType(((TypeInfoEntry)entry).getName());
-                        if(depName != null && !classes.contains(depName))
-                            auxClasses.add(depName);
-                    }
-                }
-                registry.populateDatabases(type);
+                collectDependencies(type, classes, auxClasses);
+                long cost = estimateCost(type);
+                classCosts.put(className, cost);
+                populateDatabases(type, true, cost, errorCount);
+                if (cache != null)
+                    cache.register(type, true);
             }
         }
         if (!fireEvent("Reading classes", null, classes.size(), classes.size()))
             return false;
-        ms = createMetadataSystem();
+        flush = new FlushPolicy(this);
+        ms = createMetadataSystem(flush, types);
         count = 0;
         for (String className : auxClasses) {
             if (!fireEvent("Reading dep classes", className, count, auxClasses.size()))
                 return false;
-            if(++count % options.classesPerFlush == 0) {
-                ms = createMetadataSystem();
+            count++;
+            if (restoreDatabases(className, null, null))
+                continue;
+            if(flush.needsFlush()) {
+                ms = createMetadataSystem(flush, types);
             }
+            int errorCount = errors.size();
             TypeDefinition type;
             try {
                 type = lookUp(ms, className);
             } catch (Throwable t) {
                 addError(new ErrorMessage(null, className, null, null, -1, t));
                 continue;
+            } finally {
+                flush.classProcessed();
+            }
+            if (type != null) {
+                populateDatabases(type, false, 0, errorCount);
+                if (cache != null)
+                    cache.register(type, false);
             }
-            if (type != null)
-                registry.populateDatabases(type);
         }
+        releaseTypes(types);
         return fireEvent("Reading dep classes", null, auxClasses.size(), auxClasses.size());
     }
 
-    MetadataSystem createMetadataSystem() {
+    /**
+     * Populates the databases with the type read in the current thread and
+     * records its contribution if necessary
+     * 
+     * @param errorCount number of errors before the type was read; the
+     *        contribution is not recorded if new errors appeared
+     */
+    private void populateDatabases(TypeDefinition type, boolean isAnalyzed, long cost, int errorCount) {
+        if (!isRecording()) {
+            registry.populateDatabases(type);
+            return;
+        }
+        DatabaseRegistry.Shards shards = registry.createDatabaseShards();
+        registry.populateDatabases(type, shards);
+        record(type, isAnalyzed, cost, shards, errors.size() == errorCount);
+        registry.mergeDatabases(shards, Collections.emptyList());
+    }
+
+    /**
+     * @return true if the database contribution of every class should be
+     *         kept separately to be saved
+     */
+    private boolean isRecording() {
+        return snapshot != null || jarCache != null;
+    }
+
+    /**
+     * Records the database contribution of the type
+     * 
+     * @param shards shards populated by this type only (not merged yet)
+     * @param clean true if no errors were reported while reading the type
+     */
+    private void record(TypeDefinition type, boolean isAnalyzed, long cost, DatabaseRegistry.Shards shards,
+            boolean clean) {
+        if (jarCache != null) {
+            jarCache.register(type.getInternalName(), AnalysisCache.supers(type));
+            if (!isAnalyzed && clean)
+                jarCache.store(type, shards);
+        }
+        if (snapshot != null && clean)
+            snapshot.store(type, isAnalyzed, cost, shards);
+    }
+
+    /**
+     * Merges the class contribution restored from the snapshot into the
+     * databases (sequential mode)
+     * 
+     * @return true if the contribution was restored
+     */
+    private boolean restoreDatabases(String className, Set<String> analyzed, Set<String> dependencies) {
+        DatabaseRegistry.Shards shards = restoreShards(className, analyzed, dependencies);
+        if (shards == null)
+            return false;
+        registry.mergeDatabases(shards, Collections.emptyList());
+        return true;
+    }
+
+    /**
+     * Restores the class contribution to the databases from the snapshot or
+     * from the jar cache if it's up to date
+     * 
+     * @param className top-level class name
+     * @param analyzed set of analyzed classes if the class is analyzed, null
+     *        if it's a dependency
+     * @param dependencies set to add the class dependencies to
+     * @return shards to merge or null if the class must be read
+     */
+    private DatabaseRegistry.Shards restoreShards(String className, Set<String> analyzed, Set<String> dependencies) {
+        boolean isAnalyzed = analyzed != null;
+        if (snapshot != null) {
+            DatabaseRegistry.Shards shards = registry.createDatabaseShards();
+            DatabaseSnapshot.Entry entry = snapshot.restore(className, isAnalyzed, shards);
+            if (entry != null) {
+                if (isAnalyzed) {
+                    Set<String> refs = new HashSet<>();
+                    for (String ref : entry.refs) {
+                        if (!analyzed.contains(ref))
+                            dependencies.add(ref);
+                        else
+                            refs.add(ref);
+                    }
+                    addDependencies(className, refs, entry.supers);
+                    classCosts.put(className, entry.cost);
+                }
+                if (cache != null)
+                    cache.register(className, isAnalyzed, entry.hash, entry.refs, entry.supers);
+                if (jarCache != null)
+                    jarCache.register(className, entry.supers);
+                return shards;
+            }
+        }
+        if (jarCache != null && !isAnalyzed) {
+            DatabaseRegistry.Shards shards = registry.createDatabaseShards();
+            JarDatabaseCache.Entry entry = jarCache.restore(className, shards);
+            if (entry != null) {
+                if (cache != null)
+                    cache.register(className, false, entry.hash, entry.refs, entry.supers);
+                if (snapshot != null)
+                    snapshot.store(className, false, entry.typeNames, entry.hash, 0, entry.refs, entry.supers,
+                        entry.data);
+                return shards;
+            }
+        }
+        return null;
+    }
+
+    private void loadJdkIndex(Path path) {
+        try {
+            jdkIndex = JdkIndex.open(path, jdkLoader);
+            incStat("JdkIndex");
+        } catch (IOException e) {
+            addError(new ErrorMessage(null, null, null, null, -1, e));
+        }
+    }
+
+    private void collectDependencies(TypeDefinition type, Set<String> classes, Set<String> auxClasses) {
+        String name = type.getInternalName();
+        Set<String> refs = new HashSet<>();
+        for(ConstantPool.Entry entry : type.getConstantPool()) {
+            if(entry instanceof TypeInfoEntry) {
+                String depName = getMainType(((TypeInfoEntry)entry).getName());
+                if(depName == null)
+                    continue;
+                if(!classes.contains(depName))
+                    auxClasses.add(depName);
+                else if(!depName.equals(name))
+                    refs.add(depName);
+            }
+        }
+        addDependencies(name, refs, AnalysisCache.supers(type));
+    }
+
+    /**
+     * Records the edges of the dependency graph
+     * 
+     * @param className analyzed class
+     * @param refs other analyzed classes referenced from its constant pool
+     * @param superTypes direct supertypes of the class
+     */
+    private void addDependencies(String className, Set<String> refs, Set<String> superTypes) {
+        classRefs.put(className, refs);
+        for (String ref : refs) {
+            classDependents.computeIfAbsent(ref, k -> ConcurrentHashMap.newKeySet()).add(className);
+        }
+        Set<String> supers = new HashSet<>();
+        for (String superType : superTypes) {
+            String mainType = getMainType(superType);
+            // supertype is always in the constant pool, so the analyzed ones are among refs
+            if (mainType != null && refs.contains(mainType)) {
+                supers.add(mainType);
+                classSubtypes.computeIfAbsent(mainType, k -> ConcurrentHashMap.newKeySet()).add(className);
+            }
+        }
+        classSupertypes.put(className, supers);
+    }
+
+    /**
+     * @param className internal name of the analyzed top-level class
+     * @return analyzed top-level classes referenced from the constant pool of
+     *         given class (or its nested classes). Available after the
+     *         preparation.
+     */
+    public Set<String> getDependencies(String className) {
+        return Collections.unmodifiableSet(classRefs.getOrDefault(className, Collections.emptySet()));
+    }
+
+    /**
+     * @param className internal name of the top-level class
+     * @return analyzed top-level classes which refer to given class in their
+     *         constant pool. Available after the preparation.
+     */
+    public Set<String> getDependents(String className) {
+        return Collections.unmodifiableSet(classDependents.getOrDefault(className, Collections.emptySet()));
+    }
+
+    /**
+     * Returns the classes which analysis result may change if given classes
+     * change. These are the changed classes themselves and all their analyzed
+     * subtypes (which inherit the changed members), the dependents of both
+     * (which may use changed API, possibly via the subtype), the dependencies
+     * of the changed classes and all their analyzed supertypes (which database
+     * facts like field usage or method overriding are collected from the
+     * changed classes).
+     * 
+     * @param changed internal names of the changed top-level classes
+     * @return set of affected classes (not necessarily analyzed)
+     */
+    public Set<String> getAffectedClasses(Collection<String> changed) {
+        Set<String> subTypes = closure(changed, classSubtypes);
+        Set<String> result = new TreeSet<>(subTypes);
+        for (String className : subTypes) {
+            result.addAll(getDependents(className));
+        }
+        for (String className : changed) {
+            result.addAll(getDependencies(className));
+        }
+        result.addAll(closure(changed, classSupertypes));
+        return result;
+    }
+
+    private static Set<String> closure(Collection<String> start, Map<String, Set<String>> edges) {
+        Set<String> result = new HashSet<>(start);
+        Deque<String> queue = new ArrayDeque<>(start);
+        while (!queue.isEmpty()) {
+            for (String next : edges.getOrDefault(queue.poll(), Collections.emptySet())) {
+                if (result.add(next))
+                    queue.add(next);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param entries class names or file paths (see
+     *        {@link #analyzePackage(String, Collection, HuntBugsResult)})
+     * @param known known top-level class names
+     * @return internal names of the known classes mentioned in the entries
+     */
+    static Set<String> resolveClasses(Collection<String> entries, Set<String> known) {
+        Set<String> result = new TreeSet<>();
+        for (String entry : entries) {
+            String path = entry.trim().replace('\\', '/');
+            if (path.endsWith(".class") || path.endsWith(".java")) {
+                path = path.substring(0, path.lastIndexOf('.'));
+            } else if (path.indexOf('/') < 0) {
+                path = path.replace('.', '/');
+            }
+            String candidate = path.isEmpty() ? null : getMainType(path);
+            // path may start with the source or output directory like "src/main/java/"
+            while (candidate != null) {
+                if (known.contains(candidate)) {
+                    result.add(candidate);
+                    break;
+                }
+                int pos = candidate.indexOf('/');
+                candidate = pos < 0 ? null : candidate.substring(pos + 1);
+            }
+        }
+        return result;
+    }
+
+    private static String getMainType(Warning warning) {
+        TypeInfo type = warning.getAnnotation(Roles.TYPE);
+        return type == null ? null : getMainType(type.getTypeName());
+    }
+
+    /**
+     * Populates databases using the pool of {@link AnalysisOptions#threads}
+     * workers. Classes are split into chunks, every chunk is read by single
+     * worker into its own set of database shards. Shards are merged in the
+     * original chunk order.
+     */
+    private boolean preparingClassesParallel(ExecutorService pool, Set<String> classes) {
+        try {
+            Set<String> auxClasses = new TreeSet<>();
+            if (!preparingChunks(pool, "Reading classes", classes, classes, auxClasses))
+                return false;
+            return preparingChunks(pool, "Reading dep classes", auxClasses, null, null);
+        } finally {
+            executor.releaseExecutor(pool);
+        }
+    }
+
+    /**
+     * @param analyzed set of analyzed classes if dependencies should be
+     *        collected, null otherwise
+     * @param auxClasses set to add the collected dependencies to
+     */
+    private boolean preparingChunks(ExecutorService pool, String stepName, Set<String> names, Set<String> analyzed,
+            Set<String> auxClasses) {
+        List<String> list = new ArrayList<>(names);
+        int chunkCount = options.threads * 4;
+        int chunkSize = Math.max(1, (list.size() + chunkCount - 1) / chunkCount);
+        if (options.classesPerFlush > 0)
+            chunkSize = Math.min(options.classesPerFlush, chunkSize);
+        Set<String> knownMissing = new HashSet<>(missingClasses);
+        Set<String> reportedMissing = new HashSet<>(knownMissing);
+        ITypeLoader sharedLoader = withClassCache(createSharedLoader());
+        List<List<String>> chunks = new ArrayList<>();
+        for (int from = 0; from < list.size(); from += chunkSize) {
+            chunks.add(list.subList(from, Math.min(list.size(), from + chunkSize)));
+        }
+        // finished chunks keep their types until merged in order, so the number of chunks in flight is limited
+        int maxInFlight = options.threads * 2;
+        Deque<Future<ChunkResult>> futures = new ArrayDeque<>();
+        int submitted = 0;
+        int count = 0;
+        try {
+            for (int c = 0; c < chunks.size(); c++) {
+                while (submitted < chunks.size() && submitted < c + maxInFlight) {
+                    List<String> chunk = chunks.get(submitted++);
+                    futures.add(pool.submit(() -> preparingChunk(sharedLoader, knownMissing, chunk, analyzed)));
+                }
+                Future<ChunkResult> future = futures.poll();
+                for (int i = 0; i < chunkSize && count < list.size(); i++) {
+                    if (!fireEvent(stepName, list.get(count), count, list.size()))
+                        return false;
+                    count++;
+                }
+                ChunkResult result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    throw propagate(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                commit(result.messages, reportedMissing);
+                registry.mergeDatabases(result.shards, result.types);
+                for (DatabaseRegistry.Shards shards : result.classShards) {
+                    registry.mergeDatabases(shards, Collections.emptyList());
+                }
+                // the merged types are not used anymore, so the tier can be passed to the next chunk
+                releaseTypes(result.sharedTypes);
+                if (auxClasses != null)
+                    auxClasses.addAll(result.dependencies);
+            }
+        } finally {
+            // the pool might be shared, so do not leave the unneeded tasks there
+            futures.forEach(f -> f.cancel(true));
+        }
+        return fireEvent(stepName, null, list.size(), list.size());
+    }
+
+    private ChunkResult preparingChunk(ITypeLoader loader, Set<String> knownMissing, List<String> chunk,
+            Set<String> analyzed) {
+        ChunkResult result = new ChunkResult(registry.createDatabaseShards(), acquireTypes());
+        MetadataSystem ms = createMetadataSystem(loader, new HashSet<>(knownMissing), null, result.sharedTypes);
+        currentResult.set(result.messages);
+        JdkIndex savedIndex = JdkIndex.bind(jdkIndex);
+        JdkTypeLoader savedJdk = Types.bindJdk(jdkLoader);
+        try {
+            for (String className : chunk) {
+                DatabaseRegistry.Shards restored = restoreShards(className, analyzed, result.dependencies);
+                if (restored != null) {
+                    result.classShards.add(restored);
+                    continue;
+                }
+                int errorCount = result.messages.errors.size();
+                TypeDefinition type;
+                try {
+                    type = lookUp(ms, className);
+                } catch (Throwable t) {
+                    addError(new ErrorMessage(null, className, null, null, -1, t));
+                    continue;
+                }
+                if (type != null) {
+                    long cost = 0;
+                    if (analyzed != null) {
+                        collectDependencies(type, analyzed, result.dependencies);
+                        cost = estimateCost(type);
+                        classCosts.put(className, cost);
+                    }
+                    if (!isRecording()) {
+                        registry.populateDatabases(type, result.shards);
+                    } else {
+                        // every class needs its own shards to be saved separately
+                        DatabaseRegistry.Shards shards = registry.createDatabaseShards();
+                        registry.populateDatabases(type, shards);
+                        record(type, analyzed != null, cost, shards, result.messages.errors.size() == errorCount);
+                        result.classShards.add(shards);
+                    }
+                    result.types.add(type);
+                    if (cache != null)
+                        cache.register(type, analyzed != null);
+                }
+            }
+        } finally {
+            currentResult.remove();
+            JdkIndex.bind(savedIndex);
+            Types.bindJdk(savedJdk);
+        }
+        return result;
+    }
+
+    /**
+     * @return type loader which can be used from several threads
+     */
+    private ITypeLoader createSharedLoader() {
+        // Procyon type loaders are not guaranteed to be thread-safe
+        return (internalName, buffer) -> {
+            synchronized (loader) {
+                return loader.tryLoadType(internalName, buffer);
+            }
+        };
+    }
+
+    /**
+     * @param loader loader to read the classfiles which digests were not
+     *        recorded by the {@link ClassfileCache}
+     * @param names internal names of the types to hash
+     * @return hash of the classfiles
+     */
+    String hashContent(ITypeLoader loader, List<String> names) {
+        return AnalysisCache.hashContent(classCache, loader, names);
+    }
+
+    /**
+     * @param loader type loader
+     * @return loader which reads the analyzed classes through the
+     *         {@link ClassfileCache} if it's enabled
+     */
+    private ITypeLoader withClassCache(ITypeLoader loader) {
+        ClassfileCache classCache = this.classCache;
+        return classCache == null ? loader : classCache.wrap(loader);
+    }
+
+    private static RuntimeException propagate(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Error)
+            throw (Error) cause;
+        if (cause instanceof RuntimeException)
+            return (RuntimeException) cause;
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * Commits the buffered messages produced in the worker thread
+     * 
+     * @param result messages to commit
+     * @param reportedMissing set of missing classes which were already
+     *        reported (updated by this method)
+     */
+    private void commit(ClassResult result, Set<String> reportedMissing) {
+        result.warnings.forEach(this::addWarning);
+        result.errors.forEach((msg, missing) -> {
+            if (missing == null || reportedMissing.add(missing))
+                addError(msg);
+        });
+    }
+
+    private MetadataSystem createMetadataSystem(FlushPolicy flush, SharedMetadataSystem sharedTypes) {
+        return createMetadataSystem(withClassCache(loader), missingClasses, flush, sharedTypes);
+    }
+
+    /**
+     * @param loader type loader to use
+     * @param missing set of classes known to be missing; used to report every
+     *        missing class only once. Must be either thread-confined or
+     *        concurrent.
+     * @param flush policy to notify about the loaded types; may be null
+     * @param sharedTypes tier to look up the boot and auxiliary types in, see
+     *        {@link #acquireTypes()}; may be null
+     */
+    private MetadataSystem createMetadataSystem(ITypeLoader loader, Set<String> missing, FlushPolicy flush,
+            SharedMetadataSystem sharedTypes) {
         return new MetadataSystem(loader) {
-            Set<String> loadedTypes = new HashSet<>();
+            Set<String> loadedTypes = ConcurrentHashMap.newKeySet();
             
             @Override
             protected TypeDefinition resolveType(String descriptor, boolean mightBePrimitive) {
-                if(missingClasses.contains(descriptor)) {
+                if(missing.contains(descriptor)) {
                     return null;
                 }
+                if(sharedTypes != null) {
+                    TypeDefinition type = sharedTypes.lookup(descriptor);
+                    if(type != null)
+                        return type;
+                    if(sharedTypes.isFailed(descriptor)) {
+                        missing.add(descriptor);
+                        return null;
+                    }
+                }
                 try {
-                    if(loadedTypes.add(descriptor))
-                        incStat("ClassLoadingEfficiency.Total");
-                    if(classes.add(descriptor))
-                        incStat("ClassLoadingEfficiency");
+                    if(loadedTypes.add(descriptor)) {
+                        typeLoaded(descriptor);
+                        if(flush != null)
+                            flush.typeLoaded();
+                    }
                     return super.resolveType(descriptor, mightBePrimitive);
                 } catch (Throwable t) {
-                    addError(new ErrorMessage(null, descriptor, null, null, -1, t));
-                    missingClasses.add(descriptor);
+                    missing.add(descriptor);
+                    typeLoadingFailed(descriptor, t);
                     return null;
                 }
             }
         };
     }
 
+    /**
+     * Procyon types load their members and method bodies lazily without any
+     * synchronization, so every tier of the boot and auxiliary types is used
+     * by single worker at a time.
+     * 
+     * @return idle tier to be used exclusively by the current worker until
+     *         it's passed to {@link #releaseTypes(SharedMetadataSystem)}; null
+     *         if {@link AnalysisOptions#sharedTypes} is disabled
+     */
+    private SharedMetadataSystem acquireTypes() {
+        if (typesFactory == null)
+            return null;
+        SharedMetadataSystem types = idleTypes.poll();
+        return types == null ? typesFactory.get() : types;
+    }
+
+    /**
+     * @param types tier returned by {@link #acquireTypes()} which is not used
+     *        anymore; may be null
+     */
+    private void releaseTypes(SharedMetadataSystem types) {
+        if (types != null)
+            idleTypes.add(types);
+    }
+
+    /**
+     * Drops the idle tiers and returns their boot classpath types to the
+     * session, so they can be reused by other analyses
+     */
+    private void releaseAllTypes() {
+        SharedMetadataSystem types;
+        while ((types = idleTypes.poll()) != null) {
+            if (types.getParent() != null)
+                session.releaseBootTypes(types.getParent());
+        }
+    }
+
+    /**
+     * Updates the ClassLoadingEfficiency statistics
+     * 
+     * @param descriptor internal name of the type read from the classfile
+     */
+    void typeLoaded(String descriptor) {
+        incStat("ClassLoadingEfficiency.Total");
+        if(classes.add(descriptor))
+            incStat("ClassLoadingEfficiency");
+    }
+
+    /**
+     * Reports the type loading error and marks the type as missing
+     * 
+     * @param descriptor internal name of the type
+     * @param t loading error
+     */
+    void typeLoadingFailed(String descriptor, Throwable t) {
+        ErrorMessage msg = new ErrorMessage(null, descriptor, null, null, -1, t);
+        ClassResult result = currentResult.get();
+        if(result != null)
+            result.errors.put(msg, descriptor);
+        else
+            addError(msg);
+        missingClasses.add(descriptor);
+    }
+
     private TypeDefinition lookUp(MetadataSystem ms, String className) {
         TypeReference tr = ms.lookupType(className);
         if(tr == null) {
@@ -208,19 +967,151 @@ public class Context implements HuntBugsResult {
     }
 
     private void analyzingClasses(Set<String> classes) {
-        MetadataSystem ms = createMetadataSystem();
-        classesCount.set(0);
-        for (String className : classes) {
-            if(classesCount.get() % options.classesPerFlush == 0)
-                ms = createMetadataSystem();
-            if (!fireEvent("Analyzing classes", className, classesCount.get(), classes.size()))
-                return;
-            analyzeClass(ms, className);
+        ExecutorService pool = options.threads > 1 ? executor.createExecutor("worker", options.threads) : null;
+        if(pool != null) {
+            analyzingClassesParallel(pool, classes);
+        } else {
+            analyzingClassesSequential(classes);
+        }
+    }
+
+    private void analyzingClassesSequential(Set<String> classes) {
+        boolean prefetch = startPrefetch(new ArrayList<>(classes));
+        // the analysis thread shares the loader with the prefetching threads
+        ITypeLoader typeLoader = withClassCache(prefetch ? createSharedLoader() : loader);
+        try {
+            SharedMetadataSystem types = acquireTypes();
+            FlushPolicy flush = new FlushPolicy(this);
+            MetadataSystem ms = createMetadataSystem(typeLoader, missingClasses, flush, types);
+            classesCount.set(0);
+            for (String className : classes) {
+                if(flush.needsFlush())
+                    ms = createMetadataSystem(typeLoader, missingClasses, flush, types);
+                if (!fireEvent("Analyzing classes", className, classesCount.get(), classes.size()))
+                    return;
+                analyzeClass(ms, className);
+                flush.classProcessed();
+                if (prefetch)
+                    classCache.release(className);
+            }
+            releaseTypes(types);
+        } finally {
+            if (prefetch)
+                classCache.stopPrefetch();
         }
         if (!fireEvent("Analyzing classes", null, classes.size(), classes.size()))
             return;
     }
 
+    /**
+     * Starts loading the classfiles into the {@link ClassfileCache} in
+     * background
+     * 
+     * @param names classes in the order they will be analyzed
+     * @return true if the classes are prefetched; false if
+     *         {@link AnalysisOptions#loadThreads} is not set or the loading
+     *         runs sequentially
+     */
+    private boolean startPrefetch(List<String> names) {
+        if (options.loadThreads <= 0 || classCache == null)
+            return false;
+        return classCache.startPrefetch(createSharedLoader(), names, executor, options.loadThreads,
+            options.loadQueueSize);
+    }
+
+    /**
+     * Analyzes classes using the pool of {@link AnalysisOptions#threads} workers.
+     * Every worker owns its {@link MetadataSystem}. Workers pick the classes
+     * in the order of decreasing estimated cost (see {@link #estimateCost(TypeDefinition)}),
+     * so huge classes do not delay the end of the analysis. Warnings and errors
+     * produced by each class are buffered and committed in the original class
+     * order, so the result is the same as in the sequential mode.
+     */
+    private void analyzingClassesParallel(ExecutorService pool, Set<String> classes) {
+        Set<String> knownMissing = new HashSet<>(missingClasses);
+        Set<String> reportedMissing = new HashSet<>(knownMissing);
+        ITypeLoader sharedLoader = withClassCache(createSharedLoader());
+        List<String> names = new ArrayList<>(classes);
+        List<CompletableFuture<ClassResult>> futures = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        int[] order = IntStream.range(0, names.size()).boxed().sorted(
+            Comparator.comparingLong((Integer i) -> classCosts.getOrDefault(names.get(i), 0L)).reversed())
+                .mapToInt(Integer::intValue).toArray();
+        boolean prefetch = startPrefetch(IntStream.of(order).mapToObj(names::get).collect(Collectors.toList()));
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        classesCount.set(0);
+        try {
+            for (int t = 0; t < options.threads; t++) {
+                pool.execute(() -> {
+                    AnalysisWorker worker = new AnalysisWorker(sharedLoader, knownMissing);
+                    int pos;
+                    while (!cancelled.get() && !Thread.currentThread().isInterrupted()
+                        && (pos = next.getAndIncrement()) < order.length) {
+                        int idx = order[pos];
+                        try {
+                            futures.get(idx).complete(worker.analyze(names.get(idx)));
+                        } catch (Throwable ex) {
+                            futures.get(idx).completeExceptionally(ex);
+                        } finally {
+                            if (prefetch)
+                                classCache.release(names.get(idx));
+                        }
+                    }
+                    releaseTypes(worker.sharedTypes);
+                });
+            }
+            for (int i = 0; i < names.size(); i++) {
+                String className = names.get(i);
+                if (!fireEvent("Analyzing classes", className, i, names.size()))
+                    return;
+                ClassResult result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    addError(new ErrorMessage(null, className, null, null, -1, e.getCause()));
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                commit(result, reportedMissing);
+            }
+        } finally {
+            cancelled.set(true);
+            executor.releaseExecutor(pool);
+            if (prefetch)
+                classCache.stopPrefetch();
+        }
+        fireEvent("Analyzing classes", null, names.size(), names.size());
+    }
+
+    /**
+     * Estimates the relative cost of the type analysis. Used to schedule the
+     * most expensive classes first.
+     * 
+     * @param type type to estimate
+     * @return number of constant pool entries plus total bytecode size of the
+     *         type and its nested types
+     */
+    private static long estimateCost(TypeDefinition type) {
+        long cost = 0;
+        for (@SuppressWarnings("unused") ConstantPool.Entry entry : type.getConstantPool()) {
+            cost++;
+        }
+        for (MethodDefinition md : type.getDeclaredMethods()) {
+            MethodBody body = md.getBody();
+            if (body != null)
+                cost += body.getCodeSize();
+        }
+        for (TypeDefinition subType : type.getDeclaredTypes()) {
+            cost += estimateCost(subType);
+        }
+        return cost;
+    }
+
     void analyzeClass(MetadataSystem ms, String name) {
         classesCount.incrementAndGet();
         TypeDefinition type;
@@ -230,11 +1121,46 @@ public class Context implements HuntBugsResult {
             addError(new ErrorMessage(null, name, null, null, -1, t));
             return;
         }
-        if (type != null)
+        if (type == null)
+            return;
+        if (cache == null) {
+            registry.analyzeClass(type);
+            return;
+        }
+        String key = cache.key(type);
+        incStat("CacheHits.Total");
+        if (cache.restore(key)) {
+            incStat("CacheHits");
+            return;
+        }
+        ClassResult parent = currentResult.get();
+        ClassResult result = new ClassResult();
+        currentResult.set(result);
+        try {
             registry.analyzeClass(type);
+        } finally {
+            if (parent == null)
+                currentResult.remove();
+            else
+                currentResult.set(parent);
+        }
+        if (result.errors.isEmpty())
+            cache.store(key, result.warnings);
+        if (parent != null) {
+            parent.warnings.addAll(result.warnings);
+            result.errors.forEach(parent.errors::putIfAbsent);
+        } else {
+            // missing classes are reported only once by the metadata system itself
+            commit(result, new HashSet<>());
+        }
     }
 
     public void addError(ErrorMessage msg) {
+        ClassResult result = currentResult.get();
+        if (result != null) {
+            result.errors.put(msg, null);
+            return;
+        }
         incStat("InternalErrors");
         errors.add(msg);
     }
@@ -242,6 +1168,16 @@ public class Context implements HuntBugsResult {
     public void addWarning(Warning warning) {
         if(warning.getScore() < getOptions().minScore)
             return;
+        ClassResult result = currentResult.get();
+        if (result != null) {
+            result.warnings.add(warning);
+            return;
+        }
+        Baseline b = baseline;
+        if (b != null && b.match(warning)) {
+            incStat("Warnings.Baseline");
+            return;
+        }
         incStat("Warnings");
         warnings.add(warning);
     }
@@ -331,7 +1267,7 @@ public class Context implements HuntBugsResult {
         return stat.getOrDefault(key, 0L);
     }
 
-    private static String getMainType(String internalName) {
+    static String getMainType(String internalName) {
         if(internalName.startsWith("[")) {
             if(!internalName.endsWith(";"))
                 return null;
@@ -348,4 +1284,59 @@ public class Context implements HuntBugsResult {
         }
         return internalName;
     }
+
+    private static class ClassResult {
+        final List<Warning> warnings = new ArrayList<>();
+        // error -> name of missing class if error is caused by the class loading failure
+        final Map<ErrorMessage, String> errors = new LinkedHashMap<>();
+    }
+
+    private static class ChunkResult {
+        final ClassResult messages = new ClassResult();
+        final DatabaseRegistry.Shards shards;
+        final List<TypeDefinition> types = new ArrayList<>();
+        final Set<String> dependencies = new HashSet<>();
+        // per-class shards used when the database snapshot or jar cache is enabled
+        final List<DatabaseRegistry.Shards> classShards = new ArrayList<>();
+        // tier used to read the types, released after they are merged
+        final SharedMetadataSystem sharedTypes;
+
+        ChunkResult(DatabaseRegistry.Shards shards, SharedMetadataSystem sharedTypes) {
+            this.shards = shards;
+            this.sharedTypes = sharedTypes;
+        }
+    }
+
+    private class AnalysisWorker {
+        private final ITypeLoader loader;
+        private final Set<String> missing;
+        private final FlushPolicy flush = new FlushPolicy(Context.this);
+        // owned by this worker until released
+        final SharedMetadataSystem sharedTypes = acquireTypes();
+        private MetadataSystem ms;
+
+        AnalysisWorker(ITypeLoader loader, Set<String> knownMissing) {
+            this.loader = loader;
+            this.missing = ConcurrentHashMap.newKeySet();
+            this.missing.addAll(knownMissing);
+        }
+
+        ClassResult analyze(String className) {
+            if (ms == null || flush.needsFlush())
+                ms = createMetadataSystem(loader, missing, flush, sharedTypes);
+            flush.classProcessed();
+            ClassResult result = new ClassResult();
+            currentResult.set(result);
+            JdkIndex savedIndex = JdkIndex.bind(jdkIndex);
+            JdkTypeLoader savedJdk = Types.bindJdk(jdkLoader);
+            try {
+                analyzeClass(ms, className);
+            } finally {
+                currentResult.remove();
+                JdkIndex.bind(savedIndex);
+                Types.bindJdk(savedJdk);
+            }
+            return result;
+        }
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import one.util.huntbugs.registry.DatabaseInput;
+import one.util.huntbugs.registry.DatabaseOutput;
+import one.util.huntbugs.registry.DetectorRegistry;
+
+/**
+ * Common parts of the database files format used by {@link DatabaseSnapshot}
+ * and {@link JarDatabaseCache}
+ */
+final class DatabaseFiles {
+    // lock file -> monitor: file locks are held by the whole JVM, so the threads of the same JVM are serialized here
+    private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+    interface Writer {
+        void write(DatabaseOutput out) throws IOException;
+    }
+
+    interface Action {
+        void run() throws IOException;
+    }
+
+    private DatabaseFiles() {
+    }
+
+    /**
+     * @param registry registry which databases are stored
+     * @return hash of HuntBugs version, JVM version and the database names:
+     *         files with another fingerprint are ignored
+     */
+    static String fingerprint(DetectorRegistry registry) {
+        MessageDigest md = AnalysisCache.createDigest();
+        AnalysisCache.update(md, String.valueOf(Context.class.getPackage().getImplementationVersion()));
+        AnalysisCache.update(md, System.getProperty("java.version"));
+        registry.getDatabaseNames().forEach(name -> AnalysisCache.update(md, name));
+        return AnalysisCache.toHex(md.digest());
+    }
+
+    static Set<String> readStrings(DatabaseInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0)
+            throw new IOException("Invalid count: " + count);
+        // linked set, so nested type names preserve the order
+        Set<String> result = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            String str = in.readString();
+            if (str == null)
+                throw new IOException("String expected");
+            result.add(str);
+        }
+        return result;
+    }
+
+    static void writeStrings(DatabaseOutput out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String str : strings) {
+            out.writeString(str);
+        }
+    }
+
+    /**
+     * Writes the file via temporary file, so the readers see either old or new
+     * version
+     *
+     * @param path file to write (parent directory is created if necessary)
+     * @param writer writes the file content
+     * @throws IOException if the file cannot be written
+     */
+    static void writeAtomically(Path path, Writer writer) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                DatabaseOutput out = new DatabaseOutput(os);
+                writer.write(out);
+                out.flush();
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Runs the action holding the exclusive lock of the file, so concurrent
+     * read-modify-write cycles of the same file from this or another process
+     * don't lose each other's updates. The lock is the separate ".lock" file
+     * next to the given one, which is left in place.
+     *
+     * @param path file to lock (parent directory is created if necessary)
+     * @param action action to run under lock
+     * @throws IOException if the lock cannot be acquired or the action fails
+     */
+    static void locked(Path path, Action action) throws IOException {
+        Path lockPath = path.toAbsolutePath().resolveSibling(path.getFileName() + ".lock");
+        Files.createDirectories(lockPath.getParent());
+        synchronized (LOCKS.computeIfAbsent(lockPath, p -> new Object())) {
+            try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+                action.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.strobel.assembler.metadata.ITypeLoader;
+import com.strobel.assembler.metadata.TypeDefinition;
+
+import one.util.huntbugs.registry.DatabaseInput;
+import one.util.huntbugs.registry.DatabaseOutput;
+import one.util.huntbugs.registry.DatabaseRegistry;
+import one.util.huntbugs.registry.DetectorRegistry;
+
+/**
+ * Persistent snapshot of the type databases (see
+ * {@link AnalysisOptions#dbSnapshot}).
+ *
+ * The contribution of every top-level class (with its nested classes) to the
+ * databases is stored separately, so the class which did not change since the
+ * previous run is not read at all: its contribution is deserialized and
+ * merged as the database shard. The contribution is considered up to date if
+ * the classfiles of the class and the classfiles of the types it may resolve
+ * while populating the databases did not change. These are the types referred
+ * from its constant pool and their supertypes.
+ *
+ * The whole snapshot is discarded if HuntBugs version, JVM version or the set
+ * of databases changes. Contributions are not saved for classes which
+ * produced errors.
+ */
+final class DatabaseSnapshot {
+    private static final int MAGIC = 0x48424442; // "HBDB"
+    private static final int VERSION = 2;
+
+    private final Context ctx;
+    private final DetectorRegistry registry;
+    private final Path path;
+    private final ITypeLoader loader;
+    private final String fingerprint;
+    // top-level class -> entry read from the existing snapshot
+    private final Map<String, Entry> previous = new HashMap<>();
+    // top-level class -> entry to be written to the new snapshot
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+    // top-level type -> hash of its current classfiles
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+    static final class Entry {
+        final String name;
+        final boolean analyzed;
+        // names of the class and its nested classes in depth-first order
+        final List<String> typeNames;
+        final String hash;
+        final long cost;
+        final Set<String> refs;
+        final Set<String> supers;
+        final byte[] data;
+        // hash of the dependencies; computed on save
+        String depsHash;
+
+        Entry(String name, boolean analyzed, List<String> typeNames, String hash, long cost, Set<String> refs,
+                Set<String> supers, byte[] data) {
+            this.name = name;
+            this.analyzed = analyzed;
+            this.typeNames = typeNames;
+            this.hash = hash;
+            this.cost = cost;
+            this.refs = refs;
+            this.supers = supers;
+            this.data = data;
+        }
+
+        Entry withAnalyzed(boolean isAnalyzed) {
+            if (isAnalyzed == analyzed)
+                return this;
+            Entry entry = new Entry(name, isAnalyzed, typeNames, hash, cost, refs, supers, data);
+            entry.depsHash = depsHash;
+            return entry;
+        }
+    }
+
+    /**
+     * @param ctx analysis context
+     * @param registry registry which databases are stored (must support the
+     *        snapshots)
+     * @param path snapshot file; read if exists
+     * @param loader thread-safe loader to read the classfiles
+     */
+    DatabaseSnapshot(Context ctx, DetectorRegistry registry, Path path, ITypeLoader loader) {
+        this.ctx = ctx;
+        this.registry = registry;
+        this.path = path;
+        this.loader = loader;
+        this.fingerprint = DatabaseFiles.fingerprint(registry);
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(path))) {
+            read(new DatabaseInput(is));
+        } catch (NoSuchFileException e) {
+            // no snapshot yet
+        } catch (IOException e) {
+            // corrupted snapshot: read all the classes
+            previous.clear();
+            ctx.incStat("DbSnapshotReadErrors");
+        }
+    }
+
+    private void read(DatabaseInput in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || !fingerprint.equals(in.readString()))
+            return;
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = in.readString();
+            boolean analyzed = in.readInt() != 0;
+            List<String> typeNames = new ArrayList<>(DatabaseFiles.readStrings(in));
+            String hash = in.readString();
+            String depsHash = in.readString();
+            long cost = in.readLong();
+            Set<String> refs = DatabaseFiles.readStrings(in);
+            Set<String> supers = DatabaseFiles.readStrings(in);
+            byte[] data = in.readBytes();
+            if (name == null || hash == null || depsHash == null)
+                throw new IOException("Invalid snapshot entry");
+            Entry entry = new Entry(name, analyzed, typeNames, hash, cost, refs, supers, data);
+            entry.depsHash = depsHash;
+            previous.put(name, entry);
+        }
+    }
+
+    /**
+     * Restores the class contribution if it's up to date
+     *
+     * @param className top-level class name
+     * @param isAnalyzed true if the class is analyzed, false if it's a
+     *        dependency
+     * @param shards freshly created shards to read the contribution into
+     * @return the restored entry or null if the class must be read
+     */
+    Entry restore(String className, boolean isAnalyzed, DatabaseRegistry.Shards shards) {
+        Entry entry = previous.get(className);
+        ctx.incStat("DbSnapshotHits.Total");
+        if (entry == null || !entry.hash.equals(hash(className)) || !entry.depsHash.equals(depsHash(entry, previous)))
+            return null;
+        try {
+            registry.readDatabaseShards(shards, new DatabaseInput(new ByteArrayInputStream(entry.data)));
+        } catch (IOException e) {
+            ctx.incStat("DbSnapshotReadErrors");
+            return null;
+        }
+        current.put(className, entry.withAnalyzed(isAnalyzed));
+        ctx.incStat("DbSnapshotHits");
+        return entry;
+    }
+
+    /**
+     * Records the class contribution to be saved in the new snapshot. Must be
+     * called before the shards are merged.
+     *
+     * @param type top-level type which was just read
+     * @param isAnalyzed true if the class is analyzed, false if it's a
+     *        dependency
+     * @param cost estimated analysis cost of the class
+     * @param shards shards populated with this type only
+     */
+    void store(TypeDefinition type, boolean isAnalyzed, long cost, DatabaseRegistry.Shards shards) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            DatabaseOutput out = new DatabaseOutput(data);
+            registry.writeDatabaseShards(shards, out);
+            out.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new InternalError(e);
+        }
+        List<String> typeNames = AnalysisCache.typeNames(type);
+        store(type.getInternalName(), isAnalyzed, typeNames, ctx.hashContent(loader, typeNames), cost,
+            AnalysisCache.references(type), AnalysisCache.supers(type), data.toByteArray());
+    }
+
+    /**
+     * Records the class contribution which is already serialized (e.g. taken
+     * from {@link JarDatabaseCache})
+     */
+    void store(String name, boolean isAnalyzed, List<String> typeNames, String hash, long cost, Set<String> refs,
+            Set<String> supers, byte[] data) {
+        hashes.put(name, hash);
+        current.put(name, new Entry(name, isAnalyzed, typeNames, hash, cost, refs, supers, data));
+    }
+
+    /**
+     * Writes the new snapshot which contains the contributions of the classes
+     * processed during this run. The old snapshot is replaced atomically.
+     */
+    void save() {
+        Map<String, Entry> entries = new TreeMap<>(current);
+        for (Entry entry : entries.values()) {
+            entry.depsHash = depsHash(entry, entries);
+        }
+        try {
+            DatabaseFiles.writeAtomically(path, out -> write(out, entries));
+        } catch (IOException e) {
+            // the snapshot is optional: the next run just reads all the classes
+            ctx.incStat("DbSnapshotWriteErrors");
+        }
+    }
+
+    private void write(DatabaseOutput out, Map<String, Entry> entries) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeString(fingerprint);
+        out.writeInt(entries.size());
+        for (Entry entry : entries.values()) {
+            out.writeString(entry.name);
+            out.writeInt(entry.analyzed ? 1 : 0);
+            DatabaseFiles.writeStrings(out, entry.typeNames);
+            out.writeString(entry.hash);
+            out.writeString(entry.depsHash);
+            out.writeLong(entry.cost);
+            DatabaseFiles.writeStrings(out, entry.refs);
+            DatabaseFiles.writeStrings(out, entry.supers);
+            out.writeBytes(entry.data);
+        }
+    }
+
+    /**
+     * @param entry entry to compute the dependencies hash for
+     * @param entries known entries to look up the nested types and supertypes
+     * @return hash of the current classfiles of the entry dependencies
+     */
+    private String depsHash(Entry entry, Map<String, Entry> entries) {
+        Set<String> deps = new TreeSet<>(entry.refs);
+        Deque<String> queue = new ArrayDeque<>(deps);
+        while (!queue.isEmpty()) {
+            Entry dep = entries.get(queue.poll());
+            Set<String> superTypes = dep == null ? Collections.emptySet() : dep.supers;
+            for (String superType : superTypes) {
+                String mainType = Context.getMainType(superType);
+                if (mainType != null && deps.add(mainType))
+                    queue.add(mainType);
+            }
+        }
+        deps.remove(entry.name);
+        MessageDigest md = AnalysisCache.createDigest();
+        for (String dep : deps) {
+            AnalysisCache.update(md, dep + "=" + hash(dep, entries));
+        }
+        return AnalysisCache.toHex(md.digest());
+    }
+
+    private String hash(String name) {
+        return hash(name, previous);
+    }
+
+    private String hash(String name, Map<String, Entry> entries) {
+        String hash = hashes.get(name);
+        if (hash == null) {
+            Entry entry = entries.get(name);
+            hash = ctx.hashContent(loader, entry == null ? Collections.singletonList(name)
+                    : entry.typeNames);
+            hashes.putIfAbsent(name, hash);
+        }
+        return hash;
+    }
+}
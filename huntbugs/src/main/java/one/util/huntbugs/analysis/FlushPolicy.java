@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Decides when the short-lived {@link com.strobel.assembler.metadata.MetadataSystem}
+ * should be thrown away. The metadata system is flushed when any of these
+ * happens:
+ * <ul>
+ * <li>{@link AnalysisOptions#classesPerFlush} classes were processed</li>
+ * <li>{@link AnalysisOptions#typesPerFlush} types were loaded into it</li>
+ * <li>occupancy of the old generation after the last garbage collection
+ * exceeds {@link AnalysisOptions#flushHeapPercent} of its maximum size; at
+ * most once per garbage collection, as the occupancy is not updated until the
+ * next one</li>
+ * </ul>
+ * Every flush is counted in the statistics together with its reason.
+ *
+ * Every worker thread must have its own instance.
+ */
+final class FlushPolicy {
+    // heap pools which survive young collections (old generation)
+    private static final List<MemoryPoolMXBean> TENURED_POOLS = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                && pool.isCollectionUsageThresholdSupported()).collect(Collectors.toList());
+    private static final List<GarbageCollectorMXBean> COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private final Context ctx;
+    private final int classesPerFlush;
+    private final int typesPerFlush;
+    private final int heapPercent;
+    private int classes;
+    // updated by the metadata system
+    private final AtomicInteger types = new AtomicInteger();
+    // number of garbage collections at the moment of the last flush caused by heap occupancy
+    private long gcCount = -1;
+
+    FlushPolicy(Context ctx) {
+        AnalysisOptions options = ctx.getOptions();
+        this.ctx = ctx;
+        this.classesPerFlush = options.classesPerFlush;
+        this.typesPerFlush = options.typesPerFlush;
+        this.heapPercent = options.flushHeapPercent;
+    }
+
+    /**
+     * Must be called by the metadata system when new type is read.
+     */
+    void typeLoaded() {
+        types.incrementAndGet();
+    }
+
+    /**
+     * Must be called after every processed class.
+     */
+    void classProcessed() {
+        classes++;
+    }
+
+    /**
+     * Checks whether flush is necessary. If it is, the counters are reset and
+     * the flush is reported to the statistics, so the caller must create new
+     * metadata system.
+     *
+     * @return true if the metadata system should be flushed
+     */
+    boolean needsFlush() {
+        String reason = null;
+        if (classesPerFlush > 0 && classes >= classesPerFlush) {
+            reason = "Classes";
+        } else if (typesPerFlush > 0 && types.get() >= typesPerFlush) {
+            reason = "Types";
+        } else if (heapPercent > 0 && classes > 0 && heapExceeded()) {
+            reason = "Heap";
+        }
+        if (reason == null)
+            return false;
+        classes = 0;
+        types.set(0);
+        ctx.incStat("Flushes");
+        ctx.incStat("Flushes." + reason);
+        return true;
+    }
+
+    private boolean heapExceeded() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : COLLECTORS) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        // collection usage is not updated until the next GC, so flushing again does not help
+        if (count == gcCount)
+            return false;
+        for (MemoryPoolMXBean pool : TENURED_POOLS) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null && usage.getMax() > 0 && usage.getUsed() * 100 > usage.getMax() * heapPercent) {
+                gcCount = count;
+                return true;
+            }
+        }
+        return false;
+    }
+}
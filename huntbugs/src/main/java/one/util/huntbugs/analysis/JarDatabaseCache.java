@@ -0,0 +1,426 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.strobel.assembler.metadata.ITypeLoader;
+import com.strobel.assembler.metadata.TypeDefinition;
+
+import one.util.huntbugs.registry.DatabaseInput;
+import one.util.huntbugs.registry.DatabaseOutput;
+import one.util.huntbugs.registry.DatabaseRegistry;
+import one.util.huntbugs.registry.DetectorRegistry;
+
+/**
+ * Cache of the database contributions of the dependency jars shared between
+ * runs and projects (see {@link AnalysisOptions#dbCacheDir}). Contributions
+ * are also kept in memory by {@link AnalysisSession}, if any, so other
+ * projects of the same session don't read the cache files again.
+ *
+ * Contributions of the classes read from every jar are stored in the separate
+ * file named after SHA-256 hash of the jar, so the same jar used by different
+ * projects is read only once. The contribution of the class may also depend
+ * on the types it resolves (the types referred from its constant pool and
+ * their supertypes): for every such type outside of the jar the hash of the
+ * jar providing it (or the hash of the classfile if it's not provided by the
+ * dependency jar) is stored and checked before the contribution is reused.
+ *
+ * Concurrent runs may share the cache directory: files are replaced
+ * atomically, so the reader sees either old or new version. The file is
+ * updated under the file lock and re-read before the new entries are merged
+ * into it, so the contributions added by the concurrent runs are preserved.
+ */
+final class JarDatabaseCache {
+    private static final int MAGIC = 0x48424A43; // "HBJC"
+    private static final int VERSION = 2;
+
+    private final Context ctx;
+    private final DetectorRegistry registry;
+    private final Path dir;
+    private final ITypeLoader loader;
+    private final AnalysisSession session;
+    private final String fingerprint;
+    private final List<JarData> jars = new ArrayList<>();
+    // class name -> jar which provides it; built lazily
+    private Map<String, JarData> index;
+    // type name -> its tag (see tag method)
+    private final Map<String, String> tags = new ConcurrentHashMap<>();
+    // type name -> direct supertypes of the types seen in this run
+    private final Map<String, Set<String>> supers = new ConcurrentHashMap<>();
+
+    static final class Entry {
+        final String name;
+        final List<String> typeNames;
+        final String hash;
+        final Set<String> refs;
+        final Set<String> supers;
+        final byte[] data;
+        // dependency type -> its tag; computed on save for new entries
+        Map<String, String> deps;
+
+        Entry(String name, List<String> typeNames, String hash, Set<String> refs, Set<String> supers, byte[] data) {
+            this.name = name;
+            this.typeNames = typeNames;
+            this.hash = hash;
+            this.refs = refs;
+            this.supers = supers;
+            this.data = data;
+        }
+    }
+
+    private static final class JarData {
+        final Path path;
+        String hash;
+        // entries read from the cache file; null if not read yet
+        Map<String, Entry> entries;
+        final Map<String, Entry> added = new ConcurrentHashMap<>();
+
+        JarData(Path path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * @param ctx analysis context
+     * @param registry registry which databases are stored (must support the
+     *        snapshots)
+     * @param dir cache directory (created if necessary); null to cache in the
+     *        session only
+     * @param jars dependency jars in the loading order
+     * @param loader thread-safe loader to read the classfiles
+     * @param session session to share the contributions with; may be null if
+     *        dir is specified
+     */
+    JarDatabaseCache(Context ctx, DetectorRegistry registry, Path dir, List<Path> jars, ITypeLoader loader,
+            AnalysisSession session) {
+        this.ctx = ctx;
+        this.registry = registry;
+        this.dir = dir;
+        this.loader = loader;
+        this.session = session;
+        this.fingerprint = DatabaseFiles.fingerprint(registry);
+        for (Path jar : jars) {
+            this.jars.add(new JarData(jar));
+        }
+    }
+
+    private synchronized Map<String, JarData> index() {
+        if (index == null) {
+            index = new HashMap<>();
+            for (JarData jar : jars) {
+                try (JarFile jarFile = new JarFile(jar.path.toFile())) {
+                    Enumeration<JarEntry> entries = jarFile.entries();
+                    while (entries.hasMoreElements()) {
+                        String name = entries.nextElement().getName();
+                        if (name.endsWith(".class"))
+                            index.putIfAbsent(name.substring(0, name.length() - ".class".length()), jar);
+                    }
+                } catch (IOException e) {
+                    // jar is not readable: its classes are just not cached
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Restores the class contribution if it's cached and up to date
+     *
+     * @param className top-level dependency class name
+     * @param shards freshly created shards to read the contribution into
+     * @return the restored entry or null if the class must be read
+     */
+    Entry restore(String className, DatabaseRegistry.Shards shards) {
+        JarData jar = index().get(className);
+        if (jar == null)
+            return null;
+        ctx.incStat("DbCacheHits.Total");
+        Entry entry = entries(jar).get(className);
+        if (entry == null)
+            return null;
+        for (Map.Entry<String, String> dep : entry.deps.entrySet()) {
+            if (!dep.getValue().equals(tag(dep.getKey())))
+                return null;
+        }
+        try {
+            registry.readDatabaseShards(shards, new DatabaseInput(new ByteArrayInputStream(entry.data)));
+        } catch (IOException e) {
+            ctx.incStat("DbCacheReadErrors");
+            return null;
+        }
+        supers.put(className, entry.supers);
+        ctx.incStat("DbCacheHits");
+        return entry;
+    }
+
+    /**
+     * Records the contribution of the dependency class provided by the jar.
+     * Must be called before the shards are merged.
+     *
+     * @param type top-level type which was just read
+     * @param shards shards populated with this type only
+     */
+    void store(TypeDefinition type, DatabaseRegistry.Shards shards) {
+        String name = type.getInternalName();
+        Set<String> superTypes = AnalysisCache.supers(type);
+        supers.put(name, superTypes);
+        JarData jar = index().get(name);
+        if (jar == null)
+            return;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            DatabaseOutput out = new DatabaseOutput(data);
+            registry.writeDatabaseShards(shards, out);
+            out.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new InternalError(e);
+        }
+        List<String> typeNames = AnalysisCache.typeNames(type);
+        jar.added.put(name, new Entry(name, typeNames, ctx.hashContent(loader, typeNames),
+                AnalysisCache.references(type), superTypes, data.toByteArray()));
+    }
+
+    /**
+     * Registers the supertypes of the type processed during the preparation,
+     * so they are known when the dependencies are computed
+     *
+     * @param name top-level type name
+     * @param superTypes its direct supertypes
+     */
+    void register(String name, Set<String> superTypes) {
+        supers.putIfAbsent(name, superTypes);
+    }
+
+    /**
+     * Writes the updated cache files for the jars which got new entries
+     */
+    void save() {
+        for (JarData jar : jars) {
+            if (jar.added.isEmpty())
+                continue;
+            for (Entry entry : jar.added.values()) {
+                entry.deps = deps(entry, jar);
+            }
+            Map<String, Entry> result = new TreeMap<>(entries(jar));
+            if (dir != null) {
+                Path path = getPath(jar);
+                try {
+                    DatabaseFiles.locked(path, () -> {
+                        // the file may be updated by the concurrent run since it was read
+                        result.putAll(readFile(path));
+                        result.putAll(jar.added);
+                        DatabaseFiles.writeAtomically(path, out -> write(out, result.values()));
+                    });
+                } catch (IOException e) {
+                    // the cache is optional: the jar will be read again next time
+                    ctx.incStat("DbCacheWriteErrors");
+                }
+            }
+            result.putAll(jar.added);
+            if (session != null)
+                session.putJarEntries(getKey(jar), Collections.unmodifiableMap(result));
+        }
+    }
+
+    private Map<String, String> deps(Entry entry, JarData jar) {
+        Set<String> types = new TreeSet<>(entry.refs);
+        Deque<String> queue = new ArrayDeque<>(types);
+        queue.addAll(entry.supers);
+        while (!queue.isEmpty()) {
+            String type = Context.getMainType(queue.poll());
+            if (type == null)
+                continue;
+            types.add(type);
+            for (String superType : supers.getOrDefault(type, Collections.emptySet())) {
+                String mainType = Context.getMainType(superType);
+                if (mainType != null && !types.contains(mainType))
+                    queue.add(mainType);
+            }
+        }
+        Map<String, String> deps = new TreeMap<>();
+        for (String type : types) {
+            // types from the same jar are covered by the jar hash
+            if (index().get(type) != jar)
+                deps.put(type, tag(type));
+        }
+        return deps;
+    }
+
+    /**
+     * @param type top-level type name
+     * @return hash of the jar which provides the type or hash of the type
+     *         classfile if it's not provided by the jar
+     */
+    private String tag(String type) {
+        String tag = tags.get(type);
+        if (tag == null) {
+            JarData jar = index().get(type);
+            String hash = jar == null ? null : hash(jar);
+            tag = hash != null ? "jar:" + hash : "class:" + ctx.hashContent(loader, Collections.singletonList(
+                type));
+            tags.putIfAbsent(type, tag);
+        }
+        return tag;
+    }
+
+    private Map<String, Entry> entries(JarData jar) {
+        synchronized (jar) {
+            if (jar.entries == null) {
+                Map<String, Entry> shared = session == null || hash(jar) == null ? null : session.getJarEntries(
+                    getKey(jar));
+                if (shared != null) {
+                    jar.entries = shared;
+                    return shared;
+                }
+                jar.entries = hash(jar) != null && dir != null ? readFile(getPath(jar)) : new HashMap<>();
+                if (session != null && hash(jar) != null)
+                    session.putJarEntries(getKey(jar), Collections.unmodifiableMap(jar.entries));
+            }
+            return jar.entries;
+        }
+    }
+
+    /**
+     * @param path cache file
+     * @return entries read from the file; empty if the file does not exist or
+     *         cannot be read
+     */
+    private Map<String, Entry> readFile(Path path) {
+        Map<String, Entry> entries = new HashMap<>();
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(path))) {
+            read(new DatabaseInput(is), entries);
+        } catch (NoSuchFileException e) {
+            // not cached yet
+        } catch (IOException e) {
+            entries.clear();
+            ctx.incStat("DbCacheReadErrors");
+        }
+        return entries;
+    }
+
+    /**
+     * @return SHA-256 of the jar file or null if it cannot be read
+     */
+    private String hash(JarData jar) {
+        synchronized (jar) {
+            if (jar.hash == null) {
+                jar.hash = session == null ? hashFile(jar.path) : session.getJarHash(jar.path);
+            }
+            return jar.hash;
+        }
+    }
+
+    /**
+     * @return SHA-256 of the file or null if it cannot be read
+     */
+    static String hashFile(Path path) {
+        try (InputStream is = Files.newInputStream(path)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[65536];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+            return AnalysisCache.toHex(md.digest());
+        } catch (IOException e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalError(e);
+        }
+    }
+
+    private String getKey(JarData jar) {
+        return hash(jar) + "-" + fingerprint;
+    }
+
+    private Path getPath(JarData jar) {
+        return dir.resolve(hash(jar) + "-" + fingerprint.substring(0, 16) + ".hbdb");
+    }
+
+    private void read(DatabaseInput in, Map<String, Entry> entries) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || !fingerprint.equals(in.readString()))
+            return;
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = in.readString();
+            List<String> typeNames = new ArrayList<>(DatabaseFiles.readStrings(in));
+            String hash = in.readString();
+            Set<String> refs = DatabaseFiles.readStrings(in);
+            Set<String> superTypes = DatabaseFiles.readStrings(in);
+            int depCount = in.readInt();
+            Map<String, String> deps = new TreeMap<>();
+            for (int j = 0; j < depCount; j++) {
+                String dep = in.readString();
+                String tag = in.readString();
+                if (dep == null || tag == null)
+                    throw new IOException("Invalid dependency");
+                deps.put(dep, tag);
+            }
+            byte[] data = in.readBytes();
+            if (name == null || hash == null)
+                throw new IOException("Invalid cache entry");
+            Entry entry = new Entry(name, typeNames, hash, refs, superTypes, data);
+            entry.deps = deps;
+            entries.put(name, entry);
+        }
+    }
+
+    private void write(DatabaseOutput out, Collection<Entry> entries) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeString(fingerprint);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeString(entry.name);
+            DatabaseFiles.writeStrings(out, entry.typeNames);
+            out.writeString(entry.hash);
+            DatabaseFiles.writeStrings(out, entry.refs);
+            DatabaseFiles.writeStrings(out, entry.supers);
+            out.writeInt(entry.deps.size());
+            for (Map.Entry<String, String> dep : entry.deps.entrySet()) {
+                out.writeString(dep.getKey());
+                out.writeString(dep.getValue());
+            }
+            out.writeBytes(entry.data);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.strobel.assembler.metadata.ITypeLoader;
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.TypeDefinition;
+
+/**
+ * Long-lived tier of the type cache which holds the types which never change
+ * during the analysis: boot classpath and auxiliary (dependency) types. It
+ * survives the flushes of the short-lived metadata systems used for the
+ * analyzed classes. Boot classpath types may be provided by the parent tier of
+ * {@link AnalysisSession}.
+ *
+ * The returned types load their members and method bodies lazily, so the tier
+ * must be used by single worker at a time: {@link Context} keeps one tier per
+ * worker.
+ */
+final class SharedMetadataSystem extends MetadataSystem {
+    private final Context ctx;
+    private final SharedMetadataSystem parent;
+    // context which uses the shared tier now; the loaded types are counted there
+    private volatile Context owner;
+    private final Map<String, TypeDefinition> types = new ConcurrentHashMap<>();
+    // types which are not provided by this tier
+    private final Set<String> absent = ConcurrentHashMap.newKeySet();
+    // types which are provided by this tier, but could not be read
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+    // type -> reading error; used if there's no context to report to
+    private final Map<String, Throwable> errors = new ConcurrentHashMap<>();
+
+    /**
+     * @param ctx context to report the statistics and errors to; null if the
+     *        tier is shared by several contexts
+     * @param loader loader which provides boot and auxiliary types only; must
+     *        be thread-safe
+     * @param parent tier to look up the types in first; may be null
+     */
+    SharedMetadataSystem(Context ctx, ITypeLoader loader, SharedMetadataSystem parent) {
+        super(loader);
+        this.ctx = ctx;
+        this.parent = parent;
+    }
+
+    /**
+     * @param descriptor internal name of the type
+     * @return type definition or null if the type is not provided by this tier
+     *         or could not be read (see {@link #isFailed(String)})
+     */
+    TypeDefinition lookup(String descriptor) {
+        TypeDefinition type = types.get(descriptor);
+        if (type != null || absent.contains(descriptor) || failed.contains(descriptor))
+            return type;
+        return resolveType(descriptor, false);
+    }
+
+    /**
+     * @param owner context which uses the tier exclusively now, so the types
+     *        loaded by the tier are counted there; null if the tier is idle.
+     *        Used only if the tier is shared by several contexts.
+     */
+    void setOwner(Context owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * @return tier to look up the types in first; may be null
+     */
+    SharedMetadataSystem getParent() {
+        return parent;
+    }
+
+    /**
+     * @param descriptor internal name of the type
+     * @return true if type is provided by this tier, but reading failed; the
+     *         error is already reported in this case
+     */
+    boolean isFailed(String descriptor) {
+        return failed.contains(descriptor);
+    }
+
+    @Override
+    protected TypeDefinition resolveType(String descriptor, boolean mightBePrimitive) {
+        TypeDefinition type = types.get(descriptor);
+        if (type != null || absent.contains(descriptor) || failed.contains(descriptor))
+            return type;
+        if (parent != null) {
+            type = parent.lookup(descriptor);
+            if (type != null)
+                return type;
+            if (parent.isFailed(descriptor)) {
+                // report to own context once
+                if (failed.add(descriptor) && ctx != null)
+                    ctx.typeLoadingFailed(descriptor, parent.errors.get(descriptor));
+                return null;
+            }
+        }
+        synchronized (this) {
+            type = types.get(descriptor);
+            if (type != null || absent.contains(descriptor) || failed.contains(descriptor))
+                return type;
+            try {
+                type = super.resolveType(descriptor, mightBePrimitive);
+            } catch (Throwable t) {
+                errors.put(descriptor, t);
+                failed.add(descriptor);
+                if (ctx != null)
+                    ctx.typeLoadingFailed(descriptor, t);
+                return null;
+            }
+            if (type == null) {
+                absent.add(descriptor);
+            } else {
+                Context statCtx = ctx == null ? owner : ctx;
+                if (statCtx != null)
+                    statCtx.typeLoaded(descriptor);
+                types.put(descriptor, type);
+            }
+            return type;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Client of the running {@link HuntBugsDaemon}.
+ *
+ * The protocol: client sends the magic string, the secret token from the
+ * daemon state file, the command, the working directory and the command line
+ * arguments. Daemon confirms the job and streams back the frames: output and
+ * error output chunks and finally the exit code.
+ */
+public final class DaemonClient {
+    static final String MAGIC = "HuntBugsDaemon/1";
+    static final String COMMAND_RUN = "run";
+    static final String COMMAND_STOP = "stop";
+    static final int FRAME_ACCEPTED = 0;
+    static final int FRAME_OUT = 1;
+    static final int FRAME_ERR = 2;
+    static final int FRAME_EXIT = 3;
+
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    private final int port;
+    private final String token;
+
+    private DaemonClient(int port, String token) {
+        this.port = port;
+        this.token = token;
+    }
+
+    /**
+     * @param stateFile state file written by the daemon
+     * @return client or null if the daemon is not running
+     */
+    public static DaemonClient find(Path stateFile) {
+        Properties props = new Properties();
+        try (InputStream is = Files.newInputStream(stateFile)) {
+            props.load(is);
+        } catch (IOException e) {
+            return null;
+        }
+        String token = props.getProperty("token");
+        int port;
+        try {
+            port = Integer.parseInt(props.getProperty("port", ""));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (token == null || port <= 0 || port > 0xFFFF)
+            return null;
+        return new DaemonClient(port, token);
+    }
+
+    /**
+     * Runs the command line job in the daemon
+     *
+     * @param workDir working directory to resolve the relative paths and write
+     *        the results to
+     * @param args command line arguments (see {@link one.util.huntbugs.HuntBugs})
+     * @param out stream to copy the standard output of the job to
+     * @param err stream to copy the error output of the job to
+     * @return exit code of the job
+     * @throws IOException if the daemon did not accept the job (e.g. it's not
+     *         running anymore). The job can be safely run in another way in
+     *         this case. Failures after the job is accepted are reported to
+     *         err stream.
+     */
+    public int run(Path workDir, List<String> args, OutputStream out, OutputStream err) throws IOException {
+        Socket socket = connect();
+        try {
+            DataInputStream in = request(socket, COMMAND_RUN, workDir, args);
+            try {
+                while (true) {
+                    int frame = in.readUnsignedByte();
+                    switch (frame) {
+                    case FRAME_OUT:
+                    case FRAME_ERR: {
+                        byte[] data = new byte[in.readInt()];
+                        in.readFully(data);
+                        OutputStream target = frame == FRAME_OUT ? out : err;
+                        target.write(data);
+                        target.flush();
+                        break;
+                    }
+                    case FRAME_EXIT:
+                        return in.readInt();
+                    default:
+                        throw new IOException("Unexpected frame: " + frame);
+                    }
+                }
+            } catch (IOException e) {
+                PrintStream ps = new PrintStream(err, true);
+                ps.println("HuntBugs daemon failure: " + e);
+                return -4;
+            }
+        } finally {
+            // the job is already accepted or not: the caller must not see the closing failure
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Runs the analysis job in the daemon in the temporary directory and moves
+     * the resulting reports to the given location
+     *
+     * @param args command line arguments which must not contain relative
+     *        paths
+     * @param xml where to move the XML report to; may be null
+     * @param html where to move the HTML report to; may be null
+     * @param out stream to copy the standard output of the job to
+     * @param err stream to copy the error output of the job to
+     * @return exit code of the job
+     * @throws IOException if the daemon did not accept the job (see
+     *         {@link #run(Path, List, OutputStream, OutputStream)}) or reports
+     *         cannot be moved
+     */
+    public int analyze(List<String> args, Path xml, Path html, OutputStream out, OutputStream err)
+            throws IOException {
+        Path dir = Files.createTempDirectory("huntbugs-job");
+        try {
+            int exitCode = run(dir, args, out, err);
+            if (exitCode == 0) {
+                move(dir.resolve("huntbugs.warnings.xml"), xml);
+                move(dir.resolve("huntbugs.warnings.html"), html);
+            }
+            return exitCode;
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        if (target == null)
+            return;
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Asks the daemon to stop
+     *
+     * @throws IOException if the daemon did not accept the command
+     */
+    public void stop() throws IOException {
+        try (Socket socket = connect()) {
+            request(socket, COMMAND_STOP, null, null);
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private DataInputStream request(Socket socket, String command, Path workDir, List<String> args)
+            throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        dos.writeUTF(MAGIC);
+        dos.writeUTF(token);
+        dos.writeUTF(command);
+        if (workDir != null) {
+            dos.writeUTF(workDir.toAbsolutePath().toString());
+            dos.writeInt(args.size());
+            for (String arg : args) {
+                dos.writeUTF(arg);
+            }
+        }
+        dos.flush();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        // daemon closes the connection without confirmation if the request is invalid
+        if (in.read() != FRAME_ACCEPTED)
+            throw new IOException("Job is not accepted by HuntBugs daemon");
+        return in;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.LogManager;
+
+import one.util.huntbugs.HuntBugs;
+import one.util.huntbugs.analysis.AnalysisSession;
+
+/**
+ * Long-lived process which runs the command line jobs on behalf of
+ * {@link DaemonClient}. Jobs avoid the JVM startup and use the warm state
+ * kept by the process: loaded and compiled detectors, the detector list (see
+ * {@link one.util.huntbugs.registry.DetectorRegistry}), messages, JDK
+ * types cache and the {@link AnalysisSession} shared by all the jobs
+ * (dependency loaders, boot classpath types and database contributions of
+ * dependency jars). Unless the job specifies dbCacheDir option, database
+ * contributions of dependency jars are also cached in the directory next to
+ * the state file.
+ *
+ * The daemon listens on the loopback interface only. Its port and the secret
+ * token which must be presented by the clients are written to the state file
+ * readable by the current user only.
+ */
+public final class HuntBugsDaemon {
+    public static final Path DEFAULT_STATE_FILE = Paths.get(System.getProperty("user.home"), ".huntbugs",
+        "daemon.properties");
+
+    private final Path stateFile;
+    private final String token;
+    private final AnalysisSession session = new AnalysisSession();
+    private final ExecutorService jobs = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "HuntBugs daemon job");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile ServerSocket server;
+
+    /**
+     * @param stateFile file to write the port and the token to
+     */
+    public HuntBugsDaemon(Path stateFile) {
+        this.stateFile = stateFile;
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        this.token = sb.toString();
+    }
+
+    /**
+     * Accepts the jobs until {@link #stop()} is called or the stop command is
+     * received
+     *
+     * @throws IOException if the daemon cannot be started
+     */
+    public void run() throws IOException {
+        LogManager.getLogManager().reset();
+        try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            server = socket;
+            writeState(socket.getLocalPort());
+            try {
+                while (true) {
+                    Socket client;
+                    try {
+                        client = socket.accept();
+                    } catch (IOException e) {
+                        if (socket.isClosed())
+                            break;
+                        continue;
+                    }
+                    jobs.execute(() -> serve(client));
+                }
+            } finally {
+                Files.deleteIfExists(stateFile);
+                jobs.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting the jobs. Jobs in progress are interrupted.
+     */
+    public void stop() {
+        ServerSocket socket = server;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void writeState(int port) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("port", String.valueOf(port));
+        props.setProperty("token", token);
+        Path dir = stateFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, stateFile.getFileName().toString(), ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // not a POSIX file system: rely on the user home permissions
+            }
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                props.store(os, "HuntBugs daemon");
+            }
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void serve(Socket client) {
+        try (Socket socket = client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            // constant time comparison does not reveal the token prefix
+            if (!DaemonClient.MAGIC.equals(in.readUTF()) || !MessageDigest.isEqual(token.getBytes(
+                StandardCharsets.UTF_8), in.readUTF().getBytes(StandardCharsets.UTF_8)))
+                return;
+            String command = in.readUTF();
+            DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+            switch (command) {
+            case DaemonClient.COMMAND_STOP:
+                dos.write(DaemonClient.FRAME_ACCEPTED);
+                dos.flush();
+                stop();
+                break;
+            case DaemonClient.COMMAND_RUN: {
+                Path workDir = Paths.get(in.readUTF());
+                int count = in.readInt();
+                List<String> args = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    args.add(in.readUTF());
+                }
+                dos.write(DaemonClient.FRAME_ACCEPTED);
+                dos.flush();
+                int exitCode = runJob(workDir, args, dos);
+                synchronized (dos) {
+                    dos.write(DaemonClient.FRAME_EXIT);
+                    dos.writeInt(exitCode);
+                    dos.flush();
+                }
+                break;
+            }
+            default:
+                // unknown command: close without confirmation
+            }
+        } catch (IOException e) {
+            // client has gone
+        }
+    }
+
+    private int runJob(Path workDir, List<String> args, DataOutputStream dos) {
+        try (PrintStream out = new PrintStream(new FrameOutputStream(dos, DaemonClient.FRAME_OUT), true, "UTF-8");
+                PrintStream err = new PrintStream(new FrameOutputStream(dos, DaemonClient.FRAME_ERR), true, "UTF-8")) {
+            List<String> jobArgs = new ArrayList<>(args);
+            if (!args.isEmpty() && args.stream().noneMatch(arg -> arg.startsWith("-DdbCacheDir="))) {
+                jobArgs.add("-DdbCacheDir=" + stateFile.toAbsolutePath().resolveSibling("dbcache"));
+            }
+            try {
+                return new HuntBugs(workDir, out, err, session).run(jobArgs.toArray(new String[0]));
+            } catch (RuntimeException | Error e) {
+                // keep the daemon alive
+                e.printStackTrace(err);
+                return -4;
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new InternalError(e);
+        }
+    }
+
+    /**
+     * Writes the data as the frames of given kind. Frames of the output and
+     * error streams of the same job are serialized on the underlying stream.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream dos;
+        private final int kind;
+
+        FrameOutputStream(DataOutputStream dos, int kind) {
+            this.dos = dos;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            synchronized (dos) {
+                dos.write(kind);
+                dos.writeInt(len);
+                dos.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (dos) {
+                dos.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
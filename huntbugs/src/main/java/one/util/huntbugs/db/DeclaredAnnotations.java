@@ -15,6 +15,7 @@
  */
 package one.util.huntbugs.db;
 
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
@@ -25,6 +26,8 @@ import com.strobel.assembler.metadata.annotations.CustomAnnotation;
 import com.strobel.assembler.metadata.annotations.EnumAnnotationElement;
 
 import one.util.huntbugs.registry.AbstractTypeDatabase;
+import one.util.huntbugs.registry.DatabaseInput;
+import one.util.huntbugs.registry.DatabaseOutput;
 import one.util.huntbugs.registry.anno.TypeDatabase;
 import one.util.huntbugs.registry.anno.TypeDatabaseItem;
 import one.util.huntbugs.util.Types;
@@ -62,6 +65,37 @@ public class DeclaredAnnotations extends AbstractTypeDatabase<DeclaredAnnotation
         }
     }
 
+    @Override
+    protected boolean isShardable() {
+        return true;
+    }
+
+    @Override
+    protected void merge(AbstractTypeDatabase<DeclaredAnnotation> shard) {
+        mergeElements(shard, (a, b) -> b);
+    }
+
+    @Override
+    protected boolean isSerializable() {
+        return true;
+    }
+
+    @Override
+    protected void write(DatabaseOutput out) throws IOException {
+        writeElements(out, (o, da) -> o.writeInt(da.policy.ordinal()));
+    }
+
+    @Override
+    protected void read(DatabaseInput in) throws IOException {
+        RetentionPolicy[] policies = RetentionPolicy.values();
+        readElements(in, (i, da) -> {
+            int ordinal = i.readInt();
+            if (ordinal < 0 || ordinal >= policies.length)
+                throw new IOException("Invalid retention policy: " + ordinal);
+            da.policy = policies[ordinal];
+        });
+    }
+
     @TypeDatabaseItem(parentDatabase = DeclaredAnnotations.class)
     public static class DeclaredAnnotation {
         RetentionPolicy policy = RetentionPolicy.CLASS;
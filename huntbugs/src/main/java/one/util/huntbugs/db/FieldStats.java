@@ -15,6 +15,7 @@
  */
 package one.util.huntbugs.db;
 
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Deque;
@@ -35,6 +36,8 @@ import com.strobel.assembler.metadata.TypeReference;
 import com.strobel.assembler.metadata.VariableReference;
 
 import one.util.huntbugs.registry.AbstractTypeDatabase;
+import one.util.huntbugs.registry.DatabaseInput;
+import one.util.huntbugs.registry.DatabaseOutput;
 import one.util.huntbugs.registry.anno.TypeDatabase;
 import one.util.huntbugs.registry.anno.TypeDatabaseItem;
 import one.util.huntbugs.util.Types;
@@ -232,6 +235,54 @@ public class FieldStats extends AbstractTypeDatabase<FieldStats.TypeFieldStats>{
         }
     }
 
+    @Override
+    protected boolean isShardable() {
+        return true;
+    }
+
+    @Override
+    protected void merge(AbstractTypeDatabase<TypeFieldStats> shard) {
+        mergeElements(shard, (a, b) -> {
+            a.merge(b);
+            return a;
+        });
+    }
+
+    @Override
+    protected boolean isSerializable() {
+        return true;
+    }
+
+    @Override
+    protected void write(DatabaseOutput out) throws IOException {
+        writeElements(out, (o, tfs) -> {
+            if (tfs.fieldRecords == null) {
+                o.writeInt(-1);
+                return;
+            }
+            o.writeInt(tfs.fieldRecords.size());
+            for (Map.Entry<String, Integer> e : tfs.fieldRecords.entrySet()) {
+                o.writeString(e.getKey());
+                o.writeInt(e.getValue());
+            }
+        });
+    }
+
+    @Override
+    protected void read(DatabaseInput in) throws IOException {
+        readElements(in, (i, tfs) -> {
+            int count = i.readInt();
+            if (count < 0) {
+                tfs.linkUncontrolled();
+                return;
+            }
+            for (int j = 0; j < count; j++) {
+                String name = i.readString();
+                tfs.fieldRecords.put(name, i.readInt());
+            }
+        });
+    }
+
     public int getFlags(FieldReference fr) {
         TypeFieldStats fs = get(fr.getDeclaringType());
         return fs == null ? UNRESOLVED : fs.getFlags(fr.getName()); 
@@ -257,6 +308,16 @@ public class FieldStats extends AbstractTypeDatabase<FieldStats.TypeFieldStats>{
         void linkUncontrolled() {
             fieldRecords = null;
         }
+        
+        void merge(TypeFieldStats other) {
+            if(fieldRecords == null)
+                return;
+            if(other.fieldRecords == null) {
+                fieldRecords = null;
+                return;
+            }
+            other.fieldRecords.forEach((name, flags) -> fieldRecords.merge(name, flags, (a, b) -> a | b));
+        }
 
         void link(MethodDefinition src, FieldReference fr, boolean isStatic, boolean write, boolean hadNull) {
             if(fieldRecords == null)
@@ -15,6 +15,7 @@
  */
 package one.util.huntbugs.db;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -26,6 +27,8 @@ import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.assembler.metadata.TypeReference;
 
 import one.util.huntbugs.registry.AbstractTypeDatabase;
+import one.util.huntbugs.registry.DatabaseInput;
+import one.util.huntbugs.registry.DatabaseOutput;
 import one.util.huntbugs.registry.anno.TypeDatabase;
 import one.util.huntbugs.registry.anno.TypeDatabaseItem;
 import one.util.huntbugs.util.Methods;
@@ -51,6 +54,53 @@ public class Hierarchy extends AbstractTypeDatabase<Hierarchy.TypeHierarchy> {
             link(th, id);
     }
     
+    @Override
+    protected boolean isShardable() {
+        return true;
+    }
+
+    @Override
+    protected void merge(AbstractTypeDatabase<TypeHierarchy> shard) {
+        ((Hierarchy) shard).forEachElement((name, sth) -> {
+            TypeHierarchy th = getOrCreate(name);
+            if (sth.isResolved())
+                th.flags = sth.flags;
+            for (TypeHierarchy superTh : sth.superClasses) {
+                TypeHierarchy targetSuperTh = getOrCreate(superTh.internalName);
+                th.superClasses.add(targetSuperTh);
+                targetSuperTh.subClasses.add(th);
+            }
+        });
+    }
+
+    @Override
+    protected boolean isSerializable() {
+        return true;
+    }
+
+    @Override
+    protected void write(DatabaseOutput out) throws IOException {
+        writeElements(out, (o, th) -> {
+            o.writeLong(th.flags);
+            o.writeInt(th.superClasses.size());
+            for (TypeHierarchy superTh : th.superClasses)
+                o.writeString(superTh.internalName);
+        });
+    }
+
+    @Override
+    protected void read(DatabaseInput in) throws IOException {
+        readElements(in, (i, th) -> {
+            th.flags = i.readLong();
+            int count = i.readInt();
+            for (int j = 0; j < count; j++) {
+                TypeHierarchy superTh = getOrCreate(i.readString());
+                th.superClasses.add(superTh);
+                superTh.subClasses.add(th);
+            }
+        });
+    }
+    
     public boolean isOverridden(MethodDefinition md) {
         if(md.isStatic() || md.isFinal() || md.getDeclaringType().isFinal())
             return false;
@@ -15,10 +15,15 @@
  */
 package one.util.huntbugs.db;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import com.strobel.assembler.ir.Instruction;
 import com.strobel.assembler.metadata.Flags;
 import com.strobel.assembler.metadata.MethodBody;
@@ -28,6 +33,8 @@ import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.assembler.metadata.TypeReference;
 
 import one.util.huntbugs.registry.AbstractTypeDatabase;
+import one.util.huntbugs.registry.DatabaseInput;
+import one.util.huntbugs.registry.DatabaseOutput;
 import one.util.huntbugs.registry.anno.TypeDatabase;
 import one.util.huntbugs.util.Methods;
 import one.util.huntbugs.warning.WarningAnnotation.MemberInfo;
@@ -82,6 +89,109 @@ public class MethodStats extends AbstractTypeDatabase<Boolean> {
         }
     }
     
+    @Override
+    protected boolean isShardable() {
+        return true;
+    }
+
+    @Override
+    protected void merge(AbstractTypeDatabase<Boolean> shard) {
+        Map<MemberInfo, MethodData> shardData = ((MethodStats) shard).data;
+        // shard MethodData -> merged MethodData; single shard object may be shared by several methods
+        // (abstract method and the super method it aliases), so the objects which already have the merged
+        // counterpart are mapped first. Sorted to choose the same counterpart regardless of the hash order.
+        Map<MethodData, MethodData> mapping = new IdentityHashMap<>();
+        List<MemberInfo> members = new ArrayList<>(shardData.keySet());
+        members.sort(Comparator.comparing(MemberInfo::getTypeName).thenComparing(MemberInfo::getName)
+                .thenComparing(MemberInfo::getSignature));
+        for (MemberInfo mi : members) {
+            MethodData mdata = data.get(mi);
+            if (mdata != null)
+                mapping.putIfAbsent(shardData.get(mi), mdata);
+        }
+        for (MemberInfo mi : members) {
+            if (!data.containsKey(mi))
+                data.put(mi, mapping.computeIfAbsent(shardData.get(mi), k -> new MethodData()));
+        }
+        shardData.forEach((mi, smdata) -> {
+            MethodData mdata = data.get(mi);
+            mdata.flags |= smdata.flags;
+            if (smdata.subMethods != null) {
+                for (MethodData subMethod : smdata.subMethods) {
+                    mdata.addSubMethod(mapping.get(subMethod));
+                }
+            }
+        });
+    }
+    
+    @Override
+    protected boolean isSerializable() {
+        return true;
+    }
+
+    @Override
+    protected void write(DatabaseOutput out) throws IOException {
+        // single MethodData may be shared by several methods, so write them separately
+        Map<MethodData, Integer> ids = new IdentityHashMap<>();
+        List<MethodData> list = new ArrayList<>();
+        for (MethodData mdata : data.values()) {
+            if (ids.putIfAbsent(mdata, list.size()) == null)
+                list.add(mdata);
+        }
+        out.writeInt(list.size());
+        for (MethodData mdata : list) {
+            out.writeLong(mdata.flags);
+        }
+        for (MethodData mdata : list) {
+            Set<MethodData> subMethods = mdata.subMethods;
+            out.writeInt(subMethods == null ? 0 : subMethods.size());
+            if (subMethods != null) {
+                for (MethodData subMethod : subMethods) {
+                    out.writeInt(ids.get(subMethod));
+                }
+            }
+        }
+        out.writeInt(data.size());
+        for (Map.Entry<MemberInfo, MethodData> e : data.entrySet()) {
+            MemberInfo mi = e.getKey();
+            out.writeString(mi.getTypeName());
+            out.writeString(mi.getName());
+            out.writeString(mi.getSignature());
+            out.writeInt(ids.get(e.getValue()));
+        }
+    }
+
+    @Override
+    protected void read(DatabaseInput in) throws IOException {
+        MethodData[] list = new MethodData[in.readInt()];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = new MethodData();
+            list[i].flags = in.readLong();
+        }
+        for (MethodData mdata : list) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                mdata.addSubMethod(readMethodData(in, list));
+            }
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String typeName = in.readString();
+            String name = in.readString();
+            String signature = in.readString();
+            if (typeName == null || name == null || signature == null)
+                throw new IOException("Invalid method record");
+            data.put(new MemberInfo(typeName, name, signature), readMethodData(in, list));
+        }
+    }
+
+    private static MethodData readMethodData(DatabaseInput in, MethodData[] list) throws IOException {
+        int id = in.readInt();
+        if (id < 0 || id >= list.length)
+            throw new IOException("Invalid method data reference: " + id);
+        return list[id];
+    }
+    
     public MethodData getStats(MemberInfo mi) {
         return data.get(mi);
     }
@@ -165,14 +275,15 @@ public class MethodStats extends AbstractTypeDatabase<Boolean> {
     }
 
     public static class MethodData {
-        private List<MethodData> subMethods;
+        // the same sub-method may come from several database shards
+        private Set<MethodData> subMethods;
         long flags;
         
         void addSubMethod(MethodData md) {
             if(md == this)
                 return;
             if(subMethods == null) {
-                subMethods = new ArrayList<>();
+                subMethods = new LinkedHashSet<>();
             }
             subMethods.add(md);
         }
@@ -15,11 +15,15 @@
  */
 package one.util.huntbugs.db;
 
+import java.io.IOException;
+
 import com.strobel.assembler.metadata.FieldDefinition;
 import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.assembler.metadata.TypeReference;
 
 import one.util.huntbugs.registry.AbstractTypeDatabase;
+import one.util.huntbugs.registry.DatabaseInput;
+import one.util.huntbugs.registry.DatabaseOutput;
 import one.util.huntbugs.registry.anno.TypeDatabase;
 
 /**
@@ -44,6 +48,31 @@ public class Mutability extends AbstractTypeDatabase<Boolean> {
         }
     }
     
+    @Override
+    protected boolean isShardable() {
+        return true;
+    }
+
+    @Override
+    protected void merge(AbstractTypeDatabase<Boolean> shard) {
+        mergeElements(shard, (a, b) -> a);
+    }
+
+    @Override
+    protected boolean isSerializable() {
+        return true;
+    }
+
+    @Override
+    protected void write(DatabaseOutput out) throws IOException {
+        writeElements(out, (o, e) -> {});
+    }
+
+    @Override
+    protected void read(DatabaseInput in) throws IOException {
+        readElements(in, (i, e) -> {});
+    }
+    
     public boolean isKnownMutable(TypeReference tr) {
         return get(tr.getInternalName()) != null;
     }
@@ -67,9 +67,6 @@ import one.util.huntbugs.warning.Role.TypeRole;
 @WarningDefinition(category = "RedundantCode", name = "NullCheckMethodForConstant", maxScore = 65)
 @WarningDefinition(category = "Correctness", name = "WrongArgumentOrder", maxScore = 65)
 public class BadMethodCalls {
-    private static final TypeDefinition STREAM_TYPE = Types.lookupJdkType("java/util/stream/Stream");
-    private static final TypeDefinition CLD_TYPE = Types.lookupJdkType("java/util/concurrent/ConcurrentLinkedDeque");
-    private static final TypeDefinition CLQ_TYPE = Types.lookupJdkType("java/util/concurrent/ConcurrentLinkedQueue");
     private static final TypeReference CHAR_ARRAY_TYPE = BuiltinTypes.Character.makeArrayType();
     
     private static final StringRole DOUBLE_NUMBER = StringRole.forName("DOUBLE_NUMBER");
@@ -170,7 +167,7 @@ public class BadMethodCalls {
                 wtype = "CharArrayToString";
             else if(type.isArray().yes())
                 wtype = "ArrayToString";
-            else if(type.is(STREAM_TYPE, false).yes())
+            else if(type.is(Types.getJdkValue(JdkTypes.class, JdkTypes::new).stream, false).yes())
                 wtype = "StreamToString";
             if(wtype != null) {
                 ctx.report(wtype, 0, lastArg);
@@ -246,10 +243,11 @@ public class BadMethodCalls {
                 .getCode() == AstCode.InvokeInterface)) {
             EType eType = Inf.ETYPE.resolve(node.getArguments().get(0));
             TypeReference target = null;
-            if (eType.is(CLD_TYPE, false).yes())
-                target = CLD_TYPE;
-            else if (eType.is(CLQ_TYPE, false).yes())
-                target = CLQ_TYPE;
+            JdkTypes jdk = Types.getJdkValue(JdkTypes.class, JdkTypes::new);
+            if (eType.is(jdk.cld, false).yes())
+                target = jdk.cld;
+            else if (eType.is(jdk.clq, false).yes())
+                target = jdk.clq;
             if (target != null) {
                 ctx.report("ConcurrentCollectionSize", 0, node, Roles.TARGET_TYPE.create(target));
             }
@@ -288,4 +286,11 @@ public class BadMethodCalls {
         MethodReference mr = (MethodReference) ((Expression) node).getOperand();
         return mr.getName().equals("currentTimeMillis") || mr.getName().equals("nanoTime");
     }
+
+    // read once per analyzed JDK
+    private static class JdkTypes {
+        final TypeDefinition stream = Types.lookupJdkType("java/util/stream/Stream");
+        final TypeDefinition cld = Types.lookupJdkType("java/util/concurrent/ConcurrentLinkedDeque");
+        final TypeDefinition clq = Types.lookupJdkType("java/util/concurrent/ConcurrentLinkedQueue");
+    }
 }
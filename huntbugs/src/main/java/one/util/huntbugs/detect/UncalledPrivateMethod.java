@@ -15,6 +15,7 @@
  */
 package one.util.huntbugs.detect;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Locale;
@@ -33,6 +34,8 @@ import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.assembler.metadata.TypeReference;
 import one.util.huntbugs.registry.AbstractTypeDatabase;
 import one.util.huntbugs.registry.ClassContext;
+import one.util.huntbugs.registry.DatabaseInput;
+import one.util.huntbugs.registry.DatabaseOutput;
 import one.util.huntbugs.registry.anno.ClassVisitor;
 import one.util.huntbugs.registry.anno.TypeDatabase;
 import one.util.huntbugs.registry.anno.WarningDefinition;
@@ -75,6 +78,44 @@ public class UncalledPrivateMethod {
             }
         }
         
+        @Override
+        protected boolean isShardable() {
+            return true;
+        }
+
+        @Override
+        protected void merge(AbstractTypeDatabase<Void> shard) {
+            mis.addAll(((NestedAnonymousCalls) shard).mis);
+        }
+
+        @Override
+        protected boolean isSerializable() {
+            return true;
+        }
+
+        @Override
+        protected void write(DatabaseOutput out) throws IOException {
+            out.writeInt(mis.size());
+            for (MemberInfo mi : mis) {
+                out.writeString(mi.getTypeName());
+                out.writeString(mi.getName());
+                out.writeString(mi.getSignature());
+            }
+        }
+
+        @Override
+        protected void read(DatabaseInput in) throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String typeName = in.readString();
+                String name = in.readString();
+                String signature = in.readString();
+                if (typeName == null || name == null || signature == null)
+                    throw new IOException("Invalid method record");
+                mis.add(new MemberInfo(typeName, name, signature));
+            }
+        }
+
         public boolean isCalled(MemberInfo mi) {
             return mis.contains(mi);
         }
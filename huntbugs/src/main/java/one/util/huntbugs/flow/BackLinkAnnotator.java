@@ -17,6 +17,7 @@ package one.util.huntbugs.flow;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -48,7 +49,7 @@ public class BackLinkAnnotator extends Annotator<Set<Expression>> {
             Expression right = expr.getArguments().get(1);
             Set<Expression> links = get(expr);
             if(!(links instanceof HashSet))
-                links = new HashSet<>(links);
+                links = new LinkedHashSet<>(links);
             links.addAll(get(left));
             links.addAll(get(right));
             links.remove(expr);
@@ -81,7 +82,8 @@ public class BackLinkAnnotator extends Annotator<Set<Expression>> {
             put(source, Collections.singleton(target));
         } else {
             if (!(set instanceof HashSet)) {
-                set = new HashSet<>(set);
+                // insertion order keeps reports independent of identity hash codes
+                set = new LinkedHashSet<>(set);
                 put(source, set);
             }
             set.add(target);
@@ -56,6 +56,7 @@ import com.strobel.decompiler.ast.Variable;
 import one.util.huntbugs.warning.WarningAnnotation.MemberInfo;
 import one.util.huntbugs.util.Exprs;
 import one.util.huntbugs.util.Nodes;
+import one.util.huntbugs.util.TimeBudget;
 import one.util.huntbugs.util.Types;
 
 /**
@@ -68,16 +69,8 @@ public class CFG {
     private static final int BLOCKTYPE_FAIL = -3;
     private static final int BLOCKTYPE_IMPLICIT = -4;
 
-    static final TypeDefinition throwable = Types.lookupJdkType("java/lang/Throwable");
-    static final TypeDefinition exception = Types.lookupJdkType("java/lang/Exception");
-    static final TypeDefinition runtimeException = Types.lookupJdkType("java/lang/RuntimeException");
-    static final TypeDefinition classCastException = Types.lookupJdkType("java/lang/ClassCastException");
-    static final TypeDefinition nullPointerException = Types.lookupJdkType("java/lang/NullPointerException");
-    static final TypeDefinition arrayIndexOutOfBoundsException = Types.lookupJdkType("java/lang/ArrayIndexOutOfBoundsException");
-    static final TypeDefinition arrayStoreException = Types.lookupJdkType("java/lang/ArrayStoreException");
-    static final TypeDefinition outOfMemoryError = Types.lookupJdkType("java/lang/OutOfMemoryError");
-    static final TypeDefinition linkageError = Types.lookupJdkType("java/lang/LinkageError");
-    static final TypeDefinition error = Types.lookupJdkType("java/lang/Error");
+    // exception types of the JDK bound to the thread which builds the CFG
+    final JdkExceptions jdk = Types.getJdkValue(JdkExceptions.class, JdkExceptions::new);
 
     final List<BasicBlock> blocks = new ArrayList<>();
     final Map<Lambda, CFG> lambdas = new HashMap<>();
@@ -663,16 +656,16 @@ public class CFG {
             if (exc == null)
                 exc = expr.getExpectedType();
             if (exc == null)
-                exc = throwable;
+                exc = jdk.throwable;
             jc.addExceptional(block, exc);
             return null;
         }
         case CheckCast:
-            jc.addExceptional(block, classCastException);
-            jc.addExceptional(block, linkageError);
+            jc.addExceptional(block, jdk.classCastException);
+            jc.addExceptional(block, jdk.linkageError);
             break;
         case InstanceOf:
-            jc.addExceptional(block, linkageError);
+            jc.addExceptional(block, jdk.linkageError);
             break;
         case Goto:
             jc.addJump(block, (Label) expr.getOperand());
@@ -687,12 +680,12 @@ public class CFG {
             jc.addReturn(block);
             return null;
         case ArrayLength:
-            jc.addExceptional(block, nullPointerException);
+            jc.addExceptional(block, jdk.nullPointerException);
             break;
         case Bind:
         case InvokeDynamic:
-            jc.addExceptional(block, error);
-            jc.addExceptional(block, runtimeException);
+            jc.addExceptional(block, jdk.error);
+            jc.addExceptional(block, jdk.runtimeException);
             break;
         case InitObject:
         case InvokeInterface:
@@ -704,45 +697,45 @@ public class CFG {
                 block.addTarget(EdgeType.PASS, implicit);
                 return null;
             }
-            jc.addExceptional(block, error);
-            jc.addExceptional(block, runtimeException);
+            jc.addExceptional(block, jdk.error);
+            jc.addExceptional(block, jdk.runtimeException);
             MethodDefinition md = mr.resolve();
             if (md != null) {
                 for (TypeReference thrownType : md.getThrownTypes()) {
                     jc.addExceptional(block, thrownType);
                 }
             } else {
-                jc.addExceptional(block, exception);
+                jc.addExceptional(block, jdk.exception);
             }
             break;
         }
         case LoadElement:
-            jc.addExceptional(block, arrayIndexOutOfBoundsException);
-            jc.addExceptional(block, nullPointerException);
+            jc.addExceptional(block, jdk.arrayIndexOutOfBoundsException);
+            jc.addExceptional(block, jdk.nullPointerException);
             break;
         case StoreElement:
-            jc.addExceptional(block, arrayIndexOutOfBoundsException);
-            jc.addExceptional(block, arrayStoreException);
-            jc.addExceptional(block, nullPointerException);
+            jc.addExceptional(block, jdk.arrayIndexOutOfBoundsException);
+            jc.addExceptional(block, jdk.arrayStoreException);
+            jc.addExceptional(block, jdk.nullPointerException);
             break;
         case __New:
         case NewArray:
         case InitArray:
         case MultiANewArray:
-            jc.addExceptional(block, outOfMemoryError);
+            jc.addExceptional(block, jdk.outOfMemoryError);
             break;
         case PutStatic:
         case GetStatic: {
             FieldReference fr = ((FieldReference) expr.getOperand());
             if (!fr.getDeclaringType().isEquivalentTo(md.getDeclaringType()))
-                jc.addExceptional(block, linkageError);
+                jc.addExceptional(block, jdk.linkageError);
             break;
         }
         case PutField:
         case GetField: {
             if (md.isStatic() || !Exprs.isThis(expr.getArguments().get(0))) {
-                jc.addExceptional(block, nullPointerException);
-                jc.addExceptional(block, linkageError);
+                jc.addExceptional(block, jdk.nullPointerException);
+                jc.addExceptional(block, jdk.linkageError);
             }
             break;
         }
@@ -768,6 +761,8 @@ public class CFG {
     public static CFG build(MethodDefinition md, Block body) {
         try {
             return new CFG(md, null, body);
+        } catch (TimeBudget.ExceededException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Unable to build CFG for " + new MemberInfo(md) + "\n" + body, e);
         }
@@ -798,6 +793,7 @@ public class CFG {
         boolean[] changed = { true };
         from.changed = true;
         while (changed[0]) {
+            TimeBudget.check();
             changed[0] = false;
             for (BasicBlock bb : blocks) {
                 if (bb.changed) {
@@ -817,6 +813,7 @@ public class CFG {
         boolean[] changed = { true };
         from.changed = true;
         while (changed[0]) {
+            TimeBudget.check();
             changed[0] = false;
             for (BasicBlock bb : blocks) {
                 if (targets.contains(bb))
@@ -863,6 +860,7 @@ public class CFG {
         exit.state = fail.state = implicit.state = null;
         boolean changed = true;
         while(changed) {
+            TimeBudget.check();
             changed = false;
             for(BasicBlock bb : blocks) {
                 if(bb.changed) {
@@ -947,6 +945,7 @@ public class CFG {
         boolean[] changed = { true };
         entry.changed = true;
         while (changed[0]) {
+            TimeBudget.check();
             changed[0] = false;
             for (BasicBlock bb : blocks) {
                 if (bb.changed) {
@@ -1058,6 +1057,7 @@ public class CFG {
         }
 
         private void runIteration(List<BasicBlock> blocks) {
+            TimeBudget.check();
             changed = false;
             clearChanged();
             for (BasicBlock bb : blocks) {
@@ -1527,4 +1527,20 @@ public class CFG {
                 tt -> new BasicBlock())));
         }
     }
+
+    /**
+     * JDK exception types used to build the exceptional edges; read once per JDK
+     */
+    static final class JdkExceptions {
+        final TypeDefinition throwable = Types.lookupJdkType("java/lang/Throwable");
+        final TypeDefinition exception = Types.lookupJdkType("java/lang/Exception");
+        final TypeDefinition runtimeException = Types.lookupJdkType("java/lang/RuntimeException");
+        final TypeDefinition classCastException = Types.lookupJdkType("java/lang/ClassCastException");
+        final TypeDefinition nullPointerException = Types.lookupJdkType("java/lang/NullPointerException");
+        final TypeDefinition arrayIndexOutOfBoundsException = Types.lookupJdkType("java/lang/ArrayIndexOutOfBoundsException");
+        final TypeDefinition arrayStoreException = Types.lookupJdkType("java/lang/ArrayStoreException");
+        final TypeDefinition outOfMemoryError = Types.lookupJdkType("java/lang/OutOfMemoryError");
+        final TypeDefinition linkageError = Types.lookupJdkType("java/lang/LinkageError");
+        final TypeDefinition error = Types.lookupJdkType("java/lang/Error");
+    }
 }
@@ -133,10 +133,18 @@ public final class Reports {
         };
     }
 
+    /**
+     * @param warning warning to get the key for
+     * @return key which identifies the same warning in different versions of
+     *         the analyzed code
+     */
+    public static List<Object> warningKey(Warning warning) {
+        return Arrays.asList(warning.getType().getName(), warning.getAnnotation(Roles.TYPE), warning
+                .getAnnotation(Roles.METHOD), warning.getAnnotation(Roles.FIELD), warning.getAnnotation(Roles.VARIABLE));
+    }
+
     private static List<Warning> diffWarnings(List<Warning> oldWarnings, List<Warning> newWarnings) {
-        Function<Warning, List<Object>> keyExtractor = w ->
-            Arrays.asList(w.getType().getName(), w.getAnnotation(Roles.TYPE), w.getAnnotation(Roles.METHOD),
-                w.getAnnotation(Roles.FIELD), w.getAnnotation(Roles.VARIABLE));
+        Function<Warning, List<Object>> keyExtractor = Reports::warningKey;
         Map<List<Object>, List<Warning>> oldWarningsMap = oldWarnings.stream().collect(Collectors.groupingBy(keyExtractor));
         List<Warning> result = new ArrayList<>();
         for(Warning warn : newWarnings) {
@@ -15,9 +15,12 @@
  */
 package one.util.huntbugs.registry;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
 import java.util.function.Function;
 
 import com.strobel.assembler.metadata.TypeDefinition;
@@ -39,6 +42,122 @@ public abstract class AbstractTypeDatabase<E> {
         // Default implementation is empty, should be subclasses
     }
     
+    /**
+     * Shardable databases can be populated in parallel: several instances of
+     * the database class (shards) are created via default constructor, each
+     * shard visits its own subset of types in separate thread, then shards are
+     * merged into this database via {@link #merge(AbstractTypeDatabase)}.
+     * Non-shardable databases visit all the types sequentially.
+     * 
+     * @return true if this database supports sharding
+     */
+    protected boolean isShardable() {
+        return false;
+    }
+    
+    /**
+     * Merges the data collected by the shard into this database. Shards are
+     * merged one by one in the deterministic order from the single thread, so
+     * implementation need not to be thread-safe. The shard is discarded after
+     * merging, thus its elements can be reused.
+     * 
+     * @param shard the shard to merge (instance of the same class as this
+     *        database)
+     */
+    protected void merge(AbstractTypeDatabase<E> shard) {
+        throw new UnsupportedOperationException(getClass().getName() + " is not shardable");
+    }
+    
+    /**
+     * Merges all the shard elements into this database
+     * 
+     * @param shard the shard to merge
+     * @param merger function which merges existing element with shard element
+     *        and returns the merged element
+     */
+    protected void mergeElements(AbstractTypeDatabase<E> shard, BinaryOperator<E> merger) {
+        shard.map.forEach((name, e) -> map.merge(name, e, merger));
+    }
+    
+    /**
+     * Serializable databases can be saved to the snapshot via
+     * {@link #write(DatabaseOutput)} and restored via
+     * {@link #read(DatabaseInput)}. Only shardable databases can be
+     * serializable: the snapshot is read into the shard which is merged then.
+     * 
+     * @return true if this database supports serialization
+     */
+    protected boolean isSerializable() {
+        return false;
+    }
+    
+    /**
+     * Writes the contents of this database
+     * 
+     * @param out output to write to
+     * @throws IOException if output throws
+     */
+    protected void write(DatabaseOutput out) throws IOException {
+        throw new UnsupportedOperationException(getClass().getName() + " is not serializable");
+    }
+    
+    /**
+     * Reads the contents previously written by {@link #write(DatabaseOutput)}
+     * into this (empty) database
+     * 
+     * @param in input to read from
+     * @throws IOException if input throws or the data is malformed
+     */
+    protected void read(DatabaseInput in) throws IOException {
+        throw new UnsupportedOperationException(getClass().getName() + " is not serializable");
+    }
+    
+    @FunctionalInterface
+    protected interface ElementWriter<E> {
+        void write(DatabaseOutput out, E element) throws IOException;
+    }
+    
+    @FunctionalInterface
+    protected interface ElementReader<E> {
+        void read(DatabaseInput in, E element) throws IOException;
+    }
+    
+    /**
+     * Writes all the elements of this database
+     * 
+     * @param out output to write to
+     * @param writer writer for the element contents (name is written automatically)
+     * @throws IOException if output throws
+     */
+    protected void writeElements(DatabaseOutput out, ElementWriter<? super E> writer) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, E> entry : map.entrySet()) {
+            out.writeString(entry.getKey());
+            writer.write(out, entry.getValue());
+        }
+    }
+    
+    /**
+     * Reads the elements written by {@link #writeElements(DatabaseOutput, ElementWriter)}
+     * 
+     * @param in input to read from
+     * @param reader reader which fills the element created via element supplier
+     * @throws IOException if input throws or the data is malformed
+     */
+    protected void readElements(DatabaseInput in, ElementReader<? super E> reader) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String name = in.readString();
+            if (name == null)
+                throw new IOException("Type name expected");
+            reader.read(in, getOrCreate(name));
+        }
+    }
+    
+    protected void forEachElement(BiConsumer<String, ? super E> consumer) {
+        map.forEach(consumer);
+    }
+    
     protected E getOrCreate(TypeReference ref) {
         return map.computeIfAbsent(ref.getInternalName(), fn);
     }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.registry;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the data written by {@link DatabaseOutput}
+ */
+public final class DatabaseInput {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    public DatabaseInput(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    public int readInt() throws IOException {
+        long value = readLong();
+        if ((int) value != value)
+            throw new IOException("Integer value expected: " + value);
+        return (int) value;
+    }
+
+    public long readLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return (v >>> 1) ^ -(v & 1);
+        }
+        throw new IOException("Malformed variable-length number");
+    }
+
+    /**
+     * @return the byte array written by {@link DatabaseOutput#writeBytes(byte[])}
+     * @throws IOException if underlying stream throws or the data is malformed
+     */
+    public byte[] readBytes() throws IOException {
+        int length = readInt();
+        if (length < 0)
+            throw new IOException("Invalid length: " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the string read (possibly null)
+     * @throws IOException if underlying stream throws or the data is malformed
+     */
+    public String readString() throws IOException {
+        int id = readInt();
+        if (id == 0)
+            return null;
+        if (id == 1) {
+            String str = in.readUTF();
+            strings.add(str);
+            return str;
+        }
+        if (id < 0 || id - 2 >= strings.size())
+            throw new IOException("Invalid string reference: " + id);
+        return strings.get(id - 2);
+    }
+}
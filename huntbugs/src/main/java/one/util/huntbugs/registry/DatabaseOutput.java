@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.registry;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary output for the database contents (see
+ * {@link AbstractTypeDatabase#write(DatabaseOutput)}). Numbers are written as
+ * variable-length integers, strings are written once and then referred by
+ * their index in the string table.
+ */
+public final class DatabaseOutput {
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    public DatabaseOutput(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    public void writeInt(int value) throws IOException {
+        writeLong(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        // zig-zag encoding, so small negative numbers are compact as well
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    /**
+     * @param str string to write, may be null
+     * @throws IOException if underlying stream throws
+     */
+    public void writeString(String str) throws IOException {
+        if (str == null) {
+            writeInt(0);
+            return;
+        }
+        Integer id = strings.get(str);
+        if (id != null) {
+            writeInt(id + 2);
+            return;
+        }
+        strings.put(str, strings.size());
+        writeInt(1);
+        out.writeUTF(str);
+    }
+
+    /**
+     * Writes the length-prefixed byte array
+     * 
+     * @param bytes bytes to write
+     * @throws IOException if underlying stream throws
+     */
+    public void writeBytes(byte[] bytes) throws IOException {
+        writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -15,8 +15,12 @@
  */
 package one.util.huntbugs.registry;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Function;
 
 import com.strobel.assembler.metadata.TypeDefinition;
@@ -50,6 +54,21 @@ public class DatabaseRegistry {
         }
     }
 
+    /**
+     * Thread-confined set of database shards (see
+     * {@link AbstractTypeDatabase#isShardable()})
+     */
+    public static class Shards {
+        // database -> shard
+        final Map<AbstractTypeDatabase<?>, AbstractTypeDatabase<?>> shards = new LinkedHashMap<>();
+
+        void visitType(TypeDefinition td) {
+            for (AbstractTypeDatabase<?> shard : shards.values()) {
+                shard.visitType(td);
+            }
+        }
+    }
+
     public DatabaseRegistry(Context ctx) {
         super();
         this.ctx = ctx;
@@ -60,12 +79,104 @@ public class DatabaseRegistry {
     }
     
     void visitType(TypeDefinition td) {
+        visitType(td, false);
+    }
+
+    void visitType(TypeDefinition td, boolean nonShardableOnly) {
         for(DatabaseInfo<?> dbi : instances.values()) {
             Object db = dbi.db;
             if(db instanceof AbstractTypeDatabase) {
-                ((AbstractTypeDatabase<?>) db).visitType(td);
+                AbstractTypeDatabase<?> atd = (AbstractTypeDatabase<?>) db;
+                if(!nonShardableOnly || !atd.isShardable())
+                    atd.visitType(td);
+            }
+        }
+    }
+
+    Shards createShards() {
+        Shards shards = new Shards();
+        for(DatabaseInfo<?> dbi : instances.values()) {
+            Object db = dbi.db;
+            if(db instanceof AbstractTypeDatabase && ((AbstractTypeDatabase<?>) db).isShardable()) {
+                try {
+                    shards.shards.put((AbstractTypeDatabase<?>) db, (AbstractTypeDatabase<?>) db.getClass().newInstance());
+                } catch (InstantiationException | IllegalAccessException e) {
+                    throw new IllegalStateException("Unable to instantiate database shard " + db.getClass(), e);
+                }
             }
         }
+        return shards;
+    }
+
+    void mergeShards(Shards shards) {
+        shards.shards.forEach(DatabaseRegistry::merge);
+    }
+
+    /**
+     * @return true if all the databases are shardable and serializable, thus
+     *         can be saved via {@link #writeShards(Shards, DatabaseOutput)}
+     */
+    boolean isSerializable() {
+        for (DatabaseInfo<?> dbi : instances.values()) {
+            Object db = dbi.db;
+            if (db == null)
+                continue;
+            if (!(db instanceof AbstractTypeDatabase))
+                return false;
+            AbstractTypeDatabase<?> atd = (AbstractTypeDatabase<?>) db;
+            if (!atd.isShardable() || !atd.isSerializable())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return sorted names of the database classes
+     */
+    Set<String> getDatabaseNames() {
+        Set<String> names = new TreeSet<>();
+        for (DatabaseInfo<?> dbi : instances.values()) {
+            if (dbi.db != null)
+                names.add(dbi.db.getClass().getName());
+        }
+        return names;
+    }
+
+    void writeShards(Shards shards, DatabaseOutput out) throws IOException {
+        out.writeInt(shards.shards.size());
+        for (AbstractTypeDatabase<?> shard : shards.shards.values()) {
+            out.writeString(shard.getClass().getName());
+            shard.write(out);
+        }
+    }
+
+    /**
+     * Reads the shards written by {@link #writeShards(Shards, DatabaseOutput)}
+     * 
+     * @param shards freshly created shards to read into
+     * @param in input to read from
+     * @throws IOException if input throws or the data is malformed
+     */
+    void readShards(Shards shards, DatabaseInput in) throws IOException {
+        Map<String, AbstractTypeDatabase<?>> byName = new HashMap<>();
+        for (AbstractTypeDatabase<?> shard : shards.shards.values()) {
+            byName.put(shard.getClass().getName(), shard);
+        }
+        int count = in.readInt();
+        if (count != byName.size())
+            throw new IOException("Database count mismatch: expected " + byName.size() + ", found " + count);
+        for (int i = 0; i < count; i++) {
+            String name = in.readString();
+            AbstractTypeDatabase<?> shard = byName.remove(name);
+            if (shard == null)
+                throw new IOException("Unexpected database: " + name);
+            shard.read(in);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> void merge(AbstractTypeDatabase<E> db, AbstractTypeDatabase<?> shard) {
+        db.merge((AbstractTypeDatabase<E>) shard);
     }
 
     private <T> DatabaseInfo<T> getDatabaseInfo(Class<T> clazz) {
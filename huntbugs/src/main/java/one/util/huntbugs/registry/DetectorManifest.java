@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.registry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import one.util.huntbugs.repo.Repository;
+import one.util.huntbugs.repo.RepositoryVisitor;
+
+/**
+ * List of the classes of the built-in detectors package generated during the
+ * build (see {@link #main(String[])}), so the package should not be scanned at
+ * runtime. It lists the same classes the scanning visits, so the registry
+ * behaves the same either way. The manifest is used only if it's packaged to
+ * the same jar as HuntBugs classes: the classes directory may contain the
+ * stale manifest if the classes are recompiled by IDE. 3-rd party detectors
+ * are always found by scanning.
+ */
+public final class DetectorManifest {
+    static final String RESOURCE = "huntbugs/detectors.list";
+
+    private DetectorManifest() {
+    }
+
+    /**
+     * @return names of the classes of the built-in detectors package or null
+     *         if the manifest is not packaged with HuntBugs classes
+     */
+    static List<String> read() {
+        URL url = DetectorManifest.class.getClassLoader().getResource(RESOURCE);
+        URL self = DetectorManifest.class.getResource(DetectorManifest.class.getSimpleName() + ".class");
+        if (url == null || self == null || !url.getProtocol().equals("jar") || !getJar(url).equals(getJar(self)))
+            return null;
+        return read(url);
+    }
+
+    private static String getJar(URL url) {
+        String str = url.toString();
+        int pos = str.indexOf("!/");
+        return pos < 0 ? str : str.substring(0, pos);
+    }
+
+    /**
+     * @param url location of the manifest
+     * @return class names listed in the manifest
+     */
+    static List<String> read(URL url) {
+        List<String> names = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#"))
+                    names.add(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return names;
+    }
+
+    /**
+     * @return names of the classes found by scanning the built-in detectors
+     *         package
+     */
+    static List<String> scan() {
+        List<String> names = new ArrayList<>();
+        String pkg = DetectorRegistry.DETECTORS_PACKAGE.replace('.', '/');
+        Repository.createSelfRepository().visit(pkg, new RepositoryVisitor() {
+            @Override
+            public boolean visitPackage(String packageName) {
+                return packageName.equals(pkg);
+            }
+
+            @Override
+            public void visitClass(String className) {
+                names.add(className.replace('/', '.'));
+            }
+        });
+        names.sort(null);
+        return names;
+    }
+
+    /**
+     * Writes the manifest
+     *
+     * @param args output directory of the compiled classes
+     * @throws IOException if the manifest cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: DetectorManifest <classes directory>");
+            System.exit(1);
+        }
+        Path target = Paths.get(args[0]).resolve(RESOURCE);
+        Files.createDirectories(target.getParent());
+        List<String> lines = new ArrayList<>();
+        lines.add("# Classes of HuntBugs built-in detectors package");
+        lines.addAll(scan());
+        Files.write(target, lines, StandardCharsets.UTF_8);
+    }
+}
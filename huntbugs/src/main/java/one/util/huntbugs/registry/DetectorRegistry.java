@@ -43,10 +43,12 @@ import one.util.huntbugs.repo.RepositoryVisitor;
 import one.util.huntbugs.spi.HuntBugsPlugin;
 import one.util.huntbugs.util.NodeChain;
 import one.util.huntbugs.util.Nodes;
+import one.util.huntbugs.util.TimeBudget;
 import one.util.huntbugs.warning.Messages.Message;
 import one.util.huntbugs.warning.Role.NumberRole;
 import one.util.huntbugs.warning.WarningType;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -60,6 +62,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -70,11 +73,16 @@ import java.util.stream.Stream;
  */
 public class DetectorRegistry {
     private static final WarningType METHOD_TOO_LARGE = new WarningType("System", "MethodTooLarge", 30);
+    private static final WarningType METHOD_TOO_SLOW = new WarningType("System", "MethodTooSlow", 30);
+    private static final WarningType CLASS_TOO_SLOW = new WarningType("System", "ClassTooSlow", 30);
     private static final NumberRole BYTECODE_SIZE = NumberRole.forName("BYTECODE_SIZE");
     private static final NumberRole LIMIT = NumberRole.forName("LIMIT");
 
     static final String DETECTORS_PACKAGE = "one.util.huntbugs.detect";
 
+    // Detector classes found by scanning the detector packages: the scan is done once per JVM
+    private static volatile List<DetectorClass> detectorClasses;
+
     private final Map<WarningType, Detector> typeToDetector = new HashMap<>();
     private final List<Detector> detectors = new ArrayList<>();
     private final Context ctx;
@@ -91,7 +99,8 @@ public class DetectorRegistry {
         this.ctx = ctx;
         this.databases = new DatabaseRegistry(ctx);
         ctx.incStat("WarningTypes.Total");
-        Map<String, WarningType> systemWarnings = createWarningMap(Stream.of(METHOD_TOO_LARGE));
+        Map<String, WarningType> systemWarnings = createWarningMap(Stream.of(METHOD_TOO_LARGE, METHOD_TOO_SLOW,
+            CLASS_TOO_SLOW));
         try {
             this.systemDetector = createDetector(SystemDetector.class, systemWarnings);
         } catch (IllegalAccessException e) {
@@ -145,19 +154,45 @@ public class DetectorRegistry {
     }
 
     void init() {
+        List<DetectorClass> classes = detectorClasses;
+        if (classes == null) {
+            classes = scanDetectorClasses();
+            detectorClasses = classes;
+        }
+        for (DetectorClass detectorClass : classes) {
+            ctx.incStat("Detectors.Total");
+            if (detectorClass.clazz == null) {
+                ctx.addError(new ErrorMessage(detectorClass.name, null, null, null, -1, detectorClass.error));
+            } else if (addDetector(detectorClass.clazz)) {
+                ctx.incStat("Detectors");
+                if (detectorClass.external) {
+                    ctx.incStat("Detectors from HuntBugs plugins");
+                }
+            }
+        }
+    }
+
+    private static List<DetectorClass> scanDetectorClasses() {
+        List<DetectorClass> classes = new ArrayList<>();
 
-        // adding HuntBugs built-in detectors
-        Repository selfRepo = Repository.createSelfRepository();
-        String pkg = DETECTORS_PACKAGE.replace('.', '/');
-        selfRepo.visit(pkg, new DetectorVisitor(pkg, false));
+        // adding HuntBugs built-in detectors: the manifest generated during the build avoids the scanning
+        List<String> builtIn = DetectorManifest.read();
+        if (builtIn != null) {
+            builtIn.forEach(name -> classes.add(loadDetectorClass(name, false)));
+        } else {
+            Repository selfRepo = Repository.createSelfRepository();
+            String pkg = DETECTORS_PACKAGE.replace('.', '/');
+            selfRepo.visit(pkg, new DetectorVisitor(pkg, false, classes));
+        }
 
         // adding HuntBugs 3-rd party detectors if any
         for (HuntBugsPlugin huntBugsPlugin : ServiceLoader.load(HuntBugsPlugin.class)) {
             Repository pluginRepository = Repository.createPluginRepository(huntBugsPlugin);
             String pluginDetectorPackage = huntBugsPlugin.detectorPackage().replace('.', '/');
-            pluginRepository.visit(pluginDetectorPackage, new DetectorVisitor(pluginDetectorPackage, true));
+            pluginRepository.visit(pluginDetectorPackage, new DetectorVisitor(pluginDetectorPackage, true, classes));
         }
 
+        return Collections.unmodifiableList(classes);
     }
 
     private void visitChildren(Node node, NodeChain parents, List<MethodContext> list, MethodData mdata) {
@@ -195,10 +230,78 @@ public class DetectorRegistry {
         }
     }
 
+    /**
+     * @return new set of database shards to populate in the separate thread
+     */
+    public DatabaseRegistry.Shards createDatabaseShards() {
+        return databases.createShards();
+    }
+
+    /**
+     * Populates the shards with given type and its nested types. Shardable
+     * databases are not updated until {@link #mergeDatabases(DatabaseRegistry.Shards, List)} is called.
+     */
+    public void populateDatabases(TypeDefinition type, DatabaseRegistry.Shards shards) {
+        shards.visitType(type);
+        for (TypeDefinition subType : type.getDeclaredTypes()) {
+            populateDatabases(subType, shards);
+        }
+    }
+
+    /**
+     * Merges the shards populated by {@link #populateDatabases(TypeDefinition, DatabaseRegistry.Shards)}
+     * and populates non-shardable databases with the same types.
+     * 
+     * @param shards shards to merge
+     * @param types types which were used to populate the shards (in visiting order)
+     */
+    public void mergeDatabases(DatabaseRegistry.Shards shards, List<TypeDefinition> types) {
+        databases.mergeShards(shards);
+        for (TypeDefinition type : types) {
+            populateNonShardableDatabases(type);
+        }
+    }
+
+    /**
+     * @return true if database shards can be saved via
+     *         {@link #writeDatabaseShards(DatabaseRegistry.Shards, DatabaseOutput)}
+     */
+    public boolean isDatabaseSnapshotSupported() {
+        return databases.isSerializable();
+    }
+
+    /**
+     * @return sorted names of the used database classes
+     */
+    public Set<String> getDatabaseNames() {
+        return databases.getDatabaseNames();
+    }
+
+    public void writeDatabaseShards(DatabaseRegistry.Shards shards, DatabaseOutput out) throws IOException {
+        databases.writeShards(shards, out);
+    }
+
+    /**
+     * Reads the shards previously written by
+     * {@link #writeDatabaseShards(DatabaseRegistry.Shards, DatabaseOutput)}.
+     * The shards can be merged then via {@link #mergeDatabases(DatabaseRegistry.Shards, List)}.
+     */
+    public void readDatabaseShards(DatabaseRegistry.Shards shards, DatabaseInput in) throws IOException {
+        databases.readShards(shards, in);
+    }
+
+    private void populateNonShardableDatabases(TypeDefinition type) {
+        databases.visitType(type, true);
+        for (TypeDefinition subType : type.getDeclaredTypes()) {
+            populateNonShardableDatabases(subType);
+        }
+    }
+
     public void analyzeClass(TypeDefinition type) {
         ctx.incStat("TotalClasses");
         
         ClassData cdata = new ClassData(type);
+        long classDeadline = deadline(System.nanoTime(), ctx.getOptions().maxClassTime);
         ClassFields cf = new ClassFields(type, fieldStatsDb.apply(type), methodStatsDb.apply(type));
         
         List<MethodDefinition> declMethods = new ArrayList<>(type.getDeclaredMethods());
@@ -211,6 +314,7 @@ public class DetectorRegistry {
         ClassContext[] ccs = detectors.stream().map(d -> new ClassContext(ctx, cdata, d)).filter(
             ClassContext::visitClass).toArray(ClassContext[]::new);
         
+        boolean classTooSlow = false;
         for (MethodDefinition md : declMethods) {
             if(!md.isSpecialName()) {
                 cf.clearCtorData();
@@ -232,22 +336,37 @@ public class DetectorRegistry {
                         mc.finalizeMethod();
                     }
                 } else if (!mcs.get(true).isEmpty()) {
-                    final DecompilerContext context = new DecompilerContext();
-
-                    context.setCurrentMethod(md);
-                    context.setCurrentType(type);
-                    Block methodAst = new Block();
-                    try {
-                        methodAst.getBody().addAll(AstBuilder.build(body, true, context));
-                        AstOptimizer.optimize(context, methodAst, AstOptimizationStep.None);
-                        mdata.cfg = CFG.build(md, methodAst);
-                        mdata.origParams = ValuesFlow.annotate(ctx, md, cf, mdata.cfg);
-                        mdata.fullyAnalyzed = true;
-                    } catch (Throwable t) {
-                        ctx.addError(new ErrorMessage(null, type.getFullName(), md.getFullName(), md.getSignature(),
-                                -1, t));
+                    MethodAst ast = buildMethodAst(type, md, classDeadline);
+                    mdata.cfg = ast.cfg;
+                    Throwable error = ast.error;
+                    if (error == null) {
+                        long start = startStep(ast, classDeadline);
+                        try {
+                            mdata.origParams = ValuesFlow.annotate(ctx, md, cf, ast.cfg);
+                            mdata.fullyAnalyzed = true;
+                        } catch (Throwable t) {
+                            error = t;
+                        } finally {
+                            stopStep(ast, start);
+                        }
+                    }
+                    if (error instanceof TimeBudget.ExceededException && ast.classLimit) {
+                        // the rest of the class is not analyzed, so the single warning is reported for the class
+                        classTooSlow = true;
+                    } else if (error instanceof TimeBudget.ExceededException) {
+                        if (systemDetector != null) {
+                            MethodContext mc = new ClassContext(ctx, cdata, systemDetector).forMethod(mdata);
+                            // the actual time is not reported, so the report does not depend on the timings
+                            mc.report(METHOD_TOO_SLOW.getName(), 0, LIMIT.create(ctx.getOptions().maxMethodTime));
+                            mc.finalizeMethod();
+                        }
+                    } else {
+                        if (error != null) {
+                            ctx.addError(new ErrorMessage(null, type.getFullName(), md.getFullName(), md
+                                    .getSignature(), -1, error));
+                        }
+                        visitChildren(ast.methodAst, null, mcs.get(true), mdata);
                     }
-                    visitChildren(methodAst, null, mcs.get(true), mdata);
                 }
             } else {
                 mdata.fullyAnalyzed = true;
@@ -259,15 +378,25 @@ public class DetectorRegistry {
             for (MethodContext mc : mcs.get(false)) {
                 mc.finalizeMethod();
             }
+            if (classTooSlow)
+                break;
         }
-        for(FieldData fdata : fields) {
+        if (classTooSlow) {
+            // class-level visitors would see the incomplete data
+            if (systemDetector != null) {
+                new ClassContext(ctx, cdata, systemDetector).report(CLASS_TOO_SLOW.getName(), 0, LIMIT.create(ctx
+                        .getOptions().maxClassTime));
+            }
+        } else {
+            for(FieldData fdata : fields) {
+                for(ClassContext cc : ccs) {
+                    cc.forField(fdata).visitField();
+                }
+            }
             for(ClassContext cc : ccs) {
-                cc.forField(fdata).visitField();
+                cc.visitAfterClass();
             }
         }
-        for(ClassContext cc : ccs) {
-            cc.visitAfterClass();
-        }
         cdata.finish(ctx);
 
         for (TypeDefinition subType : type.getDeclaredTypes()) {
@@ -275,6 +404,63 @@ public class DetectorRegistry {
         }
     }
 
+    /**
+     * @param start start time in terms of {@link System#nanoTime()}
+     * @param limit time limit in milliseconds, 0 or negative if unlimited
+     * @return deadline in terms of {@link System#nanoTime()} or
+     *         {@link Long#MAX_VALUE} if unlimited
+     */
+    private static long deadline(long start, long limit) {
+        return limit > 0 ? start + TimeUnit.MILLISECONDS.toNanos(limit) : Long.MAX_VALUE;
+    }
+
+    private MethodAst buildMethodAst(TypeDefinition type, MethodDefinition md, long classDeadline) {
+        final DecompilerContext context = new DecompilerContext();
+
+        context.setCurrentMethod(md);
+        context.setCurrentType(type);
+        MethodAst ast = new MethodAst();
+        long start = startStep(ast, classDeadline);
+        try {
+            TimeBudget.check();
+            ast.methodAst.getBody().addAll(AstBuilder.build(md.getBody(), true, context));
+            TimeBudget.check();
+            AstOptimizer.optimize(context, ast.methodAst, AstOptimizationStep.None);
+            TimeBudget.check();
+            ast.cfg = CFG.build(md, ast.methodAst);
+        } catch (Throwable t) {
+            ast.error = t;
+        } finally {
+            stopStep(ast, start);
+        }
+        return ast;
+    }
+
+    /**
+     * Starts the time budget for the next step of the method analysis. The
+     * time spent between the steps is not counted.
+     * 
+     * @param classDeadline deadline of the class analysis
+     * @return {@link System#nanoTime()} when the step is started
+     */
+    private long startStep(MethodAst ast, long classDeadline) {
+        long start = System.nanoTime();
+        long maxMethodTime = ctx.getOptions().maxMethodTime;
+        long deadline = maxMethodTime > 0 ? start + TimeUnit.MILLISECONDS.toNanos(maxMethodTime) - ast.elapsed
+            : Long.MAX_VALUE;
+        ast.classLimit = classDeadline < deadline;
+        if (ast.classLimit) {
+            deadline = classDeadline;
+        }
+        TimeBudget.start(deadline);
+        return start;
+    }
+
+    private static void stopStep(MethodAst ast, long start) {
+        TimeBudget.stop();
+        ast.elapsed += System.nanoTime() - start;
+    }
+
     private void sortMethods(List<MethodDefinition> declMethods) {
         declMethods.sort(Comparator.comparingInt(md ->
                 md.isTypeInitializer() ? 0 :
@@ -394,15 +580,41 @@ public class DetectorRegistry {
         return typeToDetector.keySet().stream();
     }
 
-    private class DetectorVisitor implements RepositoryVisitor {
+    private static class DetectorClass {
+        final String name;
+        final boolean external;
+        // null if class cannot be loaded
+        final Class<?> clazz;
+        final ClassNotFoundException error;
+
+        DetectorClass(String name, boolean external, Class<?> clazz, ClassNotFoundException error) {
+            this.name = name;
+            this.external = external;
+            this.clazz = clazz;
+            this.error = error;
+        }
+    }
+
+    private static DetectorClass loadDetectorClass(String name, boolean external) {
+        try {
+            return new DetectorClass(name, external, MetadataSystem.class.getClassLoader().loadClass(name), null);
+        } catch (ClassNotFoundException e) {
+            return new DetectorClass(name, external, null, e);
+        }
+    }
+
+    private static class DetectorVisitor implements RepositoryVisitor {
 
         private String packageToVisit;
 
         private boolean external;
 
-        DetectorVisitor(String packageToVisit, boolean external) {
+        private List<DetectorClass> classes;
+
+        DetectorVisitor(String packageToVisit, boolean external, List<DetectorClass> classes) {
             this.packageToVisit = packageToVisit;
             this.external = external;
+            this.classes = classes;
         }
 
         @Override
@@ -412,18 +624,17 @@ public class DetectorRegistry {
 
         @Override
         public void visitClass(String className) {
-            String name = className.replace('/', '.');
-            try {
-                ctx.incStat("Detectors.Total");
-                if (addDetector(MetadataSystem.class.getClassLoader().loadClass(name))) {
-                    ctx.incStat("Detectors");
-                    if (external) {
-                        ctx.incStat("Detectors from HuntBugs plugins");
-                    }
-                }
-            } catch (ClassNotFoundException e) {
-                ctx.addError(new ErrorMessage(name, null, null, null, -1, e));
-            }
+            classes.add(loadDetectorClass(className.replace('/', '.'), external));
         }
     }
+
+    private static class MethodAst {
+        final Block methodAst = new Block();
+        CFG cfg;
+        Throwable error;
+        // nanoseconds spent in the analysis steps of the method
+        long elapsed;
+        // true if the deadline of the last step is the deadline of the whole class
+        boolean classLimit;
+    }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.repo;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.CompositeTypeLoader;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Repository for the application archive which contains nested archives:
+ * Spring Boot executable jar (BOOT-INF/classes, BOOT-INF/lib), web
+ * application (WEB-INF/classes, WEB-INF/lib) or enterprise application (jar
+ * and war modules, lib directory). Nothing is extracted to the disk: the
+ * application classes are visited, while the nested libraries are available
+ * via auxiliary type loader. Stored nested archives share the content with
+ * the outer archive, compressed ones are inflated to the heap when the first
+ * class is looked up (the modules of the enterprise application are opened
+ * when they are first used).
+ */
+public class ArchiveRepository implements Repository {
+    private static final String BOOT_CLASSES = "BOOT-INF/classes/";
+    private static final String BOOT_LIB = "BOOT-INF/lib/";
+    private static final String WEB_CLASSES = "WEB-INF/classes/";
+    private static final String WEB_LIB = "WEB-INF/lib/";
+    // Spring Boot executable war
+    private static final String WEB_LIB_PROVIDED = "WEB-INF/lib-provided/";
+    private static final String EAR_LIB = "lib/";
+    private static final String EAR_DESCRIPTOR = "META-INF/application.xml";
+
+    private final List<Repository> modules = new ArrayList<>();
+    private final List<ITypeLoader> libs = new ArrayList<>();
+
+    /**
+     * @param zip application archive
+     */
+    public ArchiveRepository(MappedZip zip) {
+        if (hasDirectory(zip, BOOT_CLASSES) || hasDirectory(zip, BOOT_LIB)) {
+            modules.add(new MappedJarRepository(zip, BOOT_CLASSES));
+            addLibs(zip, BOOT_LIB);
+        } else if (isWebArchive(zip)) {
+            modules.add(new MappedJarRepository(zip, WEB_CLASSES));
+            addLibs(zip, WEB_LIB);
+            addLibs(zip, WEB_LIB_PROVIDED);
+        } else if (isEnterpriseArchive(zip)) {
+            List<String> names = zip.getNames();
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i);
+                if (name.indexOf('/') >= 0)
+                    continue;
+                if (name.endsWith(".jar"))
+                    modules.add(new NestedRepository(zip, i, false));
+                else if (name.endsWith(".war"))
+                    modules.add(new NestedRepository(zip, i, true));
+            }
+            addLibs(zip, EAR_LIB);
+        } else {
+            modules.add(new MappedJarRepository(zip));
+        }
+    }
+
+    /**
+     * @param zip archive
+     * @return true if the archive contains nested archives, so it should be
+     *         analyzed via {@link ArchiveRepository} rather than
+     *         {@link MappedJarRepository}
+     */
+    public static boolean isArchive(MappedZip zip) {
+        return hasDirectory(zip, BOOT_CLASSES) || hasDirectory(zip, BOOT_LIB) || isWebArchive(zip)
+            || isEnterpriseArchive(zip);
+    }
+
+    private static boolean isWebArchive(MappedZip zip) {
+        // WEB-INF alone (e.g. with the descriptor only) has no classes to analyze
+        return hasDirectory(zip, WEB_CLASSES) || hasDirectory(zip, WEB_LIB);
+    }
+
+    private static boolean isEnterpriseArchive(MappedZip zip) {
+        return zip.find(EAR_DESCRIPTOR) >= 0
+            || zip.getNames().stream().anyMatch(name -> name.indexOf('/') < 0 && name.endsWith(".war"));
+    }
+
+    private static boolean hasDirectory(MappedZip zip, String dir) {
+        return zip.getNames().stream().anyMatch(name -> name.startsWith(dir));
+    }
+
+    private void addLibs(MappedZip zip, String dir) {
+        List<String> names = zip.getNames();
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            if (name.startsWith(dir) && name.endsWith(".jar") && name.indexOf('/', dir.length()) < 0)
+                libs.add(new NestedJarTypeLoader(zip, i));
+        }
+    }
+
+    @Override
+    public ITypeLoader createTypeLoader() {
+        List<ITypeLoader> loaders = new ArrayList<>();
+        for (Repository module : modules)
+            loaders.add(module.createTypeLoader());
+        loaders.addAll(libs);
+        return new CompositeTypeLoader(loaders.toArray(new ITypeLoader[0]));
+    }
+
+    @Override
+    public ITypeLoader createAuxTypeLoader() {
+        List<ITypeLoader> loaders = new ArrayList<>(libs);
+        for (Repository module : modules) {
+            ITypeLoader loader = module.createAuxTypeLoader();
+            if (loader != null)
+                loaders.add(loader);
+        }
+        return loaders.isEmpty() ? null : loaders.size() == 1 ? loaders.get(0) : new CompositeTypeLoader(loaders
+                .toArray(new ITypeLoader[0]));
+    }
+
+    @Override
+    public void visit(String rootPackage, RepositoryVisitor visitor) {
+        for (Repository module : modules)
+            module.visit(rootPackage, visitor);
+    }
+
+    /**
+     * Module of the enterprise application: opens the nested jar or war when
+     * it's first used. Thread-safe.
+     */
+    private static class NestedRepository implements Repository {
+        private final MappedZip zip;
+        private final int index;
+        private final boolean war;
+        private volatile Repository repository;
+
+        NestedRepository(MappedZip zip, int index, boolean war) {
+            this.zip = zip;
+            this.index = index;
+            this.war = war;
+        }
+
+        private Repository get() {
+            Repository repository = this.repository;
+            if (repository == null) {
+                synchronized (this) {
+                    repository = this.repository;
+                    if (repository == null) {
+                        MappedZip nested;
+                        try {
+                            nested = zip.getNested(index);
+                        } catch (ZipException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        repository = war ? new ArchiveRepository(nested) : new MappedJarRepository(nested);
+                        this.repository = repository;
+                    }
+                }
+            }
+            return repository;
+        }
+
+        @Override
+        public ITypeLoader createTypeLoader() {
+            return get().createTypeLoader();
+        }
+
+        @Override
+        public ITypeLoader createAuxTypeLoader() {
+            return get().createAuxTypeLoader();
+        }
+
+        @Override
+        public void visit(String rootPackage, RepositoryVisitor visitor) {
+            get().visit(rootPackage, visitor);
+        }
+    }
+
+    /**
+     * Opens the nested jar when the first class is looked up. Thread-safe.
+     */
+    private static class NestedJarTypeLoader implements ITypeLoader {
+        private final MappedZip zip;
+        private final int index;
+        private volatile ITypeLoader loader;
+
+        NestedJarTypeLoader(MappedZip zip, int index) {
+            this.zip = zip;
+            this.index = index;
+        }
+
+        @Override
+        public boolean tryLoadType(String internalName, Buffer buffer) {
+            ITypeLoader loader = this.loader;
+            if (loader == null) {
+                synchronized (this) {
+                    loader = this.loader;
+                    if (loader == null) {
+                        try {
+                            loader = new MappedJarTypeLoader(zip.getNested(index));
+                        } catch (ZipException e) {
+                            // not a jar actually: no classes
+                            loader = (name, buf) -> false;
+                        }
+                        this.loader = loader;
+                    }
+                }
+            }
+            return loader.tryLoadType(internalName, buffer);
+        }
+    }
+}
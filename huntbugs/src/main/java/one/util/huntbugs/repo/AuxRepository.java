@@ -15,6 +15,11 @@
  */
 package one.util.huntbugs.repo;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import com.strobel.assembler.metadata.ITypeLoader;
 
 /**
@@ -25,9 +30,19 @@ import com.strobel.assembler.metadata.ITypeLoader;
  */
 public class AuxRepository implements Repository {
     private final ITypeLoader loader;
+    private final List<Path> jars;
 
     public AuxRepository(ITypeLoader loader) {
+        this(loader, Collections.emptyList());
+    }
+
+    /**
+     * @param loader loader for the auxiliary classes
+     * @param jars jar files the loader reads from (in the loading order)
+     */
+    public AuxRepository(ITypeLoader loader, List<Path> jars) {
         this.loader = loader;
+        this.jars = Collections.unmodifiableList(new ArrayList<>(jars));
     }
 
     @Override
@@ -35,6 +50,16 @@ public class AuxRepository implements Repository {
         return loader;
     }
 
+    @Override
+    public ITypeLoader createAuxTypeLoader() {
+        return loader;
+    }
+
+    @Override
+    public List<Path> getAuxJars() {
+        return jars;
+    }
+
     @Override
     public void visit(String rootPackage, RepositoryVisitor visitor) {
     }
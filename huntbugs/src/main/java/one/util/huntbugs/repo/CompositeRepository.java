@@ -15,8 +15,11 @@
  */
 package one.util.huntbugs.repo;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
+import java.util.stream.Collectors;
+
 import com.strobel.assembler.metadata.CompositeTypeLoader;
 import com.strobel.assembler.metadata.ITypeLoader;
 
@@ -36,6 +39,18 @@ public class CompositeRepository implements Repository {
         return new CompositeTypeLoader(repos.stream().map(Repository::createTypeLoader).toArray(ITypeLoader[]::new));
     }
 
+    @Override
+    public ITypeLoader createAuxTypeLoader() {
+        ITypeLoader[] loaders = repos.stream().map(Repository::createAuxTypeLoader).filter(Objects::nonNull)
+                .toArray(ITypeLoader[]::new);
+        return loaders.length == 0 ? null : loaders.length == 1 ? loaders[0] : new CompositeTypeLoader(loaders);
+    }
+
+    @Override
+    public List<Path> getAuxJars() {
+        return repos.stream().flatMap(repo -> repo.getAuxJars().stream()).collect(Collectors.toList());
+    }
+
     @Override
     public void visit(String rootPackage, RepositoryVisitor visitor) {
         for(Repository repo : repos)
@@ -17,21 +17,52 @@ package one.util.huntbugs.repo;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import com.strobel.assembler.metadata.ClasspathTypeLoader;
+import com.strobel.assembler.metadata.Buffer;
 import com.strobel.assembler.metadata.ITypeLoader;
 
 /**
+ * Repository of the classfiles in the directory tree. The tree is walked in
+ * parallel: every package directory is listed by the separate task, which
+ * helps a lot on the network file systems. The walk builds the index of all
+ * the classfiles which is used by the type loader of this repository to avoid
+ * probing the file system again.
+ * 
  * @author Tagir Valeev
  *
  */
 public class DirRepository implements Repository {
+    // directory listing is I/O bound, so more threads than processors may help
+    private static final int PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    // shared by all the repositories; created on the first visit, worker threads are daemons
+    private static class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM);
+    }
+
     private final Path root;
+    // internal class name -> classfile, collected by the visits; null if not visited yet
+    // never modified after publication: visits replace it with the new map
+    private volatile Map<String, Path> index;
+    // true if the index covers the whole tree, so classes not in the index do not exist
+    private volatile boolean complete;
 
     public DirRepository(Path root) {
         this.root = root;
@@ -39,48 +70,131 @@ public class DirRepository implements Repository {
 
     @Override
     public ITypeLoader createTypeLoader() {
-        return new ClasspathTypeLoader(root.toString());
+        return this::loadType;
     }
 
+    private boolean loadType(String internalName, Buffer buffer) {
+        Map<String, Path> idx = index;
+        Path path = idx == null ? null : idx.get(internalName);
+        if (path == null) {
+            if (idx != null && complete)
+                return false;
+            path = root.resolve(internalName + ".class");
+            if (!Files.isRegularFile(path))
+                return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Classfile is too large: " + path);
+            buffer.reset((int) size);
+            ByteBuffer target = ByteBuffer.wrap(buffer.array(), 0, (int) size);
+            while (target.hasRemaining()) {
+                if (channel.read(target) < 0)
+                    throw new IOException("Unexpected end of file: " + path);
+            }
+            buffer.position(0);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Walks the package tree in parallel. {@link RepositoryVisitor#visitPackage(String)} may be called from
+     * different threads, but never concurrently. Classes are visited by the calling thread in the order of their
+     * names after the walk is finished.
+     */
     @Override
     public void visit(String rootPackage, RepositoryVisitor visitor) {
         Path path = root.resolve(rootPackage);
         if(!Files.isDirectory(path))
             return;
-        try {
-            Files.walkFileTree(path, new FileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    String pkg = root.relativize(dir).toString().replace('\\', '/');
-                    if(visitor.visitPackage(pkg))
-                        return FileVisitResult.CONTINUE;
-                    return FileVisitResult.SKIP_SUBTREE;
-                }
+        Walk walk = new Walk(visitor);
+        if (!walk.visitPackage(rootPackage))
+            return;
+        PoolHolder.POOL.invoke(new DirTask(walk, path));
+        publish(walk, rootPackage.isEmpty() && !walk.partial);
+        walk.classes.keySet().stream().filter(name -> !name.contains("$")).sorted().forEach(visitor::visitClass);
+    }
 
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    if(file.getFileName().toString().endsWith(".class")) {
-                        String baseName = root.relativize(file).toString();
-                        if(!baseName.contains("$")) {
-                            baseName = baseName.substring(0, baseName.length() - ".class".length()).replace('\\', '/');
-                            visitor.visitClass(baseName);
-                        }
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
+    private synchronized void publish(Walk walk, boolean wholeTree) {
+        if (wholeTree) {
+            index = walk.classes;
+            complete = true;
+        } else {
+            Map<String, Path> idx = index;
+            if (idx == null) {
+                index = walk.classes;
+            } else {
+                Map<String, Path> merged = new HashMap<>(idx);
+                merged.putAll(walk.classes);
+                index = merged;
+            }
+        }
+    }
 
-                @Override
-                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-                    return FileVisitResult.CONTINUE;
-                }
+    private String getName(Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+
+    private static class Walk {
+        final RepositoryVisitor visitor;
+        final Map<String, Path> classes = new ConcurrentHashMap<>();
+        // true if some packages were skipped or could not be read
+        volatile boolean partial;
+
+        Walk(RepositoryVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        synchronized boolean visitPackage(String pkg) {
+            if (visitor.visitPackage(pkg))
+                return true;
+            partial = true;
+            return false;
+        }
+    }
 
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                    return FileVisitResult.CONTINUE;
+    private class DirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Walk walk;
+        private final Path dir;
+
+        DirTask(Walk walk, Path dir) {
+            this.walk = walk;
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirTask> subTasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path file : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (NoSuchFileException e) {
+                        // removed during the walk
+                        continue;
+                    }
+                    // symbolic links to classfiles are accepted, but links to directories are not followed
+                    if ((attrs.isRegularFile() || attrs.isSymbolicLink())
+                        && file.getFileName().toString().endsWith(".class")) {
+                        String name = getName(file);
+                        walk.classes.put(name.substring(0, name.length() - ".class".length()), file);
+                    } else if (attrs.isDirectory()) {
+                        if (walk.visitPackage(getName(file)))
+                            subTasks.add(new DirTask(walk, file));
+                    }
                 }
-            });
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            } catch (IOException | DirectoryIteratorException e) {
+                walk.partial = true;
+            }
+            invokeAll(subTasks);
         }
     }
 }
@@ -15,6 +15,8 @@
  */
 package one.util.huntbugs.repo;
 
+import java.nio.file.Path;
+import java.util.List;
 import java.util.function.Predicate;
 
 import com.strobel.assembler.metadata.ITypeLoader;
@@ -43,6 +45,16 @@ public class FilteredRepository implements Repository {
         return repository.createTypeLoader();
     }
 
+    @Override
+    public ITypeLoader createAuxTypeLoader() {
+        return repository.createAuxTypeLoader();
+    }
+
+    @Override
+    public List<Path> getAuxJars() {
+        return repository.getAuxJars();
+    }
+
     @Override
     public void visit(String rootPackage, RepositoryVisitor visitor) {
         repository.visit(rootPackage, new RepositoryVisitor() {
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.repo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.CompositeTypeLoader;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Type loader for the JDK classes: reads either the runtime image of the
+ * modular JDK (9+) via jrt:/ filesystem, the jmod files of the JDK or the
+ * boot classpath jars of JDK 8. The package to module (or jar) index is built
+ * once, so the lookups of the types outside of the JDK packages need no I/O;
+ * missing types of the JDK packages are remembered as well.
+ *
+ * The classes can also be enumerated (see {@link #visitClasses(Consumer)}),
+ * e.g. to build {@link one.util.huntbugs.util.JdkIndex}. The loaders created
+ * via {@link #createBootLoader(Path)} are shared by all the analyses of the
+ * same JDK, so jrt:/ filesystem is created and the JDK is indexed only once.
+ *
+ * Thread-safe.
+ */
+public class JdkTypeLoader implements ITypeLoader {
+    private static final String JMOD_CLASSES = "classes/";
+    // normalized JDK path (empty for the current runtime) -> loader
+    private static final Map<String, JdkTypeLoader> BOOT_LOADERS = new HashMap<>();
+
+    // package internal name -> loader of its module
+    private final Map<String, ITypeLoader> packages;
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+    private final List<Path> files;
+    private final String fingerprint;
+    private final ClassLister lister;
+
+    private interface ClassLister {
+        void list(Consumer<String> visitor) throws IOException;
+    }
+
+    private JdkTypeLoader(Map<String, ITypeLoader> packages, List<Path> files, ClassLister lister)
+            throws IOException {
+        this.packages = packages;
+        this.files = files;
+        this.fingerprint = fingerprint(files);
+        this.lister = lister;
+    }
+
+    /**
+     * @param jdk home or jmods directory of the target JDK; null to use the
+     *        current runtime
+     * @return loader of the JDK classes, the same for the same JDK unless its
+     *         files were changed since the previous call
+     * @throws IOException if the JDK cannot be read
+     */
+    public static JdkTypeLoader createBootLoader(Path jdk) throws IOException {
+        String key = jdk == null ? "" : jdk.toAbsolutePath().normalize().toString();
+        synchronized (BOOT_LOADERS) {
+            JdkTypeLoader loader = BOOT_LOADERS.get(key);
+            if (loader == null || !loader.fingerprint.equals(fingerprint(loader.files))) {
+                loader = openBootLoader(jdk);
+                BOOT_LOADERS.put(key, loader);
+            }
+            return loader;
+        }
+    }
+
+    private static JdkTypeLoader openBootLoader(Path jdk) throws IOException {
+        if (jdk != null) {
+            if (Files.isDirectory(jdk.resolve("jmods")))
+                return openJmods(jdk.resolve("jmods"));
+            if (Files.isRegularFile(jdk.resolve("lib/modules")))
+                return openRuntime(jdk);
+            if (Files.isRegularFile(jdk.resolve("jre/lib/rt.jar")))
+                return openJars(Collections.singletonList(jdk.resolve("jre/lib/rt.jar")));
+            return openJmods(jdk);
+        }
+        String bootPath = System.getProperty("sun.boot.class.path");
+        if (bootPath != null) {
+            // directories on the boot classpath are not supported
+            List<Path> jars = new ArrayList<>();
+            for (String element : bootPath.split(File.pathSeparator)) {
+                Path path = Paths.get(element);
+                if (Files.isRegularFile(path))
+                    jars.add(path);
+            }
+            return openJars(jars);
+        }
+        return openRuntime(null);
+    }
+
+    /**
+     * @param javaHome home of the modular JDK; null to use the current runtime
+     * @return loader which reads the JDK runtime image via jrt:/ filesystem
+     * @throws IOException if jrt:/ filesystem is not available (e.g. the
+     *         current runtime is JDK 8)
+     */
+    public static JdkTypeLoader openRuntime(Path javaHome) throws IOException {
+        FileSystem fs;
+        try {
+            URI uri = URI.create("jrt:/");
+            fs = javaHome == null ? FileSystems.getFileSystem(uri) : FileSystems.newFileSystem(uri, Collections
+                    .singletonMap("java.home", javaHome.toString()));
+        } catch (FileSystemNotFoundException | ProviderNotFoundException e) {
+            throw new IOException("jrt:/ filesystem is not available", e);
+        }
+        Map<String, ITypeLoader> modules = new HashMap<>();
+        Map<String, ITypeLoader> packages = new HashMap<>();
+        // /packages/<package>/<module> links to /modules/<module>
+        try (DirectoryStream<Path> pkgs = Files.newDirectoryStream(fs.getPath("/packages"))) {
+            for (Path pkg : pkgs) {
+                try (DirectoryStream<Path> pkgModules = Files.newDirectoryStream(pkg)) {
+                    for (Path module : pkgModules) {
+                        String moduleName = getName(module);
+                        packages.putIfAbsent(getName(pkg).replace('.', '/'), modules.computeIfAbsent(moduleName,
+                            name -> new ModuleTypeLoader(fs.getPath("/modules", name))));
+                    }
+                }
+            }
+        }
+        Path home = javaHome == null ? Paths.get(System.getProperty("java.home")) : javaHome;
+        return new JdkTypeLoader(packages, Collections.singletonList(home.resolve("lib/modules")), visitor -> {
+            // /modules/<module>/<class path>.class
+            try (Stream<Path> paths = Files.walk(fs.getPath("/modules"))) {
+                paths.filter(path -> path.getNameCount() > 2 && path.toString().endsWith(".class")).forEach(
+                    path -> visit(path.subpath(2, path.getNameCount()).toString(), "", visitor));
+            }
+        });
+    }
+
+    /**
+     * @param dir directory containing the jmod files of the JDK
+     * @return loader which reads the memory-mapped jmod files
+     * @throws IOException if the directory contains no jmod files or they
+     *         cannot be read
+     */
+    public static JdkTypeLoader openJmods(Path dir) throws IOException {
+        List<Path> jmods = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.jmod")) {
+            stream.forEach(jmods::add);
+        }
+        if (jmods.isEmpty())
+            throw new IOException("No jmod files found in " + dir);
+        Collections.sort(jmods);
+        // jmod is the zip archive prefixed with the magic number
+        return openZips(jmods, JMOD_CLASSES);
+    }
+
+    /**
+     * @param jars boot classpath jars of JDK 8 in the lookup order
+     * @return loader which reads the memory-mapped jars
+     * @throws IOException if the jars cannot be read
+     */
+    public static JdkTypeLoader openJars(List<Path> jars) throws IOException {
+        return openZips(jars, "");
+    }
+
+    private static JdkTypeLoader openZips(List<Path> files, String prefix) throws IOException {
+        List<MappedZip> zips = new ArrayList<>();
+        Map<String, List<ITypeLoader>> loaders = new HashMap<>();
+        for (Path file : files) {
+            MappedZip zip = MappedZip.open(file);
+            zips.add(zip);
+            ITypeLoader loader = new MappedJarTypeLoader(zip, prefix);
+            for (String name : zip.getNames()) {
+                int pos = name.lastIndexOf('/');
+                if (name.startsWith(prefix) && name.endsWith(".class") && pos > prefix.length()) {
+                    List<ITypeLoader> pkgLoaders = loaders.computeIfAbsent(name.substring(prefix.length(), pos),
+                        k -> new ArrayList<>());
+                    if (!pkgLoaders.contains(loader))
+                        pkgLoaders.add(loader);
+                }
+            }
+        }
+        Map<String, ITypeLoader> packages = new HashMap<>();
+        // the package may be split between the boot classpath jars
+        loaders.forEach((pkg, list) -> packages.put(pkg, list.size() == 1 ? list.get(0) : new CompositeTypeLoader(
+                list.toArray(new ITypeLoader[0]))));
+        return new JdkTypeLoader(packages, files, visitor -> {
+            for (MappedZip zip : zips) {
+                zip.getNames().forEach(name -> visit(name, prefix, visitor));
+            }
+        });
+    }
+
+    private static void visit(String path, String prefix, Consumer<String> visitor) {
+        if (path.startsWith(prefix) && path.endsWith(".class") && path.indexOf('/', prefix.length()) > 0)
+            visitor.accept(path.substring(prefix.length(), path.length() - ".class".length()));
+    }
+
+    private static String fingerprint(List<Path> files) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Path file : files) {
+            if (sb.length() > 0)
+                sb.append(File.pathSeparatorChar);
+            sb.append(file.toAbsolutePath());
+            if (Files.isRegularFile(file))
+                sb.append('@').append(Files.size(file)).append('@').append(Files.getLastModifiedTime(file)
+                        .toMillis());
+        }
+        return sb.toString();
+    }
+
+    private static String getName(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /**
+     * @return number of the indexed JDK packages
+     */
+    public int getPackageCount() {
+        return packages.size();
+    }
+
+    /**
+     * @return string which changes if the JDK files this loader reads are
+     *         changed
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @param visitor consumer of the internal names of all the JDK classes
+     *        (there may be duplicates if the boot classpath jars overlap)
+     * @throws IOException if the JDK cannot be read
+     */
+    public void visitClasses(Consumer<String> visitor) throws IOException {
+        lister.list(visitor);
+    }
+
+    @Override
+    public boolean tryLoadType(String internalName, Buffer buffer) {
+        int pos = internalName.lastIndexOf('/');
+        ITypeLoader loader = pos < 0 ? null : packages.get(internalName.substring(0, pos));
+        if (loader == null || missing.contains(internalName))
+            return false;
+        if (loader.tryLoadType(internalName, buffer))
+            return true;
+        missing.add(internalName);
+        return false;
+    }
+
+    private static class ModuleTypeLoader implements ITypeLoader {
+        private final Path root;
+
+        ModuleTypeLoader(Path root) {
+            this.root = root;
+        }
+
+        @Override
+        public boolean tryLoadType(String internalName, Buffer buffer) {
+            try (SeekableByteChannel channel = Files.newByteChannel(root.resolve(internalName + ".class"))) {
+                int size = (int) channel.size();
+                buffer.reset(size);
+                ByteBuffer target = ByteBuffer.wrap(buffer.array(), 0, size);
+                while (target.hasRemaining() && channel.read(target) >= 0) {
+                    // read fully
+                }
+                buffer.position(0);
+                return true;
+            } catch (NoSuchFileException e) {
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
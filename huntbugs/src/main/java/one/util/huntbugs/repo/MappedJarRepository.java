@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.repo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Jar repository backed by {@link MappedZip}: the jar is not kept open and
+ * its index is shared by the repository and its type loaders.
+ */
+public class MappedJarRepository implements Repository {
+    private final MappedZip zip;
+    private final String root;
+
+    public MappedJarRepository(MappedZip zip) {
+        this(zip, "");
+    }
+
+    /**
+     * @param zip archive to read from
+     * @param root directory of the archive the classes are located in (like
+     *        "BOOT-INF/classes/") or empty string for the archive root
+     */
+    public MappedJarRepository(MappedZip zip, String root) {
+        this.zip = zip;
+        this.root = root;
+    }
+
+    @Override
+    public ITypeLoader createTypeLoader() {
+        return new MappedJarTypeLoader(zip, root);
+    }
+
+    @Override
+    public void visit(String rootPackage, RepositoryVisitor visitor) {
+        String prefix = root + (rootPackage.isEmpty() ? "" : rootPackage + "/");
+        // package -> whether it should be visited
+        Map<String, Boolean> packages = new HashMap<>();
+        for (String name : zip.getNames()) {
+            if (!name.startsWith(prefix) || !name.endsWith(".class"))
+                continue;
+            String className = name.substring(root.length(), name.length() - ".class".length());
+            if (className.contains("$"))
+                continue;
+            int pos = className.lastIndexOf('/');
+            String pkg = pos < 0 ? "" : className.substring(0, pos);
+            if (visitPackage(rootPackage, pkg, visitor, packages))
+                visitor.visitClass(className);
+        }
+    }
+
+    private static boolean visitPackage(String rootPackage, String pkg, RepositoryVisitor visitor,
+            Map<String, Boolean> packages) {
+        Boolean visit = packages.get(pkg);
+        if (visit == null) {
+            // parent packages are asked first
+            int pos = pkg.lastIndexOf('/');
+            visit = pkg.length() <= rootPackage.length()
+                || visitPackage(rootPackage, pos < 0 ? "" : pkg.substring(0, pos), visitor, packages);
+            if (visit)
+                visit = visitor.visitPackage(pkg);
+            packages.put(pkg, visit);
+        }
+        return visit;
+    }
+}
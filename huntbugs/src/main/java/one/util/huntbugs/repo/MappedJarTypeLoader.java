@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.repo;
+
+import java.io.UncheckedIOException;
+import java.util.zip.ZipException;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Type loader which reads the classfiles from {@link MappedZip}. Unlike
+ * Procyon JarTypeLoader it's thread-safe and reads the entries directly into
+ * the supplied buffer.
+ */
+public class MappedJarTypeLoader implements ITypeLoader {
+    private final MappedZip zip;
+    private final String prefix;
+
+    public MappedJarTypeLoader(MappedZip zip) {
+        this(zip, "");
+    }
+
+    /**
+     * @param zip archive to read from
+     * @param prefix directory of the archive the classes are located in (like
+     *        "WEB-INF/classes/") or empty string for the archive root
+     */
+    public MappedJarTypeLoader(MappedZip zip, String prefix) {
+        this.zip = zip;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public boolean tryLoadType(String internalName, Buffer buffer) {
+        int index = zip.find(prefix + internalName + ".class");
+        if (index < 0)
+            return false;
+        int size = zip.getSize(index);
+        buffer.reset(size);
+        try {
+            zip.read(index, buffer.array(), 0);
+        } catch (ZipException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.position(0);
+        return true;
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.repo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only zip archive backed by the memory-mapped file (or any other byte
+ * buffer). The central directory is parsed once into the sorted name index.
+ * Stored entries can be accessed without copying (see
+ * {@link #getStored(int)}), deflated entries are inflated by the pooled
+ * inflaters directly into the caller buffer. The inflaters are released by
+ * {@link #close()}.
+ *
+ * Thread-safe.
+ */
+public final class MappedZip implements Closeable {
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOC_SIG = 0x07064b50;
+    private static final int END_SIZE = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int CHUNK_SIZE = 65536;
+
+    private final ByteBuffer data;
+    // entry properties by index; entries are sorted by name
+    private final String[] names;
+    private final int[] methods;
+    private final int[] compressedSizes;
+    private final int[] sizes;
+    private final int[] offsets;
+    private final Queue<Inflation> inflations = new ConcurrentLinkedQueue<>();
+    // archives returned by getNested; closed together with this archive
+    private final Queue<MappedZip> nested = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    private static class Entry {
+        final String name;
+        final int method;
+        final int compressedSize;
+        final int size;
+        final int offset;
+
+        Entry(String name, int method, int compressedSize, int size, int offset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+
+    private static class Inflation {
+        final Inflater inflater = new Inflater(true);
+        final byte[] chunk = new byte[CHUNK_SIZE];
+    }
+
+    /**
+     * @param path zip file to map
+     * @return zip archive backed by the file mapping; the file is not kept
+     *         open
+     * @throws IOException if the file cannot be mapped (e.g. it's larger than
+     *         2Gb) or it's not a zip archive
+     */
+    public static MappedZip open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Too large to be mapped: " + path);
+            return new MappedZip(channel.map(MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * @param data zip archive content from the current position to the limit
+     * @throws ZipException if the data is not a zip archive
+     */
+    public MappedZip(ByteBuffer data) throws ZipException {
+        this.data = data.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEnd();
+        long count = getShort(end + 10);
+        long cenSize = getInt(end + 12);
+        long cenOffset = getInt(end + 16);
+        long endPos = end;
+        if (count == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+            int locator = end - 20;
+            if (locator >= 0 && this.data.getInt(locator) == ZIP64_LOC_SIG) {
+                int end64 = checkOffset(this.data.getLong(locator + 8), 56);
+                if (this.data.getInt(end64) != ZIP64_END_SIG)
+                    throw new ZipException("Invalid ZIP64 end record");
+                count = this.data.getLong(end64 + 32);
+                cenSize = this.data.getLong(end64 + 40);
+                cenOffset = this.data.getLong(end64 + 48);
+                endPos = end64;
+            }
+        }
+        // archive may be prepended with some data (like launch script)
+        long base = endPos - cenSize - cenOffset;
+        if (base < 0 || count > this.data.limit() / 46)
+            throw new ZipException("Invalid central directory");
+        List<Entry> entries = new ArrayList<>((int) count);
+        int pos = checkOffset(base + cenOffset, 0);
+        for (long i = 0; i < count; i++) {
+            checkOffset(pos, 46);
+            if (this.data.getInt(pos) != CEN_SIG)
+                throw new ZipException("Invalid central directory entry");
+            int method = getShort(pos + 10);
+            long compressedSize = getInt(pos + 20);
+            long size = getInt(pos + 24);
+            int nameLength = getShort(pos + 28);
+            int extraLength = getShort(pos + 30);
+            int commentLength = getShort(pos + 32);
+            long offset = getInt(pos + 42);
+            int namePos = checkOffset(pos + 46L, nameLength + extraLength);
+            String name = getString(namePos, nameLength);
+            if (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+                long[] values = { size, compressedSize, offset };
+                readZip64Extra(namePos + nameLength, extraLength, values);
+                size = values[0];
+                compressedSize = values[1];
+                offset = values[2];
+            }
+            pos = namePos + nameLength + extraLength + commentLength;
+            // directories and entries which cannot be read into an array are not indexed
+            if (name.endsWith("/") || size > Integer.MAX_VALUE - 8 || compressedSize > Integer.MAX_VALUE)
+                continue;
+            long localOffset = base + offset;
+            if (localOffset < 0 || localOffset > this.data.limit() - 30)
+                throw new ZipException("Invalid local header offset: " + name);
+            entries.add(new Entry(name, method, (int) compressedSize, (int) size, (int) localOffset));
+        }
+        // stable sort: the first of the duplicate entries wins
+        entries.sort(Comparator.comparing(e -> e.name));
+        List<Entry> unique = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (unique.isEmpty() || !unique.get(unique.size() - 1).name.equals(entry.name))
+                unique.add(entry);
+        }
+        int n = unique.size();
+        this.names = new String[n];
+        this.methods = new int[n];
+        this.compressedSizes = new int[n];
+        this.sizes = new int[n];
+        this.offsets = new int[n];
+        for (int i = 0; i < n; i++) {
+            Entry entry = unique.get(i);
+            names[i] = entry.name;
+            methods[i] = entry.method;
+            compressedSizes[i] = entry.compressedSize;
+            sizes[i] = entry.size;
+            offsets[i] = entry.offset;
+        }
+    }
+
+    private int findEnd() throws ZipException {
+        int limit = data.limit();
+        // the comment may be up to 65535 bytes long
+        int min = Math.max(0, limit - END_SIZE - 0xFFFF);
+        for (int pos = limit - END_SIZE; pos >= min; pos--) {
+            if (data.getInt(pos) == END_SIG && pos + END_SIZE + getShort(pos + 20) == limit)
+                return pos;
+        }
+        throw new ZipException("Not a zip archive");
+    }
+
+    private void readZip64Extra(int pos, int length, long[] values) throws ZipException {
+        int end = pos + length;
+        while (pos + 4 <= end) {
+            int id = getShort(pos);
+            int size = getShort(pos + 2);
+            pos += 4;
+            if (id == 0x0001) {
+                int valuePos = pos;
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] != 0xFFFFFFFFL)
+                        continue;
+                    if (valuePos + 8 > pos + size)
+                        throw new ZipException("Invalid ZIP64 extra field");
+                    values[i] = data.getLong(valuePos);
+                    valuePos += 8;
+                }
+                return;
+            }
+            pos += size;
+        }
+    }
+
+    private int checkOffset(long offset, int length) throws ZipException {
+        if (offset < 0 || offset + length > data.limit())
+            throw new ZipException("Invalid offset: " + offset);
+        return (int) offset;
+    }
+
+    private int getShort(int pos) {
+        return data.getShort(pos) & 0xFFFF;
+    }
+
+    private long getInt(int pos) {
+        return data.getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    private String getString(int pos, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer buf = data.duplicate();
+        ((Buffer) buf).position(pos);
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return sorted names of the file entries (directories are not included)
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * @param name entry name
+     * @return entry index or -1 if there's no such entry
+     */
+    public int find(String name) {
+        int index = Arrays.binarySearch(names, name);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @param index entry index
+     * @return uncompressed size of the entry
+     */
+    public int getSize(int index) {
+        return sizes[index];
+    }
+
+    private int getDataOffset(int index) throws ZipException {
+        int loc = offsets[index];
+        if (data.getInt(loc) != LOC_SIG)
+            throw new ZipException("Invalid local header: " + names[index]);
+        int pos = loc + 30 + getShort(loc + 26) + getShort(loc + 28);
+        return checkOffset(pos, compressedSizes[index]);
+    }
+
+    /**
+     * @param index entry index
+     * @return read-only buffer which shares the content with the archive or
+     *         null if the entry is compressed
+     * @throws ZipException if the archive is corrupted
+     */
+    public ByteBuffer getStored(int index) throws ZipException {
+        if (methods[index] != STORED)
+            return null;
+        if (compressedSizes[index] != sizes[index])
+            throw new ZipException("Invalid stored entry size: " + names[index]);
+        ByteBuffer buf = data.duplicate();
+        // cast to Buffer, so the code compiled by JDK 9+ does not call ByteBuffer methods missing in JDK 8
+        ((Buffer) buf).position(getDataOffset(index));
+        ((Buffer) buf).limit(buf.position() + sizes[index]);
+        return buf.slice();
+    }
+
+    /**
+     * @param index entry index
+     * @return archive stored in the entry: stored entry shares the content
+     *         with this archive, compressed entry is inflated to the heap
+     * @throws ZipException if this archive is corrupted or the entry is not
+     *         a zip archive
+     */
+    public MappedZip getNested(int index) throws ZipException {
+        ByteBuffer stored = getStored(index);
+        if (stored == null) {
+            byte[] content = new byte[sizes[index]];
+            read(index, content, 0);
+            stored = ByteBuffer.wrap(content);
+        }
+        MappedZip zip = new MappedZip(stored);
+        nested.add(zip);
+        if (closed)
+            zip.close();
+        return zip;
+    }
+
+    /**
+     * Reads the uncompressed entry content
+     *
+     * @param index entry index
+     * @param target array to read to; must have at least
+     *        {@link #getSize(int)} bytes after the offset
+     * @param offset offset in the target array
+     * @throws ZipException if the archive is corrupted or the compression
+     *         method is not supported
+     */
+    public void read(int index, byte[] target, int offset) throws ZipException {
+        ByteBuffer stored = getStored(index);
+        if (stored != null) {
+            stored.get(target, offset, sizes[index]);
+            return;
+        }
+        if (methods[index] != DEFLATED)
+            throw new ZipException("Unsupported compression method " + methods[index] + ": " + names[index]);
+        ByteBuffer src = data.duplicate();
+        int pos = getDataOffset(index);
+        int end = pos + compressedSizes[index];
+        int size = sizes[index];
+        Inflation inflation = inflations.poll();
+        if (inflation == null)
+            inflation = new Inflation();
+        Inflater inflater = inflation.inflater;
+        try {
+            int read = 0;
+            boolean padded = false;
+            while (read < size) {
+                if (inflater.needsInput()) {
+                    if (pos < end) {
+                        int length = Math.min(CHUNK_SIZE, end - pos);
+                        ((Buffer) src).position(pos);
+                        src.get(inflation.chunk, 0, length);
+                        pos += length;
+                        inflater.setInput(inflation.chunk, 0, length);
+                    } else if (!padded) {
+                        // nowrap mode may require an extra byte
+                        inflation.chunk[0] = 0;
+                        inflater.setInput(inflation.chunk, 0, 1);
+                        padded = true;
+                    } else {
+                        break;
+                    }
+                }
+                int n = inflater.inflate(target, offset + read, size - read);
+                read += n;
+                if (n == 0 && !inflater.needsInput())
+                    break;
+            }
+            if (read != size)
+                throw new ZipException("Invalid entry size: " + names[index]);
+        } catch (DataFormatException e) {
+            ZipException ex = new ZipException("Invalid compressed data: " + names[index]);
+            ex.initCause(e);
+            throw ex;
+        } finally {
+            inflater.reset();
+            inflations.offer(inflation);
+            // inflater returned after close() is released here
+            if (closed && inflations.remove(inflation))
+                inflater.end();
+        }
+    }
+
+    /**
+     * Releases the native resources of the pooled inflaters and closes the
+     * archives returned by {@link #getNested(int)}. The entries can still be
+     * read after that, but the inflaters are not pooled anymore.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Inflation inflation;
+        while ((inflation = inflations.poll()) != null) {
+            inflation.inflater.end();
+        }
+        MappedZip zip;
+        while ((zip = nested.poll()) != null) {
+            zip.close();
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.CodeSource;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
@@ -42,6 +43,25 @@ import static java.lang.String.format;
 public interface Repository {
     ITypeLoader createTypeLoader();
 
+    /**
+     * @return type loader for the classes which are never visited by this
+     *         repository (like project dependencies) or null if there are no
+     *         such classes. These classes do not change during the analysis,
+     *         so they may be cached for the whole run.
+     */
+    default ITypeLoader createAuxTypeLoader() {
+        return null;
+    }
+
+    /**
+     * @return jar files the auxiliary type loader reads from (see
+     *         {@link #createAuxTypeLoader()}). Used to reuse the database
+     *         contributions of the same jars between runs.
+     */
+    default List<Path> getAuxJars() {
+        return Collections.emptyList();
+    }
+
     void visit(String rootPackage, RepositoryVisitor visitor);
 
     static Repository createSelfRepository() {
@@ -0,0 +1,542 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.strobel.assembler.metadata.Buffer;
+
+import one.util.huntbugs.repo.JdkTypeLoader;
+
+/**
+ * Precomputed index of the JDK types: type hierarchy, access flags of types,
+ * methods and fields. The index is generated once from the classfiles of the
+ * JDK the analysis uses and memory-mapped afterwards: the queries read the
+ * mapped file directly, so the index occupies no heap. It allows answering
+ * {@link Types#isInstance(com.strobel.assembler.metadata.TypeReference, String)}
+ * and skipping the supertypes which cannot declare the method in
+ * {@link Methods#findSuperMethods(com.strobel.assembler.metadata.MethodReference)}
+ * without reading the JDK classfiles. Queries for the types which are not in
+ * the index return "unknown", so the caller must fall back to the real type
+ * loading.
+ *
+ * The index records the JDK files it was generated from and is regenerated if
+ * they change. The analysis makes its index available to {@link Types} and
+ * {@link Methods} via {@link #bind(JdkIndex)} in the threads it runs on.
+ */
+public final class JdkIndex {
+    private static final int MAGIC = 0x48424A49; // "HBJI"
+    private static final int VERSION = 2;
+
+    private static final ThreadLocal<JdkIndex> CURRENT = new ThreadLocal<>();
+
+    private final ByteBuffer buffer;
+    // position of the string offsets
+    private final int stringsPos;
+    // position of the type hash table: pairs of type name id and record offset
+    private final int tablePos;
+    private final int tableMask;
+
+    private JdkIndex(ByteBuffer buffer, int stringsPos, int tablePos, int tableSize) {
+        this.buffer = buffer;
+        this.stringsPos = stringsPos;
+        this.tablePos = tablePos;
+        this.tableMask = tableSize - 1;
+    }
+
+    /**
+     * @return the index bound to the current thread via
+     *         {@link #bind(JdkIndex)} or null
+     */
+    public static JdkIndex get() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes the index available to {@link Types} and {@link Methods} called
+     * from the current thread
+     *
+     * @param index index of the JDK types used by the current analysis; null
+     *        to unbind
+     * @return previously bound index to be restored via this method when the
+     *         analysis step is finished; null if none
+     */
+    public static JdkIndex bind(JdkIndex index) {
+        JdkIndex previous = CURRENT.get();
+        if (index == null)
+            CURRENT.remove();
+        else
+            CURRENT.set(index);
+        return previous;
+    }
+
+    /**
+     * Opens the index file generating it if it does not exist or was
+     * generated from another JDK
+     *
+     * @param file index file
+     * @param jdk loader of the JDK classes to index
+     * @return the index
+     * @throws IOException if index cannot be read or generated
+     */
+    public static JdkIndex open(Path file, JdkTypeLoader jdk) throws IOException {
+        String fingerprint = jdk.getFingerprint();
+        JdkIndex index = Files.isRegularFile(file) ? load(file, fingerprint) : null;
+        if (index == null) {
+            generate(file, jdk, fingerprint);
+            index = load(file, fingerprint);
+            if (index == null)
+                throw new IOException("Unable to load generated index " + file);
+        }
+        return index;
+    }
+
+    private static JdkIndex load(Path file, String fingerprint) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            if (!fingerprint.equals(new String(bytes, StandardCharsets.UTF_8)))
+                return null;
+            int stringCount = buffer.getInt();
+            int stringsPos = buffer.position();
+            // Buffer method: ByteBuffer.position(int) is missing in JDK 8
+            ((java.nio.Buffer) buffer).position(stringsPos + stringCount * 4);
+            int tableSize = buffer.getInt();
+            int tablePos = buffer.position();
+            if (stringCount < 0 || Integer.bitCount(tableSize) != 1 || tablePos + tableSize * 8L > buffer.limit())
+                throw new IOException("Corrupted JDK index " + file);
+            return new JdkIndex(buffer, stringsPos, tablePos, tableSize);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException or IllegalArgumentException: truncated index
+            throw new IOException("Corrupted JDK index " + file, e);
+        }
+    }
+
+    private static int hash(String str) {
+        int h = str.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private String getString(int id) {
+        int offset = buffer.getInt(stringsPos + id * 4);
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean stringEquals(int id, byte[] bytes) {
+        int offset = buffer.getInt(stringsPos + id * 4);
+        if (buffer.getInt(offset) != bytes.length)
+            return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + 4 + i) != bytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return offset of the type record or -1 if type is not indexed
+     */
+    private int find(String type) {
+        byte[] bytes = type.getBytes(StandardCharsets.UTF_8);
+        for (int slot = hash(type) & tableMask;; slot = (slot + 1) & tableMask) {
+            int pos = tablePos + slot * 8;
+            int id = buffer.getInt(pos);
+            if (id < 0)
+                return -1;
+            if (stringEquals(id, bytes))
+                return buffer.getInt(pos + 4);
+        }
+    }
+
+    /**
+     * @param type internal type name
+     * @return true if type is present in the index
+     */
+    public boolean contains(String type) {
+        return find(type) >= 0;
+    }
+
+    /**
+     * @param type internal type name
+     * @return access flags of the type or -1 if type is not indexed
+     */
+    public int getAccessFlags(String type) {
+        int offset = find(type);
+        return offset < 0 ? -1 : buffer.getShort(offset) & 0xFFFF;
+    }
+
+    /**
+     * @param type internal type name
+     * @return direct supertypes (superclass first, then interfaces) or null if
+     *         type is not indexed
+     */
+    public List<String> getSuperTypes(String type) {
+        int offset = find(type);
+        if (offset < 0)
+            return null;
+        int pos = offset + 2;
+        List<String> result = new ArrayList<>();
+        int superType = buffer.getInt(pos);
+        pos += 4;
+        if (superType >= 0)
+            result.add(getString(superType));
+        int count = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            result.add(getString(buffer.getInt(pos)));
+            pos += 4;
+        }
+        return result;
+    }
+
+    /**
+     * @param type internal type name
+     * @param wantedType internal name of the wanted type
+     * @return whether type is a subtype of wantedType or null if type is not
+     *         indexed
+     */
+    public Boolean isInstance(String type, String wantedType) {
+        List<String> superTypes = getSuperTypes(type);
+        if (superTypes == null)
+            return null;
+        if (type.equals(wantedType))
+            return true;
+        for (String superType : superTypes) {
+            Boolean result = isInstance(superType, wantedType);
+            if (result == null || result)
+                return result;
+        }
+        return false;
+    }
+
+    /**
+     * @param type internal type name
+     * @param name method name
+     * @param signature method signature; return type is ignored
+     * @return access flags of the method declared in the type or -1 if the
+     *         type is not indexed or does not declare such method
+     */
+    public int getMethodFlags(String type, String name, String signature) {
+        int offset = find(type);
+        if (offset < 0)
+            return -1;
+        byte[] key = (name + signature.substring(0, signature.indexOf(')'))).getBytes(StandardCharsets.UTF_8);
+        int pos = skipSuperTypes(offset);
+        int count = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            if (stringEquals(buffer.getInt(pos), key))
+                return buffer.getShort(pos + 4) & 0xFFFF;
+            pos += 6;
+        }
+        return -1;
+    }
+
+    /**
+     * @param type internal type name
+     * @param name field name
+     * @return access flags of the field declared in the type or -1 if the
+     *         type is not indexed or does not declare such field
+     */
+    public int getFieldFlags(String type, String name) {
+        int offset = find(type);
+        if (offset < 0)
+            return -1;
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int pos = skipSuperTypes(offset);
+        pos += 2 + (buffer.getShort(pos) & 0xFFFF) * 6;
+        int count = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            if (stringEquals(buffer.getInt(pos), key))
+                return buffer.getShort(pos + 4) & 0xFFFF;
+            pos += 6;
+        }
+        return -1;
+    }
+
+    /**
+     * @param type internal type name
+     * @param name method name
+     * @param signature method signature; return type is ignored
+     * @return false if neither type nor its supertypes declare such method;
+     *         true if any of them does or the type is not indexed
+     */
+    public boolean mayDeclareMethod(String type, String name, String signature) {
+        List<String> superTypes = getSuperTypes(type);
+        if (superTypes == null || getMethodFlags(type, name, signature) >= 0)
+            return true;
+        for (String superType : superTypes) {
+            if (mayDeclareMethod(superType, name, signature))
+                return true;
+        }
+        return false;
+    }
+
+    private int skipSuperTypes(int offset) {
+        int pos = offset + 2 + 4;
+        return pos + 2 + (buffer.getShort(pos) & 0xFFFF) * 4;
+    }
+
+    private static void generate(Path file, JdkTypeLoader jdk, String fingerprint) throws IOException {
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        // type name id -> record
+        Map<Integer, byte[]> records = new LinkedHashMap<>();
+        Buffer classData = new Buffer();
+        try {
+            jdk.visitClasses(className -> {
+                if (!jdk.tryLoadType(className, classData))
+                    return;
+                try (InputStream is = new ByteArrayInputStream(classData.array(), 0, classData.size())) {
+                    ClassInfo info = ClassInfo.read(is);
+                    int nameId = id(info.name, stringIds, strings);
+                    // first occurrence wins like in the type lookup
+                    if (!records.containsKey(nameId))
+                        records.put(nameId, info.toRecord(name -> id(name, stringIds, strings)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        byte[] fingerprintBytes = fingerprint.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> stringBytes = new ArrayList<>();
+        for (String str : strings) {
+            stringBytes.add(str.getBytes(StandardCharsets.UTF_8));
+        }
+        // open addressing table which is at most half full
+        int tableSize = Integer.highestOneBit(Math.max(records.size(), 1) * 2 - 1) * 2;
+        int[] table = new int[tableSize * 2];
+        Arrays.fill(table, -1);
+        long stringsStart = 4 + 4 + 4 + fingerprintBytes.length + 4 + strings.size() * 4L + 4 + tableSize * 8L;
+        long recordsStart = stringsStart;
+        for (byte[] bytes : stringBytes) {
+            recordsStart += 4 + bytes.length;
+        }
+        long offset = recordsStart;
+        for (Map.Entry<Integer, byte[]> e : records.entrySet()) {
+            int slot = hash(strings.get(e.getKey())) & (tableSize - 1);
+            while (table[slot * 2] >= 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot * 2] = e.getKey();
+            table[slot * 2 + 1] = (int) offset;
+            offset += e.getValue().length;
+        }
+        if (offset > Integer.MAX_VALUE)
+            throw new IOException("JDK index is too big");
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                DataOutputStream out = new DataOutputStream(os);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(fingerprintBytes.length);
+                out.write(fingerprintBytes);
+                out.writeInt(strings.size());
+                long stringOffset = stringsStart;
+                for (byte[] bytes : stringBytes) {
+                    out.writeInt((int) stringOffset);
+                    stringOffset += 4 + bytes.length;
+                }
+                out.writeInt(tableSize);
+                for (int value : table) {
+                    out.writeInt(value);
+                }
+                for (byte[] bytes : stringBytes) {
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                for (byte[] record : records.values()) {
+                    out.write(record);
+                }
+                out.flush();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static int id(String str, Map<String, Integer> ids, List<String> strings) {
+        return ids.computeIfAbsent(str, k -> {
+            strings.add(k);
+            return strings.size() - 1;
+        });
+    }
+
+    private interface StringIds {
+        int id(String str);
+    }
+
+    /**
+     * Classfile data necessary for the index; read without building the
+     * Procyon type definition
+     */
+    private static class ClassInfo {
+        String name;
+        int access;
+        String superName;
+        final List<String> interfaces = new ArrayList<>();
+        final List<String> methodKeys = new ArrayList<>();
+        final List<Integer> methodFlags = new ArrayList<>();
+        final List<String> fieldNames = new ArrayList<>();
+        final List<Integer> fieldFlags = new ArrayList<>();
+
+        static ClassInfo read(InputStream is) throws IOException {
+            DataInputStream in = new DataInputStream(is);
+            if (in.readInt() != 0xCAFEBABE)
+                throw new IOException("Not a classfile");
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            int poolSize = in.readUnsignedShort();
+            String[] utf8 = new String[poolSize];
+            int[] classNames = new int[poolSize];
+            for (int i = 1; i < poolSize; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classNames[i] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.readUnsignedShort();
+                    break;
+                case 15: // MethodHandle
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.readInt();
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.readLong();
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag: " + tag);
+                }
+            }
+            ClassInfo info = new ClassInfo();
+            info.access = in.readUnsignedShort();
+            info.name = utf8[classNames[in.readUnsignedShort()]];
+            int superIdx = in.readUnsignedShort();
+            info.superName = superIdx == 0 ? null : utf8[classNames[superIdx]];
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                info.interfaces.add(utf8[classNames[in.readUnsignedShort()]]);
+            }
+            count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                info.fieldFlags.add(in.readUnsignedShort());
+                info.fieldNames.add(utf8[in.readUnsignedShort()]);
+                in.readUnsignedShort();
+                skipAttributes(in);
+            }
+            count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                info.methodFlags.add(in.readUnsignedShort());
+                String name = utf8[in.readUnsignedShort()];
+                String descriptor = utf8[in.readUnsignedShort()];
+                info.methodKeys.add(name + descriptor.substring(0, descriptor.indexOf(')')));
+                skipAttributes(in);
+            }
+            if (info.name == null)
+                throw new IOException("Invalid classfile");
+            return info;
+        }
+
+        private static void skipAttributes(DataInputStream in) throws IOException {
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                in.readUnsignedShort();
+                int length = in.readInt();
+                if (in.skipBytes(length) != length)
+                    throw new IOException("Unexpected end of classfile");
+            }
+        }
+
+        byte[] toRecord(StringIds ids) throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeShort(access);
+            out.writeInt(superName == null ? -1 : ids.id(superName));
+            out.writeShort(interfaces.size());
+            for (String iface : interfaces) {
+                out.writeInt(ids.id(iface));
+            }
+            out.writeShort(methodKeys.size());
+            for (int i = 0; i < methodKeys.size(); i++) {
+                out.writeInt(ids.id(methodKeys.get(i)));
+                out.writeShort(methodFlags.get(i));
+            }
+            out.writeShort(fieldNames.size());
+            for (int i = 0; i < fieldNames.size(); i++) {
+                out.writeInt(ids.id(fieldNames.get(i)));
+                out.writeShort(fieldFlags.get(i));
+            }
+            return bos.toByteArray();
+        }
+    }
+}
@@ -86,7 +86,7 @@ public class Methods {
     
     private static void collectSuperMethods(TypeDefinition type, MemberInfo mi, Set<MethodDefinition> list) {
         TypeReference superType = type.getBaseType();
-        if(superType != null) {
+        if(superType != null && mayDeclare(superType, mi)) {
             TypeDefinition superTd = superType.resolve();
             if(superTd != null) {
                 MethodDefinition result = findMethod(superTd, mi);
@@ -97,7 +97,7 @@ public class Methods {
             }
         }
         for(TypeReference iface : type.getExplicitInterfaces()) {
-            TypeDefinition ifaceTd = iface.resolve();
+            TypeDefinition ifaceTd = mayDeclare(iface, mi) ? iface.resolve() : null;
             if(ifaceTd != null) {
                 MethodDefinition result = findMethod(ifaceTd, mi);
                 if(result != null)
@@ -138,9 +138,18 @@ public class Methods {
         return md;
     }
     
+    /**
+     * @return false if JDK index says that neither type nor its supertypes
+     *         declare given method, so they don't need to be loaded
+     */
+    private static boolean mayDeclare(TypeReference type, MemberInfo mi) {
+        JdkIndex index = JdkIndex.get();
+        return index == null || index.mayDeclareMethod(type.getInternalName(), mi.getName(), mi.getSignature());
+    }
+    
     public static MethodDefinition findSuperMethod(TypeDefinition type, MemberInfo mi) {
         TypeReference superType = type.getBaseType();
-        if(superType != null) {
+        if(superType != null && mayDeclare(superType, mi)) {
             TypeDefinition superTd = superType.resolve();
             if(superTd != null) {
                 MethodDefinition result = findMethod(superTd, mi);
@@ -152,7 +161,7 @@ public class Methods {
             }
         }
         for(TypeReference iface : type.getExplicitInterfaces()) {
-            TypeDefinition ifaceTd = iface.resolve();
+            TypeDefinition ifaceTd = mayDeclare(iface, mi) ? iface.resolve() : null;
             if(ifaceTd != null) {
                 MethodDefinition result = findMethod(ifaceTd, mi);
                 if(result != null)
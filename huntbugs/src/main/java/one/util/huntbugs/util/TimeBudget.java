@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.util;
+
+/**
+ * Wall-clock time budget of the current thread. Long-running analysis steps
+ * call {@link #check()} periodically, so the analysis of pathological method
+ * can be cancelled cooperatively.
+ */
+public final class TimeBudget {
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private TimeBudget() {
+    }
+
+    /**
+     * Thrown by {@link #check()} when the budget is exhausted
+     */
+    public static class ExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ExceededException() {
+            super("Time budget exceeded", null, false, false);
+        }
+    }
+
+    /**
+     * Sets the deadline for the current thread
+     * 
+     * @param deadlineNanos deadline in terms of {@link System#nanoTime()} or
+     *        {@link Long#MAX_VALUE} if the time is not limited
+     */
+    public static void start(long deadlineNanos) {
+        if (deadlineNanos == Long.MAX_VALUE)
+            DEADLINE.remove();
+        else
+            DEADLINE.set(deadlineNanos);
+    }
+
+    /**
+     * Removes the deadline of the current thread
+     */
+    public static void stop() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * @throws ExceededException if the deadline of the current thread has passed
+     */
+    public static void check() {
+        Long deadline = DEADLINE.get();
+        if (deadline != null && System.nanoTime() - deadline > 0)
+            throw new ExceededException();
+    }
+}
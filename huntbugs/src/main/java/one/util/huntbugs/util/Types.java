@@ -15,15 +15,24 @@
  */
 package one.util.huntbugs.util;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import com.strobel.assembler.ir.attributes.SourceAttribute;
 import com.strobel.assembler.ir.attributes.SourceFileAttribute;
+import one.util.huntbugs.repo.JdkTypeLoader;
+
 import com.strobel.assembler.metadata.BuiltinTypes;
 import com.strobel.assembler.metadata.MetadataSystem;
 import com.strobel.assembler.metadata.TypeDefinition;
@@ -48,20 +57,108 @@ public class Types {
         "java/util/Vector", "java/util/Date", "java/sql/Date", "java/sql/Timestamp", "java/awt/Point",
         "java/awt/Dimension", "java/awt/Rectangle"));
     
-    private static MetadataSystem ms = MetadataSystem.instance();
+    /**
+     * JDK types which are used by many detectors. May be preloaded via
+     * {@link #preloadJdkTypes(Collection)} before the analysis starts.
+     */
+    public static final List<String> COMMON_JDK_TYPES = Collections.unmodifiableList(Arrays.asList(
+        "java/lang/Object", "java/lang/String", "java/lang/Throwable", "java/lang/Exception",
+        "java/lang/RuntimeException", "java/lang/Error", "java/lang/Iterable", "java/lang/Comparable",
+        "java/lang/Number", "java/util/Collection", "java/util/List", "java/util/Set", "java/util/Map",
+        "java/util/stream/Stream"));
+
+    private static final ThreadLocal<JdkTypeLoader> CURRENT_JDK = new ThreadLocal<>();
+    // types of CURRENT_JDK, so the lookups do not touch jdkTypes
+    private static final ThreadLocal<JdkTypes> CURRENT_TYPES = new ThreadLocal<>();
+    // JDK loaders are shared by the analyses of the same JDK; the replaced loaders are collected with their types
+    private static final Map<JdkTypeLoader, JdkTypes> jdkTypes = new WeakHashMap<>();
+    private static volatile JdkTypes runtimeTypes;
+
+    /**
+     * @param internalName internal name of the JDK type
+     * @return the type read from the JDK bound to the current thread via
+     *         {@link #bindJdk(JdkTypeLoader)} or from the current runtime if
+     *         none
+     */
+    public static TypeDefinition lookupJdkType(String internalName) {
+        JdkTypes types = CURRENT_TYPES.get();
+        return (types == null ? getRuntimeTypes() : types).lookup(internalName);
+    }
+
+    /**
+     * @param key class of the value, used as the cache key
+     * @param factory creates the value from the types returned by
+     *        {@link #lookupJdkType(String)}
+     * @return the value computed once per JDK, so the callers do not look up
+     *         the same JDK types again and again
+     */
+    public static <T> T getJdkValue(Class<T> key, Supplier<T> factory) {
+        JdkTypes types = CURRENT_TYPES.get();
+        return (types == null ? getRuntimeTypes() : types).getValue(key, factory);
+    }
 
-    public static synchronized TypeDefinition lookupJdkType(String internalName) {
-        TypeReference tr = ms.lookupType(internalName);
-        if (tr == null) {
-            throw new InternalError("Unable to lookup type " + internalName);
+    /**
+     * Makes {@link #lookupJdkType(String)} called from the current thread read
+     * the types from the given JDK
+     *
+     * @param jdk loader of the JDK used by the current analysis; null to
+     *        unbind
+     * @return previously bound loader to be restored via this method when the
+     *         analysis step is finished; null if none
+     */
+    public static JdkTypeLoader bindJdk(JdkTypeLoader jdk) {
+        JdkTypeLoader previous = CURRENT_JDK.get();
+        if (jdk == null) {
+            CURRENT_JDK.remove();
+            CURRENT_TYPES.remove();
+        } else {
+            CURRENT_JDK.set(jdk);
+            CURRENT_TYPES.set(getJdkTypes(jdk));
         }
-        TypeDefinition td = tr.resolve();
-        if (td == null) {
-            throw new InternalError("Unable to resolve type " + internalName);
+        return previous;
+    }
+
+    private static JdkTypes getRuntimeTypes() {
+        JdkTypes types = runtimeTypes;
+        if (types == null) {
+            synchronized (Types.class) {
+                types = runtimeTypes;
+                if (types == null) {
+                    try {
+                        types = getJdkTypes(JdkTypeLoader.createBootLoader(null));
+                    } catch (IOException e) {
+                        // Procyon reads the boot classpath of JDK 8 itself
+                        types = new JdkTypes(MetadataSystem.instance());
+                    }
+                    runtimeTypes = types;
+                }
+            }
         }
-        return td;
+        return types;
     }
 
+    private static JdkTypes getJdkTypes(JdkTypeLoader jdk) {
+        synchronized (jdkTypes) {
+            return jdkTypes.computeIfAbsent(jdk, loader -> {
+                // the value must not hold the key strongly, otherwise the entry is never removed
+                WeakReference<JdkTypeLoader> ref = new WeakReference<>(loader);
+                return new JdkTypes(new MetadataSystem((internalName, buffer) -> {
+                    JdkTypeLoader l = ref.get();
+                    return l != null && l.tryLoadType(internalName, buffer);
+                }));
+            });
+        }
+    }
+
+    /**
+     * Resolves given JDK types in advance, so subsequent
+     * {@link #lookupJdkType(String)} calls do not need to read them.
+     * 
+     * @param internalNames internal names of JDK types
+     */
+    public static void preloadJdkTypes(Collection<String> internalNames) {
+        internalNames.forEach(Types::lookupJdkType);
+    }
 
     public static List<TypeReference> getBaseTypes(TypeReference input) {
         List<TypeReference> result = new ArrayList<>();
@@ -94,6 +191,13 @@ public class Types {
                 return false;
             return isInstance(type.getElementType(), wantedType.substring(1));
         }
+        JdkIndex index = JdkIndex.get();
+        if (index != null) {
+            // answer for the JDK types without loading them
+            Boolean result = index.isInstance(type.getInternalName(), wantedType);
+            if (result != null)
+                return result;
+        }
         TypeDefinition td = type.resolve();
         if (td == null)
             return false;
@@ -247,4 +351,71 @@ public class Types {
         }
         return null;
     }
+
+    /**
+     * Types of the single JDK shared by all the threads. Procyon resolves the
+     * supertypes lazily, so the whole hierarchy of every returned type is
+     * resolved in advance under the lock. Later resolution of these
+     * supertypes from any thread only reads the metadata system cache.
+     */
+    private static class JdkTypes {
+        private final MetadataSystem ms;
+        // resolved types are read without locking; ms is accessed under its own lock only on cache miss
+        private final Map<String, TypeDefinition> types = new ConcurrentHashMap<>();
+        // values created from the types, see getJdkValue
+        private final Map<Class<?>, Object> values = new ConcurrentHashMap<>();
+
+        JdkTypes(MetadataSystem ms) {
+            this.ms = ms;
+        }
+
+        <T> T getValue(Class<T> key, Supplier<T> factory) {
+            Object value = values.get(key);
+            if (value == null) {
+                // factory is called outside of computeIfAbsent, as it may look up the types; duplicates are harmless
+                value = factory.get();
+                Object prev = values.putIfAbsent(key, value);
+                if (prev != null)
+                    value = prev;
+            }
+            return key.cast(value);
+        }
+
+        TypeDefinition lookup(String internalName) {
+            TypeDefinition td = types.get(internalName);
+            if (td != null)
+                return td;
+            // Procyon metadata system cannot read classes from several threads
+            synchronized (ms) {
+                td = types.get(internalName);
+                if (td != null)
+                    return td;
+                TypeReference tr = ms.lookupType(internalName);
+                if (tr == null) {
+                    throw new InternalError("Unable to lookup type " + internalName);
+                }
+                td = tr.resolve();
+                if (td == null) {
+                    throw new InternalError("Unable to resolve type " + internalName);
+                }
+                resolveHierarchy(td, new HashSet<>());
+                types.put(internalName, td);
+                return td;
+            }
+        }
+
+        private static void resolveHierarchy(TypeDefinition td, Set<String> visited) {
+            if (!visited.add(td.getInternalName()))
+                return;
+            List<TypeReference> supers = new ArrayList<>(td.getExplicitInterfaces());
+            if (td.getBaseType() != null)
+                supers.add(td.getBaseType());
+            for (TypeReference tr : supers) {
+                TypeDefinition superType = tr.resolve();
+                // incomplete hierarchy is handled by the callers
+                if (superType != null)
+                    resolveHierarchy(superType, visited);
+            }
+        }
+    }
 }
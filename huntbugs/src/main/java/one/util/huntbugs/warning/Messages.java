@@ -42,6 +42,9 @@ import org.xml.sax.SAXException;
 public class Messages {
     private static final String MESSAGES_XML = "huntbugs/messages.xml";
     
+    // Messages are immutable, so they are shared by all the analyses in the same JVM
+    private static volatile Messages loaded;
+
     private final Map<String, Message> map;
     
     public static class Message {
@@ -82,7 +85,18 @@ public class Messages {
         return message;
     }
     
+    /**
+     * @return messages of HuntBugs and its plugins; loaded once per JVM
+     */
     public static Messages load() {
+        Messages messages = loaded;
+        if (messages == null) {
+            messages = loaded = doLoad();
+        }
+        return messages;
+    }
+
+    private static Messages doLoad() {
         Map<String, Message> allMessages = new HashMap<>();
 
         try {
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import one.util.huntbugs.repo.ArchiveRepository;
+import one.util.huntbugs.repo.MappedZip;
+import one.util.huntbugs.repo.RepositoryVisitor;
+
+import org.junit.Test;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+public class ArchiveRepositoryTest {
+    @Test
+    public void testBootJar() throws IOException {
+        byte[] lib = zip(false, "lib/L.class", "class L");
+        // Spring Boot stores nested jars uncompressed
+        ArchiveRepository repo = open(zip(true, "org/springframework/boot/loader/Launcher.class", "launcher",
+            "BOOT-INF/classes/app/App.class", "class App", "BOOT-INF/lib/lib.jar", lib));
+        assertEquals(Arrays.asList("app/App"), visit(repo));
+        assertEquals("class App", load(repo.createTypeLoader(), "app/App"));
+        assertEquals("class L", load(repo.createTypeLoader(), "lib/L"));
+        assertEquals("class L", load(repo.createAuxTypeLoader(), "lib/L"));
+        assertNull(load(repo.createAuxTypeLoader(), "app/App"));
+        assertNull(load(repo.createTypeLoader(), "org/springframework/boot/loader/Launcher"));
+    }
+
+    @Test
+    public void testEar() throws IOException {
+        byte[] war = zip(false, "index.jsp", "jsp", "WEB-INF/classes/web/Servlet.class", "class Servlet",
+            "WEB-INF/lib/web.jar", zip(false, "weblib/W.class", "class W"), "WEB-INF/lib/broken.jar", "not a jar");
+        byte[] ejb = zip(false, "ejb/Bean.class", "class Bean");
+        byte[] lib = zip(false, "earlib/E.class", "class E");
+        ArchiveRepository repo = open(zip(false, "META-INF/application.xml", "<application/>", "ejb.jar", ejb,
+            "web.war", war, "lib/lib.jar", lib));
+        assertEquals(Arrays.asList("ejb/Bean", "web/Servlet"), visit(repo));
+        ITypeLoader loader = repo.createTypeLoader();
+        assertEquals("class Bean", load(loader, "ejb/Bean"));
+        assertEquals("class Servlet", load(loader, "web/Servlet"));
+        assertEquals("class W", load(loader, "weblib/W"));
+        assertEquals("class E", load(loader, "earlib/E"));
+        assertNull(load(loader, "missing/M"));
+        ITypeLoader auxLoader = repo.createAuxTypeLoader();
+        assertEquals("class W", load(auxLoader, "weblib/W"));
+        assertEquals("class E", load(auxLoader, "earlib/E"));
+        assertNull(load(auxLoader, "ejb/Bean"));
+    }
+
+    @Test
+    public void testEarModulesOpenedLazily() throws IOException {
+        ArchiveRepository repo = open(zip(false, "META-INF/application.xml", "<application/>", "broken.jar",
+            "not a jar"));
+        try {
+            visit(repo);
+            fail("Corrupted module must be reported when it's used");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof ZipException);
+        }
+    }
+
+    @Test
+    public void testWebInfWithoutClasses() throws IOException {
+        MappedZip zip = new MappedZip(ByteBuffer.wrap(zip(false, "WEB-INF/web.xml", "<web-app/>", "a/A.class",
+            "class A")));
+        assertFalse(ArchiveRepository.isArchive(zip));
+        assertEquals(Arrays.asList("a/A"), visit(new ArchiveRepository(zip)));
+    }
+
+    @Test
+    public void testPlainJar() throws IOException {
+        MappedZip zip = new MappedZip(ByteBuffer.wrap(zip(false, "a/A.class", "class A", "lib/lib.jar", zip(false,
+            "b/B.class", "class B"))));
+        assertFalse(ArchiveRepository.isArchive(zip));
+        ArchiveRepository repo = new ArchiveRepository(zip);
+        assertEquals(Arrays.asList("a/A"), visit(repo));
+        assertNull(repo.createAuxTypeLoader());
+    }
+
+    private static ArchiveRepository open(byte[] data) throws IOException {
+        MappedZip zip = new MappedZip(ByteBuffer.wrap(data));
+        assertTrue(ArchiveRepository.isArchive(zip));
+        return new ArchiveRepository(zip);
+    }
+
+    private static List<String> visit(ArchiveRepository repo) {
+        List<String> classes = new ArrayList<>();
+        repo.visit("", new RepositoryVisitor() {
+            @Override
+            public boolean visitPackage(String packageName) {
+                return true;
+            }
+
+            @Override
+            public void visitClass(String className) {
+                classes.add(className);
+            }
+        });
+        return classes;
+    }
+
+    private static String load(ITypeLoader loader, String name) {
+        Buffer buffer = new Buffer();
+        if (!loader.tryLoadType(name, buffer))
+            return null;
+        return new String(buffer.array(), 0, buffer.size(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param stored whether the entries should be stored uncompressed
+     * @param entries entry names followed by the content (string or byte
+     *        array)
+     */
+    private static byte[] zip(boolean stored, Object... entries) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            for (int i = 0; i < entries.length; i += 2) {
+                byte[] data = entries[i + 1] instanceof byte[] ? (byte[]) entries[i + 1] : ((String) entries[i + 1])
+                        .getBytes(StandardCharsets.UTF_8);
+                ZipEntry entry = new ZipEntry((String) entries[i]);
+                if (stored) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(entry);
+                zos.write(data);
+            }
+        }
+        return bos.toByteArray();
+    }
+}
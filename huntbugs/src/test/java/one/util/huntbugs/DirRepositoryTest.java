@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import one.util.huntbugs.repo.DirRepository;
+import one.util.huntbugs.repo.RepositoryVisitor;
+
+import org.junit.Test;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+public class DirRepositoryTest {
+    @Test
+    public void testVisitAndLoad() throws IOException {
+        Path root = Files.createTempDirectory("huntbugs");
+        try {
+            for (String name : Arrays.asList("a/A", "a/A$1", "a/b/B", "a/skip/S", "c/C", "c/d/e/E")) {
+                Path file = root.resolve(name + ".class");
+                Files.createDirectories(file.getParent());
+                Files.write(file, name.getBytes(StandardCharsets.UTF_8));
+            }
+            // not a classfile
+            Files.createDirectory(root.resolve("c/Dir.class"));
+            DirRepository repo = new DirRepository(root);
+            ITypeLoader loader = repo.createTypeLoader();
+            assertEquals("a/skip/S", load(loader, "a/skip/S"));
+
+            List<String> packages = new ArrayList<>();
+            List<String> classes = new ArrayList<>();
+            repo.visit("", new RepositoryVisitor() {
+                @Override
+                public boolean visitPackage(String packageName) {
+                    packages.add(packageName);
+                    return !packageName.equals("a/skip");
+                }
+
+                @Override
+                public void visitClass(String className) {
+                    classes.add(className);
+                }
+            });
+            assertEquals(Arrays.asList("", "a", "a/b", "a/skip", "c", "c/Dir.class", "c/d", "c/d/e"), packages.stream().sorted()
+                    .collect(Collectors.toList()));
+            assertEquals(Arrays.asList("a/A", "a/b/B", "c/C", "c/d/e/E"), classes);
+            assertEquals("a/A$1", load(loader, "a/A$1"));
+            // skipped packages are not indexed, but still can be loaded
+            assertEquals("a/skip/S", load(loader, "a/skip/S"));
+            assertNull(load(loader, "a/Missing"));
+            assertNull(load(loader, "c/Dir"));
+
+            classes.clear();
+            repo.visit("c", new RepositoryVisitor() {
+                @Override
+                public boolean visitPackage(String packageName) {
+                    return true;
+                }
+
+                @Override
+                public void visitClass(String className) {
+                    classes.add(className);
+                }
+            });
+            assertEquals(Arrays.asList("c/C", "c/d/e/E"), classes);
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static String load(ITypeLoader loader, String name) {
+        Buffer buffer = new Buffer();
+        if (!loader.tryLoadType(name, buffer))
+            return null;
+        return new String(buffer.array(), 0, name.length(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+import one.util.huntbugs.repo.JdkTypeLoader;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.strobel.assembler.metadata.Buffer;
+
+public class JdkTypeLoaderTest {
+    @Test
+    public void testRuntime() throws Exception {
+        Assume.assumeTrue(System.getProperty("sun.boot.class.path") == null);
+        check(JdkTypeLoader.openRuntime(null));
+    }
+
+    @Test
+    public void testJmods() throws Exception {
+        Path jmods = Paths.get(System.getProperty("java.home"), "jmods");
+        Assume.assumeTrue(Files.isDirectory(jmods));
+        check(JdkTypeLoader.openJmods(jmods));
+    }
+
+    @Test
+    public void testBootClassPath() throws Exception {
+        Assume.assumeTrue(System.getProperty("sun.boot.class.path") != null);
+        check(JdkTypeLoader.createBootLoader(null));
+    }
+
+    @Test
+    public void testSharedBootLoader() throws Exception {
+        JdkTypeLoader loader = JdkTypeLoader.createBootLoader(null);
+        assertSame(loader, JdkTypeLoader.createBootLoader(null));
+        Path javaHome = Paths.get(System.getProperty("java.home"));
+        Assume.assumeTrue(Files.isRegularFile(javaHome.resolve("lib/modules")));
+        JdkTypeLoader target = JdkTypeLoader.createBootLoader(javaHome);
+        assertNotSame(loader, target);
+        assertSame(target, JdkTypeLoader.createBootLoader(javaHome.resolve("lib/..")));
+    }
+
+    private static void check(JdkTypeLoader loader) throws Exception {
+        assertTrue(loader.getPackageCount() > 0);
+        Buffer buffer = new Buffer();
+        assertTrue(loader.tryLoadType("java/lang/String", buffer));
+        assertEquals(0xCAFEBABE, ByteBuffer.wrap(buffer.array(), 0, buffer.size()).getInt());
+        assertTrue(loader.tryLoadType("java/util/Map$Entry", buffer));
+        assertFalse(loader.tryLoadType("java/lang/NonExisting", buffer));
+        assertFalse(loader.tryLoadType("java/lang/NonExisting", buffer));
+        assertFalse(loader.tryLoadType("one/util/huntbugs/repo/JdkTypeLoader", buffer));
+        Set<String> classes = new HashSet<>();
+        loader.visitClasses(classes::add);
+        assertTrue(classes.contains("java/util/Map$Entry"));
+        assertFalse(classes.contains("module-info"));
+    }
+}
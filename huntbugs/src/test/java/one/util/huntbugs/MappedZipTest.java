@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import one.util.huntbugs.repo.MappedJarRepository;
+import one.util.huntbugs.repo.MappedZip;
+import one.util.huntbugs.repo.RepositoryVisitor;
+
+import org.junit.Test;
+
+public class MappedZipTest {
+    private static final byte[] LARGE = new byte[200000];
+
+    static {
+        Random r = new Random(1);
+        for (int i = 0; i < LARGE.length; i++) {
+            LARGE[i] = (byte) ('a' + r.nextInt(4));
+        }
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        byte[] zipData = createZip();
+        check(new MappedZip(ByteBuffer.wrap(zipData)));
+
+        // archive with the prefix like Spring Boot executable jar
+        byte[] prefix = "#!/bin/sh\nexit 0\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] prefixed = Arrays.copyOf(prefix, prefix.length + zipData.length);
+        System.arraycopy(zipData, 0, prefixed, prefix.length, zipData.length);
+        check(new MappedZip(ByteBuffer.wrap(prefixed)));
+
+        Path file = Files.createTempFile("huntbugs", ".jar");
+        try {
+            Files.write(file, zipData);
+            check(MappedZip.open(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        MappedZip zip = new MappedZip(ByteBuffer.wrap(createZip()));
+        assertEquals("class A", read(zip, "a/A.class"));
+        zip.close();
+        // entries are still readable, the inflaters are just not pooled
+        check(zip);
+    }
+
+    @Test
+    public void testVisit() throws IOException {
+        MappedJarRepository repo = new MappedJarRepository(new MappedZip(ByteBuffer.wrap(createZip())));
+        List<String> visited = new ArrayList<>();
+        repo.visit("", new RepositoryVisitor() {
+            @Override
+            public boolean visitPackage(String packageName) {
+                visited.add("p:" + packageName);
+                return !packageName.equals("a/skip");
+            }
+
+            @Override
+            public void visitClass(String className) {
+                visited.add("c:" + className);
+            }
+        });
+        assertEquals(Arrays.asList("p:", "p:a", "c:a/A", "c:a/Large", "p:a/skip"), visited);
+    }
+
+    private static void check(MappedZip zip) throws IOException {
+        assertEquals(Arrays.asList("a/A$1.class", "a/A.class", "a/Large.class", "a/skip/B.class", "readme.txt"), zip
+                .getNames());
+        assertEquals(-1, zip.find("a/"));
+        assertEquals(-1, zip.find("a/C.class"));
+        assertEquals("class A", read(zip, "a/A.class"));
+        assertEquals("readme", read(zip, "readme.txt"));
+        assertNotNull(zip.getStored(zip.find("readme.txt")));
+        assertNull(zip.getStored(zip.find("a/A.class")));
+        int index = zip.find("a/Large.class");
+        byte[] large = new byte[zip.getSize(index) + 1];
+        zip.read(index, large, 1);
+        assertArrayEquals(LARGE, Arrays.copyOfRange(large, 1, large.length));
+    }
+
+    private static String read(MappedZip zip, String name) throws IOException {
+        int index = zip.find(name);
+        assertTrue(index >= 0);
+        byte[] data = new byte[zip.getSize(index)];
+        zip.read(index, data, 0);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] createZip() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            zos.putNextEntry(new ZipEntry("a/"));
+            add(zos, "a/A.class", "class A".getBytes(StandardCharsets.UTF_8));
+            add(zos, "a/A$1.class", "class A$1".getBytes(StandardCharsets.UTF_8));
+            add(zos, "a/Large.class", LARGE);
+            add(zos, "a/skip/B.class", "class B".getBytes(StandardCharsets.UTF_8));
+            byte[] readme = "readme".getBytes(StandardCharsets.UTF_8);
+            ZipEntry stored = new ZipEntry("readme.txt");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(readme.length);
+            CRC32 crc = new CRC32();
+            crc.update(readme);
+            stored.setCrc(crc.getValue());
+            zos.putNextEntry(stored);
+            zos.write(readme);
+        }
+        return bos.toByteArray();
+    }
+
+    private static void add(ZipOutputStream zos, String name, byte[] data) throws IOException {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(data);
+    }
+}
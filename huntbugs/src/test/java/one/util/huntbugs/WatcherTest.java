@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class WatcherTest {
+    @Test
+    public void testWatcher() throws Exception {
+        Path dir = Files.createTempDirectory("huntbugs-watch");
+        try {
+            Files.createDirectories(dir.resolve("a/b"));
+            try (Watcher watcher = new Watcher(Collections.singletonList(dir))) {
+                Files.write(dir.resolve("a/b/C.class"), new byte[] { 1 });
+                Files.write(dir.resolve("a/b/C$1.class"), new byte[] { 1 });
+                Files.write(dir.resolve("a/b/readme.txt"), new byte[] { 1 });
+                assertEquals(new HashSet<>(Arrays.asList("a/b/C.class", "a/b/C$1.class")), watcher.awaitChanges(200));
+                Path sub = dir.resolve("a/d");
+                Files.createDirectories(sub);
+                Files.write(sub.resolve("E.class"), new byte[] { 1 });
+                assertTrue(watcher.awaitChanges(200).contains("a/d/E.class"));
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import static one.util.huntbugs.analysis.AnalysisFixture.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Test;
+
+public class AnalysisCacheTest {
+    @Test
+    public void testCache() throws IOException {
+        Path dir = Files.createTempDirectory("huntbugs-cache");
+        try {
+            AnalysisOptions options = new AnalysisOptions();
+            String expected = report(analyze(options));
+            options.cacheDir = dir.toString();
+            Context first = analyze(options);
+            assertEquals(0, first.getStat("CacheHits"));
+            assertEquals(expected, report(first));
+            Context second = analyze(options);
+            assertTrue(second.getStat("CacheHits") > 0);
+            assertEquals(expected, report(second));
+            options.minScore = 50;
+            Context third = analyze(options);
+            assertEquals(0, third.getStat("CacheHits"));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        Path dir = Files.createTempDirectory("huntbugs-cache");
+        try {
+            AnalysisOptions options = new AnalysisOptions();
+            options.cacheDir = dir.toString();
+            options.cacheMaxMb = 1;
+            Path stale = dir.resolve("00/stale.xml");
+            Files.createDirectories(stale.getParent());
+            Files.write(stale, new byte[2 * 1024 * 1024]);
+            Files.setLastModifiedTime(stale, FileTime.fromMillis(0));
+            Context first = analyze(options);
+            assertFalse(Files.exists(stale));
+            assertEquals(1, first.getStat("CacheEvictions"));
+            Context second = analyze(options);
+            assertEquals(0, second.getStat("CacheEvictions"));
+            assertTrue(second.getStat("CacheHits") > 0);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+}
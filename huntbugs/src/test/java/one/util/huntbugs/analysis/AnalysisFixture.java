@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import one.util.huntbugs.output.Reports;
+import one.util.huntbugs.repo.FilteredRepository;
+import one.util.huntbugs.repo.Repository;
+
+/**
+ * Analysis of the test data classes shared by the analysis tests
+ */
+final class AnalysisFixture {
+    static final String PACKAGE = "one/util/huntbugs/testdata";
+
+    private AnalysisFixture() {
+    }
+
+    /**
+     * @return repository of the part of the test data which is small enough
+     *         to be analyzed many times in a single test
+     */
+    static Repository createRepository() {
+        return new FilteredRepository(Repository.createSelfRepository(), cn -> cn.matches(".+/Test[A-C]\\w+"));
+    }
+
+    static Context analyze(AnalysisOptions options) {
+        return analyze(options, null);
+    }
+
+    static Context analyze(AnalysisOptions options, AnalysisSession session) {
+        Context ctx = new Context(createRepository(), options, session);
+        ctx.analyzePackage(PACKAGE);
+        return ctx;
+    }
+
+    /**
+     * @param ctx finished analysis
+     * @return sorted list of type, class and score of every warning
+     */
+    static List<String> summary(Context ctx) {
+        return ctx.warnings().map(w -> w.getType().getName() + ":" + w.getClassName() + ":" + w.getScore()).sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param ctx finished analysis
+     * @return full XML report including the warning annotations
+     * @throws IOException if temporary file cannot be written
+     */
+    static String report(Context ctx) throws IOException {
+        Path xml = Files.createTempFile("huntbugs", ".xml");
+        try {
+            Reports.write(xml, null, ctx);
+            return new String(Files.readAllBytes(xml), "UTF-8");
+        } finally {
+            Files.delete(xml);
+        }
+    }
+
+    /**
+     * @param dir directory to delete with all its content
+     * @throws IOException if deletion fails
+     */
+    static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+}
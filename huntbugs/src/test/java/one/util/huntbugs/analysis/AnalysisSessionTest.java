@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import static one.util.huntbugs.analysis.AnalysisFixture.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+public class AnalysisSessionTest {
+    @Test
+    public void testSharedSession() {
+        List<String> expected = summary(analyze(new AnalysisOptions()));
+        assertFalse(expected.isEmpty());
+
+        AnalysisSession session = new AnalysisSession();
+        Context first = analyze(new AnalysisOptions(), session);
+        Context second = analyze(new AnalysisOptions(), session);
+        assertEquals(expected, summary(first));
+        assertEquals(expected, summary(second));
+        // boot classpath types are read by the first analysis only
+        assertTrue(second.getStat("ClassLoadingEfficiency.Total") < first.getStat("ClassLoadingEfficiency.Total"));
+    }
+
+    @Test
+    public void testTypeLoader() throws IOException {
+        AnalysisSession session = new AnalysisSession();
+        assertSame(session.getTypeLoader(Paths.get("target/classes")), session.getTypeLoader(Paths.get(
+            "target/../target/classes")));
+    }
+
+    @Test
+    public void testChangedJar() throws IOException {
+        AnalysisSession session = new AnalysisSession();
+        Path jar = Files.createTempFile("huntbugs", ".jar");
+        try {
+            writeJar(jar, "class A");
+            ITypeLoader loader = session.getTypeLoader(jar);
+            assertSame(loader, session.getTypeLoader(jar));
+            writeJar(jar, "class A, changed");
+            ITypeLoader changed = session.getTypeLoader(jar);
+            assertNotSame(loader, changed);
+            Buffer buffer = new Buffer();
+            assertTrue(changed.tryLoadType("a/A", buffer));
+            assertEquals("class A, changed", new String(buffer.array(), 0, buffer.size(), StandardCharsets.UTF_8));
+        } finally {
+            Files.delete(jar);
+        }
+    }
+
+    @Test
+    public void testBootTypes() {
+        AnalysisSession session = new AnalysisSession();
+        SharedMetadataSystem types = session.acquireBootTypes(null);
+        // concurrent analyses never share the lazily loaded types
+        assertNotSame(types, session.acquireBootTypes(null));
+        session.releaseBootTypes(types);
+        assertSame(types, session.acquireBootTypes(null));
+    }
+
+    private static void writeJar(Path jar, String content) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar))) {
+            zos.putNextEntry(new ZipEntry("a/A.class"));
+            zos.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+}
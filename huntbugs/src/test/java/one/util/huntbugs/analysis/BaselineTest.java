@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import static one.util.huntbugs.analysis.AnalysisFixture.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import one.util.huntbugs.output.Reports;
+
+import org.junit.Test;
+
+public class BaselineTest {
+    @Test
+    public void testBaseline() throws IOException {
+        Path baseline = Files.createTempFile("huntbugs", ".baseline.xml");
+        try {
+            Context full = analyze(new AnalysisOptions());
+            long count = full.warnings().count();
+            assertTrue(count > 0);
+            Reports.write(baseline, null, full);
+
+            AnalysisOptions options = new AnalysisOptions();
+            options.baseline = baseline.toString();
+            Context ctx = analyze(options);
+            assertEquals(0, ctx.warnings().count());
+            assertEquals(count, ctx.getStat("Warnings.Baseline"));
+            assertEquals(0, ctx.getStat("Warnings.Baseline.Fixed"));
+        } finally {
+            Files.deleteIfExists(baseline);
+        }
+    }
+
+    @Test
+    public void testMissingBaseline() throws IOException {
+        Path baseline = Files.createTempFile("huntbugs", ".baseline.xml");
+        Files.delete(baseline);
+        AnalysisOptions options = new AnalysisOptions();
+        options.baseline = baseline.toString();
+        Context ctx = analyze(options);
+        assertTrue(ctx.warnings().count() > 0);
+        assertTrue(ctx.errors().anyMatch(e -> e.getError().contains("Baseline file not found")));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import static one.util.huntbugs.analysis.AnalysisFixture.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+public class ClassfileCacheTest {
+    @Test
+    public void testCache() {
+        AnalysisOptions options = new AnalysisOptions();
+        options.classCacheMb = 0;
+        Context uncached = analyze(options);
+        Context cached = analyze(new AnalysisOptions());
+        assertEquals(summary(uncached), summary(cached));
+        assertEquals(0, uncached.getStat("ClassCacheHits.Total"));
+        assertTrue(cached.getStat("ClassCacheHits") > 0);
+    }
+
+    @Test
+    public void testEviction() {
+        AtomicInteger reads = new AtomicInteger();
+        ITypeLoader loader = (internalName, buffer) -> {
+            reads.incrementAndGet();
+            byte[] data = internalName.getBytes();
+            buffer.reset(data.length);
+            System.arraycopy(data, 0, buffer.array(), 0, data.length);
+            buffer.position(0);
+            return true;
+        };
+        ClassfileCache cache = new ClassfileCache(new Context(null, new AnalysisOptions()), Arrays.asList("a/A",
+            "a/B"), 10, true);
+        ITypeLoader cached = cache.wrap(loader);
+        assertEquals("a/A", load(cached, "a/A"));
+        assertEquals("a/A$1", load(cached, "a/A$1"));
+        assertEquals("a/A", load(cached, "a/A"));
+        assertEquals(2, reads.get());
+        // not analyzed: never cached
+        assertEquals("a/C", load(cached, "a/C"));
+        assertEquals("a/C", load(cached, "a/C"));
+        assertEquals(4, reads.get());
+        // evicts the whole a/A group
+        assertEquals("a/B", load(cached, "a/B"));
+        assertEquals("a/B", load(cached, "a/B"));
+        assertEquals(5, reads.get());
+        assertEquals(3, cache.size());
+
+        cache.startAnalysis();
+        // taken once by the analysis
+        assertEquals("a/B", load(cached, "a/B"));
+        assertEquals(5, reads.get());
+        assertEquals(0, cache.size());
+        // not stored anymore
+        assertEquals("a/B", load(cached, "a/B"));
+        assertEquals("a/A$1", load(cached, "a/A$1"));
+        assertEquals("a/A$1", load(cached, "a/A$1"));
+        assertEquals(8, reads.get());
+        assertEquals(0, cache.size());
+
+        // digests of everything read are kept, so hashing does not read again
+        assertArrayEquals(AnalysisCache.digest("a/C".getBytes(), 3), cache.getDigest("a/C"));
+        assertEquals(AnalysisCache.hashContent(null, loader, Arrays.asList("a/A", "a/A$1")), AnalysisCache
+                .hashContent(cache, loader, Arrays.asList("a/A", "a/A$1")));
+        assertEquals(10, reads.get());
+    }
+
+    @Test
+    public void testPrefetch() throws InterruptedException {
+        List<String> reads = new CopyOnWriteArrayList<>();
+        ITypeLoader loader = (internalName, buffer) -> {
+            reads.add(internalName);
+            byte[] data = internalName.getBytes();
+            buffer.reset(data.length);
+            System.arraycopy(data, 0, buffer.array(), 0, data.length);
+            buffer.position(0);
+            return true;
+        };
+        ClassfileCache cache = new ClassfileCache(new Context(null, new AnalysisOptions()), Arrays.asList("a/A",
+            "a/B", "a/C"), 10, false);
+        ITypeLoader cached = cache.wrap(loader);
+        assertEquals("a/A", load(cached, "a/A"));
+        cache.startAnalysis();
+        assertTrue(cache.startPrefetch(loader, Arrays.asList("a/A", "a/B", "a/C"), AnalysisExecutor.fixedPool(), 1,
+            1));
+        try {
+            // a/A is cached already, a/C waits for the free place in the queue
+            awaitRead(reads, "a/B");
+            assertEquals(Arrays.asList("a/A", "a/B"), reads);
+            assertEquals("a/A", load(cached, "a/A"));
+            assertEquals("a/B", load(cached, "a/B"));
+            awaitRead(reads, "a/C");
+            assertEquals("a/C", load(cached, "a/C"));
+            assertEquals(Arrays.asList("a/A", "a/B", "a/C"), reads);
+        } finally {
+            cache.stopPrefetch();
+        }
+        assertFalse(cache.startPrefetch(loader, Arrays.asList("a/A"), AnalysisExecutor.sequential(), 1, 1));
+    }
+
+    private static void awaitRead(List<String> reads, String name) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!reads.contains(name)) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static String load(ITypeLoader loader, String name) {
+        Buffer buffer = new Buffer();
+        assertTrue(loader.tryLoadType(name, buffer));
+        return new String(buffer.array(), 0, buffer.size());
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import static one.util.huntbugs.analysis.AnalysisFixture.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DatabaseSnapshotTest {
+    @Test
+    public void testSnapshot() throws IOException {
+        Path dir = Files.createTempDirectory("huntbugs-db");
+        try {
+            AnalysisOptions options = new AnalysisOptions();
+            List<String> expected = summary(analyze(options));
+            options.dbSnapshot = dir.resolve("db.snapshot").toString();
+            Context first = analyze(options);
+            assertEquals(0, first.getStat("DbSnapshotHits"));
+            assertTrue(Files.isRegularFile(dir.resolve("db.snapshot")));
+            assertEquals(expected, summary(first));
+            Context second = analyze(options);
+            assertTrue(second.getStat("DbSnapshotHits") > 0);
+            assertEquals(0, second.getStat("DbSnapshotReadErrors"));
+            assertEquals(expected, summary(second));
+            options.threads = 4;
+            Context third = analyze(options);
+            assertTrue(third.getStat("DbSnapshotHits") > 0);
+            assertEquals(expected, summary(third));
+            Files.write(dir.resolve("db.snapshot"), new byte[] {1, 2, 3});
+            Context fourth = analyze(options);
+            assertEquals(0, fourth.getStat("DbSnapshotHits"));
+            assertEquals(expected, summary(fourth));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+}
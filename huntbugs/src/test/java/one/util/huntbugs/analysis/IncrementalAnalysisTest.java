@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import static one.util.huntbugs.analysis.AnalysisFixture.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import one.util.huntbugs.repo.Repository;
+
+import org.junit.Test;
+
+public class IncrementalAnalysisTest {
+    private static final String CHANGED = PACKAGE + "/TestCompareUsage";
+
+    @Test
+    public void testIncremental() {
+        Context full = analyze(null, null);
+        List<String> expected = summary(full);
+        assertFalse(expected.isEmpty());
+
+        Context incremental = analyze(Collections.singletonList("src/test/java/" + CHANGED + ".java"), full);
+        assertEquals(expected, summary(incremental));
+        Set<String> affected = incremental.getAffectedClasses(Collections.singleton(CHANGED));
+        assertTrue(affected.contains(CHANGED));
+        assertEquals(affected.size(), incremental.getClassesCount());
+        assertTrue(incremental.getClassesCount() < full.getClassesCount());
+    }
+
+    @Test
+    public void testAffectedSubtypes() {
+        String pkg = "one/util/huntbugs/flow/etype";
+        String changed = pkg + "/ComplexType";
+        Context full = new Context(Repository.createSelfRepository(), new AnalysisOptions());
+        full.analyzePackage(pkg);
+        Context ctx = new Context(Repository.createSelfRepository(), new AnalysisOptions());
+        ctx.analyzePackage(pkg, Collections.singletonList(changed), full);
+        Set<String> affected = ctx.getAffectedClasses(Collections.singleton(changed));
+        for (String subType : Arrays.asList(pkg + "/AndType", pkg + "/OrType")) {
+            assertTrue(affected.contains(subType));
+            // subtype dependents may call the inherited methods without referring to the changed class
+            assertTrue(affected.containsAll(ctx.getDependents(subType)));
+        }
+        // supertype
+        assertTrue(affected.contains(pkg + "/EType"));
+    }
+
+    @Test
+    public void testResolveClasses() {
+        Set<String> known = new HashSet<>(Arrays.asList("a/b/C", "a/b/D"));
+        assertEquals(new HashSet<>(Arrays.asList("a/b/C", "a/b/D")), Context.resolveClasses(Arrays.asList(
+            "src/main/java/a/b/C.java", "target/classes/a/b/D$1.class"), known));
+        assertEquals(Collections.singleton("a/b/C"), Context.resolveClasses(Arrays.asList("a.b.C", "a/b/E.java",
+            "README.md", ""), known));
+    }
+
+    private static Context analyze(List<String> changed, HuntBugsResult previous) {
+        Context ctx = new Context(createRepository(), new AnalysisOptions());
+        ctx.analyzePackage(PACKAGE, changed, previous);
+        return ctx;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import static one.util.huntbugs.analysis.AnalysisFixture.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import one.util.huntbugs.repo.AuxRepository;
+import one.util.huntbugs.repo.CompositeRepository;
+import one.util.huntbugs.repo.FilteredRepository;
+import one.util.huntbugs.repo.Repository;
+
+import org.junit.Test;
+
+import com.strobel.assembler.metadata.JarTypeLoader;
+
+public class JarDatabaseCacheTest {
+    @Test
+    public void testJarCache() throws IOException {
+        Path dir = Files.createTempDirectory("huntbugs-dbcache");
+        try {
+            Path jar = dir.resolve("deps.jar");
+            try (JarOutputStream jos = new JarOutputStream(Files.newOutputStream(jar))) {
+                for (String name : Arrays.asList("one/util/huntbugs/warning/WarningType",
+                    "one/util/huntbugs/warning/Warning")) {
+                    jos.putNextEntry(new JarEntry(name + ".class"));
+                    try (InputStream is = getClass().getClassLoader().getResourceAsStream(name + ".class")) {
+                        byte[] buf = new byte[4096];
+                        int n;
+                        while ((n = is.read(buf)) > 0) {
+                            jos.write(buf, 0, n);
+                        }
+                    }
+                    jos.closeEntry();
+                }
+            }
+            AnalysisOptions options = new AnalysisOptions();
+            List<String> expected = summary(analyze(options, jar));
+            options.dbCacheDir = dir.resolve("cache").toString();
+            Context first = analyze(options, jar);
+            assertEquals(0, first.getStat("DbCacheHits"));
+            assertEquals(expected, summary(first));
+            Context second = analyze(options, jar);
+            assertTrue(second.getStat("DbCacheHits") > 0);
+            assertEquals(expected, summary(second));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static Context analyze(AnalysisOptions options, Path jar) throws IOException {
+        Repository self = new FilteredRepository(Repository.createSelfRepository(), cn -> cn.startsWith(
+            "one/util/huntbugs/warning/rule/"));
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            Repository repo = new CompositeRepository(Arrays.asList(self, new AuxRepository(new JarTypeLoader(
+                    jarFile), Collections.singletonList(jar))));
+            Context ctx = new Context(repo, options);
+            ctx.analyzePackage("one/util/huntbugs/warning/rule");
+            return ctx;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.analysis;
+
+import static one.util.huntbugs.analysis.AnalysisFixture.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import one.util.huntbugs.repo.Repository;
+
+import org.junit.Test;
+
+public class ParallelAnalysisTest {
+    @Test
+    public void testParallelSameAsSequential() throws IOException {
+        String sequential = analyze(new AnalysisOptions());
+        AnalysisOptions options = new AnalysisOptions();
+        options.threads = 4;
+        options.classesPerFlush = 3;
+        assertEquals(sequential, analyze(options));
+        options.loadThreads = 2;
+        options.loadQueueSize = 2;
+        assertEquals(sequential, analyze(options));
+        options = new AnalysisOptions();
+        options.loadThreads = 1;
+        options.loadQueueSize = 1;
+        assertEquals(sequential, analyze(options));
+    }
+
+    @Test
+    public void testParallelWholeTestData() throws IOException {
+        // every test data class, so all the detectors see the classes analyzed in parallel
+        String sequential = analyzeAll(new AnalysisOptions());
+        AnalysisOptions options = new AnalysisOptions();
+        options.threads = 3;
+        assertEquals(sequential, analyzeAll(options));
+    }
+
+    @Test
+    public void testSharedTypes() throws IOException {
+        AnalysisOptions options = new AnalysisOptions();
+        options.sharedTypes = false;
+        String expected = analyze(options);
+        options = new AnalysisOptions();
+        options.classesPerFlush = 3;
+        assertEquals(expected, analyze(options));
+        options.threads = 4;
+        assertEquals(expected, analyze(options));
+    }
+
+    @Test
+    public void testFlushPolicy() throws IOException {
+        String expected = analyze(new AnalysisOptions());
+        AnalysisOptions options = new AnalysisOptions();
+        options.classesPerFlush = 0;
+        options.typesPerFlush = 20;
+        assertEquals(expected, analyze(options));
+        Context ctx = new Context(createRepository(), options);
+        ctx.analyzePackage(PACKAGE);
+        assertTrue(ctx.getStat("Flushes.Types") > 0);
+        assertEquals(0, ctx.getStat("Flushes.Classes"));
+    }
+
+    @Test
+    public void testSharedForkJoinPool() throws IOException {
+        String sequential = analyze(new AnalysisOptions());
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            AnalysisOptions options = new AnalysisOptions();
+            options.threads = 4;
+            options.setExecutor(AnalysisExecutor.forkJoin(pool));
+            assertEquals(sequential, analyze(options));
+            // loaders blocked on the full queue must not starve the workers of the same pool
+            options.loadThreads = 2;
+            options.loadQueueSize = 1;
+            assertEquals(sequential, analyze(options));
+        } finally {
+            pool.shutdown();
+        }
+        AnalysisOptions options = new AnalysisOptions();
+        options.threads = 4;
+        options.executor = "sequential";
+        assertEquals(sequential, analyze(options));
+    }
+
+    private static String analyzeAll(AnalysisOptions options) throws IOException {
+        Context ctx = new Context(Repository.createSelfRepository(), options);
+        ctx.analyzePackage(PACKAGE);
+        assertTrue(ctx.getClassesCount() > 0);
+        return report(ctx);
+    }
+
+    private static String analyze(AnalysisOptions options) throws IOException {
+        Context ctx = AnalysisFixture.analyze(options);
+        assertTrue(ctx.getClassesCount() > 0);
+        return report(ctx);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.daemon;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class HuntBugsDaemonTest {
+    @Test
+    public void testDaemon() throws Exception {
+        Path dir = Files.createTempDirectory("huntbugs-daemon");
+        Path stateFile = dir.resolve("daemon.properties");
+        try {
+            assertNull(DaemonClient.find(stateFile));
+            HuntBugsDaemon daemon = new HuntBugsDaemon(stateFile);
+            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                try {
+                    daemon.run();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            DaemonClient client = null;
+            for (int i = 0; i < 100 && client == null; i++) {
+                Thread.sleep(50);
+                client = DaemonClient.find(stateFile);
+            }
+            assertNotNull(client);
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteArrayOutputStream err = new ByteArrayOutputStream();
+                assertEquals(0, client.run(dir, Collections.singletonList("-lw"), out, err));
+                String output = new String(out.toByteArray(), StandardCharsets.UTF_8);
+                assertTrue(output.contains("List of warning types"));
+                // the list itself must reach the client rather than the daemon console
+                assertTrue(output.contains("RoughConstantValue"));
+                assertTrue(output.contains("Total types: "));
+            }
+            ByteArrayOutputStream vars = new ByteArrayOutputStream();
+            assertEquals(0, client.run(dir, Collections.singletonList("-lv"), vars, new ByteArrayOutputStream()));
+            assertTrue(new String(vars.toByteArray(), StandardCharsets.UTF_8).contains("threads (int) = 1"));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            assertEquals(-3, client.run(dir, Arrays.asList("-Dunknown=1"), out, err));
+            assertTrue(new String(err.toByteArray(), StandardCharsets.UTF_8).contains("Unknown option: unknown"));
+            // the job is not accepted with the wrong token, so the caller may run it in another way
+            Path forged = dir.resolve("forged.properties");
+            Files.write(forged, new String(Files.readAllBytes(stateFile), StandardCharsets.ISO_8859_1).replaceAll(
+                "token=\\w+", "token=0").getBytes(StandardCharsets.ISO_8859_1));
+            try {
+                DaemonClient.find(forged).run(dir, Collections.singletonList("-lw"), out, err);
+                fail("Job is accepted with the wrong token");
+            } catch (IOException e) {
+                // expected
+            } finally {
+                Files.delete(forged);
+            }
+            client.stop();
+            future.get(10, TimeUnit.SECONDS);
+            assertFalse(Files.exists(stateFile));
+        } finally {
+            Files.deleteIfExists(stateFile);
+            Files.delete(dir);
+        }
+    }
+}
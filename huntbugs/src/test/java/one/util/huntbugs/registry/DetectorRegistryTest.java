@@ -15,16 +15,23 @@
  */
 package one.util.huntbugs.registry;
 
+import java.net.URL;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import one.util.huntbugs.analysis.AnalysisOptions;
 import one.util.huntbugs.analysis.Context;
 import one.util.huntbugs.registry.anno.WarningDefinition;
 import one.util.huntbugs.repo.Repository;
+import one.util.huntbugs.warning.Warning;
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
 
 /**
  * @author Mihails Volkovs
@@ -55,6 +62,58 @@ public class DetectorRegistryTest {
         assertEquals(WARNINGS, getWarnings());
     }
 
+    @Test
+    public void manifest() {
+        URL url = DetectorManifest.class.getClassLoader().getResource(DetectorManifest.RESOURCE);
+        // generated during the Maven build only
+        assumeNotNull(url);
+        List<String> manifest = DetectorManifest.read(url);
+        assertFalse(manifest.isEmpty());
+        assertEquals(DetectorManifest.scan(), manifest);
+        // manifest is the same list the scanning visits; setUp creates the second registry in the same context,
+        // so the registry created by the fresh context is counted
+        Context ctx = new Context(Repository.createNullRepository(), new AnalysisOptions());
+        assertEquals(manifest.size(), ctx.getStat("Detectors.Total"));
+        if (!url.getProtocol().equals("jar")) {
+            // may be stale
+            assertNull(DetectorManifest.read());
+        }
+    }
+
+    @Test
+    public void methodTooSlow() {
+        AnalysisOptions options = new AnalysisOptions();
+        options.maxMethodTime = 1;
+        Context ctx = new Context(Repository.createSelfRepository(), options);
+        ctx.analyzePackage("one/util/huntbugs/testdata");
+        List<Warning> slow = ctx.warnings().filter(w -> w.getType().getName().equals("MethodTooSlow")).collect(
+            Collectors.toList());
+        // some of the test data methods take more than a millisecond to analyze, at least before JIT warms up
+        assertFalse(slow.isEmpty());
+        for (Warning warning : slow) {
+            assertEquals("1", warning.getAnnotation("LIMIT").getValue().toString());
+            // time is not reported to keep the report deterministic
+            assertNull(warning.getAnnotation("TIME"));
+        }
+    }
+
+    @Test
+    public void classTooSlow() {
+        AnalysisOptions options = new AnalysisOptions();
+        options.maxClassTime = 1;
+        Context ctx = new Context(Repository.createSelfRepository(), options);
+        ctx.analyzePackage("one/util/huntbugs/testdata");
+        List<Warning> slow = ctx.warnings().filter(w -> w.getType().getName().equals("ClassTooSlow")).collect(
+            Collectors.toList());
+        assertFalse(slow.isEmpty());
+        for (Warning warning : slow) {
+            assertEquals("1", warning.getAnnotation("LIMIT").getValue().toString());
+        }
+        // the analysis of the class is stopped, so the remaining methods are not reported one by one
+        assertEquals(slow.size(), slow.stream().map(Warning::getClassName).distinct().count());
+        assertFalse(ctx.warnings().anyMatch(w -> w.getType().getName().equals("MethodTooSlow")));
+    }
+
     private long getWarnings() {
         return context.getStat("WarningTypes.Total");
     }
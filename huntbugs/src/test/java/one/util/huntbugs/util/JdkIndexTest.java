@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.util;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import one.util.huntbugs.repo.JdkTypeLoader;
+
+import org.junit.Test;
+
+public class JdkIndexTest {
+    @Test
+    public void testIndex() throws Exception {
+        JdkTypeLoader jdk = JdkTypeLoader.createBootLoader(null);
+        Path file = Files.createTempFile("huntbugs", ".jdkindex");
+        try {
+            Files.delete(file);
+            JdkIndex.open(file, jdk);
+            long size = Files.size(file);
+            // reopened without generation
+            JdkIndex index = JdkIndex.open(file, jdk);
+            assertEquals(size, Files.size(file));
+
+            assertTrue(index.contains("java/util/ArrayList"));
+            assertFalse(index.contains("one/util/huntbugs/util/JdkIndex"));
+            assertEquals(Arrays.asList("java/util/AbstractList", "java/util/List", "java/util/RandomAccess",
+                "java/lang/Cloneable", "java/io/Serializable"), index.getSuperTypes("java/util/ArrayList"));
+            assertEquals(Boolean.TRUE, index.isInstance("java/util/ArrayList", "java/util/Collection"));
+            assertEquals(Boolean.FALSE, index.isInstance("java/util/ArrayList", "java/util/Set"));
+            assertNull(index.isInstance("com/example/Unknown", "java/util/Set"));
+            assertTrue(Modifier.isFinal(index.getAccessFlags("java/lang/String")));
+            assertTrue(Modifier.isStatic(index.getMethodFlags("java/lang/String", "valueOf", "(I)Ljava/lang/String;")));
+            assertTrue(Modifier.isFinal(index.getFieldFlags("java/lang/Integer", "MAX_VALUE")));
+            assertTrue(index.mayDeclareMethod("java/util/ArrayList", "hashCode", "()I"));
+            assertFalse(index.mayDeclareMethod("java/util/ArrayList", "nonExisting", "()V"));
+            assertTrue(index.mayDeclareMethod("com/example/Unknown", "nonExisting", "()V"));
+
+            // index is visible to the thread it's bound to only
+            assertNull(JdkIndex.bind(index));
+            assertSame(index, JdkIndex.get());
+            assertNull(CompletableFuture.supplyAsync(JdkIndex::get).get());
+            assertSame(index, JdkIndex.bind(null));
+            assertNull(JdkIndex.get());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 HuntBugs contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.util.huntbugs.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+
+import one.util.huntbugs.repo.JdkTypeLoader;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.strobel.assembler.metadata.TypeDefinition;
+
+public class TypesTest {
+    @Test
+    public void testLookupJdkType() throws Exception {
+        TypeDefinition string = Types.lookupJdkType("java/lang/String");
+        assertEquals("java/lang/String", string.getInternalName());
+        assertSame(string, Types.lookupJdkType("java/lang/String"));
+        // the current runtime is read via the shared boot loader
+        assertNull(Types.bindJdk(JdkTypeLoader.createBootLoader(null)));
+        try {
+            assertSame(string, Types.lookupJdkType("java/lang/String"));
+        } finally {
+            Types.bindJdk(null);
+        }
+    }
+
+    @Test
+    public void testHierarchyResolved() throws Exception {
+        TypeDefinition list = Types.lookupJdkType("java/util/ArrayList");
+        // supertypes are resolved by the lookup, so other threads only read them
+        TypeDefinition base = CompletableFuture.supplyAsync(() -> list.getBaseType().resolve()).get();
+        assertSame(base, Types.lookupJdkType("java/util/AbstractList"));
+        assertTrue(Types.hasCompleteHierarchy(list));
+    }
+
+    @Test
+    public void testJdkValue() throws Exception {
+        StringType value = Types.getJdkValue(StringType.class, StringType::new);
+        assertSame(Types.lookupJdkType("java/lang/String"), value.string);
+        assertSame(value, Types.getJdkValue(StringType.class, StringType::new));
+        assertSame(value, CompletableFuture.supplyAsync(() -> Types.getJdkValue(StringType.class, StringType::new))
+                .get());
+    }
+
+    @Test
+    public void testBoundJdk() throws Exception {
+        Assume.assumeTrue(System.getProperty("sun.boot.class.path") == null);
+        TypeDefinition string = Types.lookupJdkType("java/lang/String");
+        JdkTypeLoader jdk = JdkTypeLoader.openRuntime(null);
+        assertNull(Types.bindJdk(jdk));
+        try {
+            TypeDefinition bound = Types.lookupJdkType("java/lang/String");
+            assertEquals("java/lang/String", bound.getInternalName());
+            assertNotSame(string, bound);
+            assertSame(bound, Types.lookupJdkType("java/lang/String"));
+            // other threads still read the current runtime
+            assertSame(string, CompletableFuture.supplyAsync(() -> Types.lookupJdkType("java/lang/String")).get());
+        } finally {
+            assertSame(jdk, Types.bindJdk(null));
+        }
+    }
+
+    static class StringType {
+        final TypeDefinition string = Types.lookupJdkType("java/lang/String");
+    }
+}